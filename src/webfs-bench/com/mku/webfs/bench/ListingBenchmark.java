@@ -0,0 +1,133 @@
+package com.mku.webfs.bench;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.mku.webfs.service.controller.FileResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON serialization of large listings, as a whole list and streamed entry by entry like the paged listing
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ListingBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int entries;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private List<FileResponse> list;
+
+    @Setup
+    public void setup() {
+        File dir = new File("/dir1");
+        list = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            String name = String.format("file_%06d.dat", i);
+            list.add(new FileResponse(new File(dir, name), new Attributes(i), "/dir1/" + name));
+        }
+    }
+
+    @Benchmark
+    public void serialize() throws IOException {
+        objectMapper.writeValue(OutputStream.nullOutputStream(), list);
+    }
+
+    @Benchmark
+    public void stream() throws IOException {
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(OutputStream.nullOutputStream())) {
+            generator.writeStartArray();
+            for (FileResponse fileResponse : list)
+                writer.writeValue(generator, fileResponse);
+            generator.writeEndArray();
+        }
+    }
+
+    private static class Attributes implements BasicFileAttributes {
+        private final FileTime time;
+        private final long size;
+
+        private Attributes(long size) {
+            this.time = FileTime.fromMillis(System.currentTimeMillis());
+            this.size = size;
+        }
+
+        public FileTime lastModifiedTime() {
+            return time;
+        }
+
+        public FileTime lastAccessTime() {
+            return time;
+        }
+
+        public FileTime creationTime() {
+            return time;
+        }
+
+        public boolean isRegularFile() {
+            return true;
+        }
+
+        public boolean isDirectory() {
+            return false;
+        }
+
+        public boolean isSymbolicLink() {
+            return false;
+        }
+
+        public boolean isOther() {
+            return false;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        public Object fileKey() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.mku.webfs.bench;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.controller.FileSystem;
+import org.apache.commons.text.StringEscapeUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Path validation and resolution done by every request. The canonical benchmarks are the validation
+ * and resolution the service used before PathResolver.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PathBenchmark {
+    private static final Pattern pattern = Pattern.compile("^.+[\\:\\*\\?\\<\\>\\|]+$");
+
+    @Param({"/dir1/dir2/file.dat", "/dir1/dir2/caf\u00e9 & co.dat"})
+    public String path;
+
+    private File root;
+
+    @Setup
+    public void setup() throws IOException {
+        root = BenchFiles.createRoot();
+        new File(root, "dir1/dir2").mkdirs();
+        new File(root, "dir1/dir2/file.dat").createNewFile();
+        FileSystem.getInstance().setPath(root.getPath());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchFiles.delete(root);
+    }
+
+    @Benchmark
+    public String validateFilePath() {
+        return FileSystem.getInstance().validateFilePath(path);
+    }
+
+    @Benchmark
+    public File getFile() {
+        return FileSystem.getInstance().getFile(FileSystem.getInstance().validateFilePath(path));
+    }
+
+    @Benchmark
+    public String validateFilePathCanonical() {
+        return legacyValidateFilePath(path);
+    }
+
+    @Benchmark
+    public File getFileCanonical() throws IOException {
+        return legacyGetFile(legacyValidateFilePath(path));
+    }
+
+    // escape and regex
+    private static String legacyValidateFilePath(String path) {
+        path = StringEscapeUtils.escapeHtml4(path);
+        if (pattern.matcher(path).matches())
+            throw new RuntimeException("Invalid characters in file path found");
+        return path;
+    }
+
+    // File per segment and canonical paths of file and root
+    private File legacyGetFile(String path) throws IOException {
+        path = legacyValidateFilePath(path);
+        File file = new File(root.getPath());
+        for (String part : path.split("/")) {
+            if (part.length() == 0 || part.equals("."))
+                continue;
+            file = new File(file, part);
+        }
+        if (!file.getCanonicalPath().startsWith(new File(root.getPath()).getCanonicalPath()))
+            throw new RuntimeException("Could not validate file path");
+        return file;
+    }
+}
@@ -0,0 +1,126 @@
+package com.mku.webfs.bench;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.controller.FileSystem;
+import com.mku.webfs.service.controller.FileTransfer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.util.StreamUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies and downloads of a file, the downloads are sent to a loopback socket that is drained by another
+ * thread. The stream benchmarks are the copies through the heap the service used before the transfer engine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TransferBenchmark {
+    private static final int FILE_LENGTH = 64 * 1024 * 1024;
+
+    private File root;
+    private File file;
+    private File dest;
+    private ServerSocketChannel server;
+    private SocketChannel socket;
+    private Thread drain;
+
+    @Setup
+    public void setup() throws IOException {
+        root = BenchFiles.createRoot();
+        FileSystem.getInstance().setPath(root.getPath());
+        file = BenchFiles.createFile(new File(root, "source.dat"), FILE_LENGTH);
+        dest = new File(root, "dest.dat");
+
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        drain = new Thread(() -> {
+            try (SocketChannel client = server.accept()) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+                while (client.read(buffer) >= 0)
+                    buffer.clear();
+            } catch (IOException ignored) {
+            }
+        });
+        drain.start();
+        socket = SocketChannel.open(server.getLocalAddress());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        socket.close();
+        drain.join();
+        server.close();
+        BenchFiles.delete(root);
+    }
+
+    @Benchmark
+    public File copyStream() throws IOException {
+        try (InputStream inputStream = new FileInputStream(file);
+             OutputStream outputStream = new FileOutputStream(dest)) {
+            StreamUtils.copy(inputStream, outputStream);
+        }
+        return dest;
+    }
+
+    @Benchmark
+    public File copy() throws IOException {
+        return FileSystem.getInstance().copy(file, dest);
+    }
+
+    @Benchmark
+    public int downloadStream() throws IOException {
+        try (InputStream inputStream = new FileInputStream(file)) {
+            return StreamUtils.copy(inputStream, socket.socket().getOutputStream());
+        }
+    }
+
+    @Benchmark
+    public long download() throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return FileTransfer.getInstance().transfer(channel, 0, FILE_LENGTH, socket);
+        }
+    }
+}
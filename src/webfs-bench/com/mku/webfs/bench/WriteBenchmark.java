@@ -0,0 +1,79 @@
+package com.mku.webfs.bench;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.controller.FileSystem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uploads of a file in chunks of different sizes, each chunk opens the file like the upload endpoint
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WriteBenchmark {
+    private static final int FILE_LENGTH = 64 * 1024 * 1024;
+
+    @Param({"4096", "65536", "1048576", "8388608"})
+    public int chunkSize;
+
+    private File root;
+    private File file;
+    private byte[] chunk;
+
+    @Setup
+    public void setup() throws IOException {
+        root = BenchFiles.createRoot();
+        file = new File(root, "upload.dat");
+        FileSystem.getInstance().setPath(root.getPath());
+        chunk = new byte[chunkSize];
+        new Random(chunkSize).nextBytes(chunk);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchFiles.delete(root);
+    }
+
+    @Benchmark
+    public long write() throws IOException {
+        for (long pos = 0; pos < FILE_LENGTH; pos += chunkSize)
+            FileSystem.getInstance().write(file, new ByteArrayInputStream(chunk), pos);
+        return file.length();
+    }
+}
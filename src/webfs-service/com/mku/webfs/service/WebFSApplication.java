@@ -25,6 +25,7 @@ SOFTWARE.
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
 import org.springframework.context.ConfigurableApplicationContext;
 
 /**
@@ -47,4 +48,11 @@ public class WebFSApplication {
 	public static void stop() {
 		SpringApplication.exit(ctx);
 	}
+
+	/**
+	 * Get the port the server is listening to, useful if it was started with server.port=0
+	 */
+	public static int getPort() {
+		return ((WebServerApplicationContext) ctx).getWebServer().getPort();
+	}
 }
\ No newline at end of file
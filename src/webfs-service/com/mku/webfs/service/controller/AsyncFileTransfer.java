@@ -0,0 +1,452 @@
+package com.mku.webfs.service.controller;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mku.webfs.service.metrics.FileMetrics;
+import com.mku.webfs.service.qos.QosInterceptor;
+import com.mku.webfs.service.qos.Throttle;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfers with non-blocking servlet I/O (Servlet 3.1). The request goes async and the data is moved
+ * by WriteListener and ReadListener callbacks only when the socket is ready, so a slow client does
+ * not hold a container thread for the whole transfer. Throttled transfers are resumed by a timer
+ * instead of sleeping.
+ */
+public class AsyncFileTransfer {
+    private static final int BUFF_LENGTH = 64 * 1024;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "webfs-async-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile ObjectMapper objectMapper = new ObjectMapper();
+    private volatile long timeout;
+
+    private static AsyncFileTransfer instance;
+
+    public static synchronized AsyncFileTransfer getInstance() {
+        if (instance == null)
+            instance = new AsyncFileTransfer();
+        return instance;
+    }
+
+    /**
+     * A part of a response body, the header bytes followed by a region of the file.
+     */
+    public static class Segment {
+        private final byte[] header;
+        private final long position;
+        private final long length;
+
+        public Segment(byte[] header, long position, long length) {
+            this.header = header;
+            this.position = position;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Creates the response of an upload after all data is written.
+     */
+    public interface Completion {
+        ResponseEntity<?> complete(long bytesWritten) throws IOException;
+    }
+
+    /**
+     * @param objectMapper The mapper for the upload responses
+     * @param timeout      The milliseconds a transfer can take, 0 for no limit
+     */
+    public void configure(ObjectMapper objectMapper, long timeout) {
+        this.objectMapper = objectMapper;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Send the response body, the caller sets the status and the headers.
+     *
+     * @param file     The file
+     * @param segments The parts of the body
+     * @param request  The request
+     * @param response The response
+     * @throws IOException
+     */
+    public void send(File file, List<Segment> segments, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        AsyncContext asyncContext = startAsync(request, response);
+        FileMetrics.getInstance().transferStarted(FileMetrics.Direction.DOWNLOAD);
+        Writer writer = new Writer(asyncContext, channel, segments, QosInterceptor.getThrottle(request), response.getOutputStream());
+        asyncContext.addListener(writer);
+        response.getOutputStream().setWriteListener(writer);
+    }
+
+    /**
+     * Write the request body into a file with positioned writes. The channel is closed when the
+     * transfer ends and the completion creates the response.
+     *
+     * @param file       The file, its cached metadata is invalidated when the transfer ends
+     * @param channel    The file channel
+     * @param position   The byte position of the file that writing will start
+     * @param maxLength  The max bytes that can be written
+     * @param request    The request
+     * @param response   The response
+     * @param completion The completion
+     * @throws IOException
+     */
+    public void receive(File file, FileChannel channel, long position, long maxLength, HttpServletRequest request,
+                        HttpServletResponse response, Completion completion) throws IOException {
+        AsyncContext asyncContext;
+        try {
+            asyncContext = startAsync(request, response);
+        } catch (RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+        FileMetrics.getInstance().transferStarted(FileMetrics.Direction.UPLOAD);
+        Reader reader = new Reader(asyncContext, file, channel, position, maxLength, QosInterceptor.getThrottle(request),
+                request.getInputStream(), completion);
+        asyncContext.addListener(reader);
+        request.getInputStream().setReadListener(reader);
+    }
+
+    private AsyncContext startAsync(HttpServletRequest request, HttpServletResponse response) {
+        AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(timeout);
+        return asyncContext;
+    }
+
+    /**
+     * Run a callback on a container thread after a delay.
+     */
+    private void schedule(AsyncContext asyncContext, long nanos, Runnable runnable) {
+        timer.schedule(() -> asyncContext.start(runnable), nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void fail(AsyncContext asyncContext, Throwable ex) {
+        FileMetrics.getInstance().error(ex);
+        HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+        if (!response.isCommitted()) {
+            String msg = String.valueOf(ex.getMessage());
+            response.reset();
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            try {
+                response.getOutputStream().write(msg.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException | IllegalStateException ignored) {
+            }
+        }
+        asyncContext.complete();
+    }
+
+    private static void close(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Base of the listeners, the file channel is closed when the async request ends.
+     */
+    private abstract class Transfer implements AsyncListener {
+        final AsyncContext asyncContext;
+        final FileChannel channel;
+        final Throttle throttle;
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFF_LENGTH);
+        long diskNanos;
+        boolean done;
+
+        Transfer(AsyncContext asyncContext, FileChannel channel, Throttle throttle) {
+            this.asyncContext = asyncContext;
+            this.channel = channel;
+            this.throttle = throttle;
+        }
+
+        abstract void ended();
+
+        synchronized void error(Throwable ex) {
+            if (done)
+                return;
+            done = true;
+            fail(asyncContext, ex);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            close(channel);
+            ended();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            error(new IOException("Transfer timed out"));
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            // the connection failed, the request must be completed here or the container
+            // dispatches it to the error page
+            synchronized (this) {
+                done = true;
+            }
+            close(channel);
+            asyncContext.complete();
+        }
+
+        /**
+         * The container reported an I/O error, it then calls onError(AsyncEvent).
+         */
+        synchronized void aborted(Throwable ex) {
+            if (done)
+                return;
+            done = true;
+            FileMetrics.getInstance().error(ex);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    private class Writer extends Transfer implements WriteListener {
+        private final List<Segment> segments;
+        private final ServletOutputStream outputStream;
+        private int index = -1;
+        private byte[] header;
+        private long pos;
+        private long remaining;
+        // bytes already taken from the throttle before a pause
+        private int reserved;
+        private boolean paused;
+
+        Writer(AsyncContext asyncContext, FileChannel channel, List<Segment> segments, Throttle throttle,
+               ServletOutputStream outputStream) {
+            super(asyncContext, channel, throttle);
+            this.segments = segments;
+            this.outputStream = outputStream;
+        }
+
+        @Override
+        public synchronized void onWritePossible() {
+            if (done || paused)
+                return;
+            try {
+                while (outputStream.isReady()) {
+                    if (header != null) {
+                        byte[] bytes = header;
+                        header = null;
+                        outputStream.write(bytes);
+                        continue;
+                    }
+                    if (remaining == 0) {
+                        if (++index == segments.size()) {
+                            done = true;
+                            asyncContext.complete();
+                            return;
+                        }
+                        Segment segment = segments.get(index);
+                        header = segment.header;
+                        pos = segment.position;
+                        remaining = segment.length;
+                        continue;
+                    }
+                    int length = (int) Math.min(BUFF_LENGTH, remaining);
+                    if (throttle != null && reserved == 0) {
+                        reserved = length;
+                        long wait = throttle.reserve(length, FileMetrics.Direction.DOWNLOAD);
+                        if (wait > 0) {
+                            paused = true;
+                            schedule(asyncContext, wait, this::resume);
+                            return;
+                        }
+                    }
+                    if (reserved > 0)
+                        length = reserved;
+                    reserved = 0;
+                    read(length);
+                    outputStream.write(buffer.array(), 0, length);
+                    pos += length;
+                    remaining -= length;
+                }
+            } catch (Throwable ex) {
+                error(ex);
+            }
+        }
+
+        private void read(int length) throws IOException {
+            long start = System.nanoTime();
+            buffer.clear();
+            buffer.limit(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, pos + buffer.position()) < 0)
+                    throw new EOFException("File was truncated during transfer");
+            }
+            diskNanos += System.nanoTime() - start;
+            FileMetrics.getInstance().addBytesRead(length);
+        }
+
+        private synchronized void resume() {
+            paused = false;
+            onWritePossible();
+        }
+
+        @Override
+        public void onError(Throwable ex) {
+            aborted(ex);
+        }
+
+        @Override
+        synchronized void ended() {
+            done = true;
+            FileMetrics.getInstance().recordDiskNanos(FileMetrics.DiskOperation.READ, diskNanos);
+            FileMetrics.getInstance().transferEnded(FileMetrics.Direction.DOWNLOAD);
+        }
+    }
+
+    private class Reader extends Transfer implements ReadListener {
+        private final File file;
+        private final long position;
+        private final long maxLength;
+        private final ServletInputStream inputStream;
+        private final Completion completion;
+        private long bytesWritten;
+        private boolean paused;
+        private boolean allDataRead;
+
+        Reader(AsyncContext asyncContext, File file, FileChannel channel, long position, long maxLength, Throttle throttle,
+               ServletInputStream inputStream, Completion completion) {
+            super(asyncContext, channel, throttle);
+            this.file = file;
+            this.position = position;
+            this.maxLength = maxLength;
+            this.inputStream = inputStream;
+            this.completion = completion;
+        }
+
+        @Override
+        public synchronized void onDataAvailable() {
+            if (done || paused)
+                return;
+            try {
+                while (inputStream.isReady()) {
+                    int bytesRead = inputStream.read(buffer.array(), 0, BUFF_LENGTH);
+                    if (bytesRead < 0) {
+                        onAllDataRead();
+                        return;
+                    }
+                    if (bytesWritten + bytesRead > maxLength)
+                        throw new IOException("Chunk exceeds the file length");
+                    write(bytesRead);
+                    if (throttle != null) {
+                        long wait = throttle.reserve(bytesRead, FileMetrics.Direction.UPLOAD);
+                        if (wait > 0) {
+                            paused = true;
+                            schedule(asyncContext, wait, this::resume);
+                            return;
+                        }
+                    }
+                }
+            } catch (Throwable ex) {
+                error(ex);
+            }
+        }
+
+        private void write(int length) throws IOException {
+            long start = System.nanoTime();
+            buffer.clear();
+            buffer.limit(length);
+            long pos = position + bytesWritten;
+            while (buffer.hasRemaining())
+                pos += channel.write(buffer, pos);
+            diskNanos += System.nanoTime() - start;
+            bytesWritten += length;
+            FileMetrics.getInstance().addBytesWritten(length);
+        }
+
+        private synchronized void resume() {
+            paused = false;
+            if (allDataRead)
+                onAllDataRead();
+            else
+                onDataAvailable();
+        }
+
+        @Override
+        public synchronized void onAllDataRead() {
+            allDataRead = true;
+            if (done || paused)
+                return;
+            done = true;
+            try {
+                ResponseEntity<?> entity = completion.complete(bytesWritten);
+                HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+                byte[] body = objectMapper.writeValueAsBytes(entity.getBody());
+                response.setStatus(entity.getStatusCodeValue());
+                response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+                response.setContentLength(body.length);
+                response.getOutputStream().write(body);
+                asyncContext.complete();
+            } catch (Throwable ex) {
+                fail(asyncContext, ex);
+            }
+        }
+
+        @Override
+        public void onError(Throwable ex) {
+            aborted(ex);
+        }
+
+        @Override
+        synchronized void ended() {
+            done = true;
+            FileMetrics.getInstance().recordDiskNanos(FileMetrics.DiskOperation.WRITE, diskNanos);
+            FileMetrics.getInstance().transferEnded(FileMetrics.Direction.UPLOAD);
+            MetadataCache.getInstance().invalidate(file, false);
+        }
+    }
+}
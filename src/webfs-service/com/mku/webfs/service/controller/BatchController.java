@@ -0,0 +1,243 @@
+package com.mku.webfs.service.controller;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mku.webfs.service.security.Security;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.concurrent.DelegatingSecurityContextExecutorService;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+@RestController
+@CrossOrigin(origins = "${app.cors.allowed-origins}")
+@RequestMapping("/api")
+/**
+ * Provides an endpoint that runs a list of operations in a single request. Each operation has the
+ * same semantics as the matching endpoint of {@link FileController}.
+ */
+public class BatchController {
+    private static final int MAX_OPERATIONS = 1000;
+    private static final int THREADS = 16;
+
+    private static final ExecutorService executor = new DelegatingSecurityContextExecutorService(
+            Executors.newFixedThreadPool(THREADS));
+
+    private final FileController fileController;
+    private final ObjectMapper objectMapper;
+
+    public BatchController(FileController fileController, ObjectMapper objectMapper) {
+        this.fileController = fileController;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Run a list of operations, the results are returned in the same order. Operations: info, list,
+     * mkdir, create, rename, move, copy, delete, setLength. With parallel=true operations that do not
+     * touch the same paths run concurrently, operations on the same path still run in order.
+     * Each operation can have its own precondition in ifMatch, an If-Match header of the batch request is ignored.<br>
+     * example:
+     * curl -X POST "http://localhost:8080/api/batch?parallel=true" -H "Content-Type: application/json"
+     * -d '[{"op":"mkdir","path":"/dir"},{"op":"create","path":"/dir/file.dat"},{"op":"info","path":"/dir/file.dat"}]'
+     * curl -X POST "http://localhost:8080/api/batch" -H "Content-Type: application/json"
+     * -d '[{"op":"delete","path":"/dir/file.dat","ifMatch":"\"<etag>\""}]'
+     *
+     * @param operations The operations
+     * @param parallel   Run independent operations concurrently
+     * @return
+     * @throws IOException
+     */
+    @PostMapping("/batch")
+    public List<BatchResponse> batch(HttpServletRequest request, @RequestBody List<BatchOperation> operations,
+                                     boolean parallel) throws IOException {
+        if (operations.size() > MAX_OPERATIONS)
+            throw new IOException("Too many operations, max: " + MAX_OPERATIONS);
+        List<BatchResponse> responses = new ArrayList<>();
+        if (!parallel) {
+            for (BatchOperation operation : operations)
+                responses.add(run(request, operation));
+            return responses;
+        }
+
+        // operations are grouped in waves, an operation runs after all the earlier ones it depends on
+        int[] waves = new int[operations.size()];
+        int maxWave = 0;
+        for (int i = 0; i < operations.size(); i++) {
+            for (int j = 0; j < i; j++) {
+                if (waves[j] >= waves[i] && isDependent(operations.get(i), operations.get(j)))
+                    waves[i] = waves[j] + 1;
+            }
+            maxWave = Math.max(maxWave, waves[i]);
+        }
+        BatchResponse[] results = new BatchResponse[operations.size()];
+        for (int wave = 0; wave <= maxWave; wave++) {
+            List<Integer> indexes = new ArrayList<>();
+            List<Callable<BatchResponse>> tasks = new ArrayList<>();
+            for (int i = 0; i < operations.size(); i++) {
+                if (waves[i] != wave)
+                    continue;
+                BatchOperation operation = operations.get(i);
+                indexes.add(i);
+                tasks.add(() -> run(request, operation));
+            }
+            try {
+                List<Future<BatchResponse>> futures = executor.invokeAll(tasks);
+                for (int i = 0; i < futures.size(); i++)
+                    results[indexes.get(i)] = futures.get(i).get();
+            } catch (InterruptedException | ExecutionException ex) {
+                throw new IOException(ex);
+            }
+        }
+        for (BatchResponse response : results)
+            responses.add(response);
+        return responses;
+    }
+
+    private BatchResponse run(HttpServletRequest batchRequest, BatchOperation operation) {
+        HttpServletRequest request = withIfMatch(batchRequest, operation.getIfMatch());
+        try {
+            Object result;
+            String op = operation.getOp() != null ? operation.getOp() : "";
+            switch (op) {
+                case "info":
+                    result = fileController.info(request, operation.getPath()).getBody();
+                    break;
+                case "list":
+                    result = fileController.list(request, operation.getPath()).getBody();
+                    break;
+                case "mkdir":
+                    result = fileController.mkdir(request, operation.getPath());
+                    break;
+                case "create":
+                    result = fileController.create(request, operation.getPath());
+                    break;
+                case "rename":
+                    result = fileController.rename(request, operation.getPath(), operation.getFilename());
+                    break;
+                case "move":
+                    result = fileController.move(request, operation.getPath(), operation.getDestDir(),
+                            operation.getFilename(), operation.isRecursive());
+                    break;
+                case "copy":
+                    result = fileController.copy(request, operation.getPath(), operation.getDestDir(),
+                            operation.getFilename(), operation.isRecursive());
+                    break;
+                case "delete":
+                    result = fileController.delete(request, operation.getPath(), operation.isRecursive());
+                    break;
+                case "setLength":
+                    result = fileController.setLength(request, operation.getPath(), operation.getLength());
+                    break;
+                default:
+                    throw new IOException("Unknown operation: " + operation.getOp());
+            }
+            // the responses read the file when serialized so take a snapshot now
+            return new BatchResponse(operation.getOp(), operation.getPath(), objectMapper.valueToTree(result), null);
+        } catch (Exception ex) {
+            String msg = ex.getMessage() != null ? ex.getMessage() : ex.toString();
+            return new BatchResponse(operation.getOp(), operation.getPath(), null, msg);
+        }
+    }
+
+    /**
+     * The request of an operation, the If-Match header is the precondition of the operation.
+     */
+    private static HttpServletRequest withIfMatch(HttpServletRequest request, String ifMatch) {
+        return new HttpServletRequestWrapper(request) {
+            @Override
+            public String getHeader(String name) {
+                if (HttpHeaders.IF_MATCH.equalsIgnoreCase(name))
+                    return ifMatch;
+                return super.getHeader(name);
+            }
+
+            @Override
+            public Enumeration<String> getHeaders(String name) {
+                if (HttpHeaders.IF_MATCH.equalsIgnoreCase(name))
+                    return Collections.enumeration(ifMatch != null ? List.of(ifMatch) : List.of());
+                return super.getHeaders(name);
+            }
+        };
+    }
+
+    /**
+     * Two operations depend on each other if one of them writes and their paths overlap.
+     */
+    private boolean isDependent(BatchOperation operation, BatchOperation other) {
+        if (!isWrite(operation) && !isWrite(other))
+            return false;
+        for (String path : getPaths(operation)) {
+            for (String otherPath : getPaths(other)) {
+                if (isOverlapping(path, otherPath))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isWrite(BatchOperation operation) {
+        return !"info".equals(operation.getOp()) && !"list".equals(operation.getOp());
+    }
+
+    private List<String> getPaths(BatchOperation operation) {
+        List<String> paths = new ArrayList<>();
+        paths.add(normalize(operation.getPath()));
+        if (operation.getDestDir() != null)
+            paths.add(normalize(operation.getDestDir()));
+        else if ("rename".equals(operation.getOp()) && operation.getFilename() != null) {
+            String path = normalize(operation.getPath());
+            paths.add(path.substring(0, Math.max(0, path.lastIndexOf("/"))) + normalize(operation.getFilename()));
+        }
+        return paths;
+    }
+
+    private boolean isOverlapping(String path, String otherPath) {
+        return path.equals(otherPath) || path.startsWith(otherPath + "/") || otherPath.startsWith(path + "/")
+                || path.isEmpty() || otherPath.isEmpty();
+    }
+
+    private String normalize(String path) {
+        if (path == null)
+            return "";
+        StringBuilder sb = new StringBuilder();
+        for (String part : path.split("/")) {
+            if (part.length() == 0 || part.equals("."))
+                continue;
+            sb.append("/").append(part);
+        }
+        return sb.toString();
+    }
+}
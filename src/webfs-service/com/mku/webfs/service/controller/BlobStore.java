@@ -0,0 +1,375 @@
+package com.mku.webfs.service.controller;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.metrics.FileMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Content addressed store that keeps one copy of identical files. Each blob is stored under the
+ * service data directory with the SHA-256 digest of its contents as the name, and the files under
+ * the root are hard links to the blobs, so the link count of a blob is its reference count.
+ * Files that share a blob are never modified in place, they are detached (copy on write) first.
+ * Blobs that are not referenced by any file are deleted by the garbage collector.
+ */
+public class BlobStore {
+    private static final String BLOBS_DIR_NAME = "blobs";
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final String NLINK_ATTRIBUTE = "unix:nlink";
+    private static final int LOCK_STRIPES = 256;
+    // temp files older than this were left by failed writes
+    private static final long TMP_MAX_AGE_MS = 24 * 3600 * 1000L;
+
+    private final boolean linksSupported = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+    // linking a blob and collecting it are serialized per digest
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final ScheduledExecutorService gcTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "webfs-blob-gc");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ScheduledFuture<?> gcTask;
+    private volatile boolean enabled;
+
+    private final AtomicLong dedupedFiles = new AtomicLong();
+    private final AtomicLong dedupedBytes = new AtomicLong();
+    private final AtomicLong collectedBlobs = new AtomicLong();
+    private final AtomicLong collectedBytes = new AtomicLong();
+
+    private static BlobStore instance;
+
+    public static synchronized BlobStore getInstance() {
+        if (instance == null)
+            instance = new BlobStore();
+        return instance;
+    }
+
+    private BlobStore() {
+        for (int i = 0; i < locks.length; i++)
+            locks[i] = new Object();
+    }
+
+    /**
+     * Enable or disable the deduplication of new files, existing links are kept either way.
+     *
+     * @param enabled      True to store the contents of new files as blobs
+     * @param gcIntervalMs The interval of the garbage collector, 0 to run it only with gc()
+     */
+    public synchronized void configure(boolean enabled, long gcIntervalMs) {
+        if (enabled && !linksSupported)
+            throw new IllegalStateException("Deduplication needs a file system with hard links and link counts");
+        this.enabled = enabled;
+        if (gcTask != null)
+            gcTask.cancel(false);
+        gcTask = null;
+        if (enabled && gcIntervalMs > 0) {
+            gcTask = gcTimer.scheduleWithFixedDelay(() -> {
+                try {
+                    gc();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }, gcIntervalMs, gcIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Write a stream as the new contents of a file. The data is written to a temp file while the
+     * digest is computed, if a blob with the same digest exists the temp file is discarded, then
+     * the file is replaced atomically with a link to the blob. The stream is not closed.
+     *
+     * @param rFile       The file
+     * @param inputStream The data
+     * @return The bytes written
+     * @throws IOException
+     */
+    public long write(File rFile, InputStream inputStream) throws IOException {
+        Path tmp = createTempPath();
+        MessageDigest digest = getDigest();
+        long bytesWritten;
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                bytesWritten = FileSystem.getInstance().write(channel, new DigestInputStream(inputStream, digest), 0);
+            }
+            String hash = toHex(digest.digest());
+            synchronized (getLock(hash)) {
+                Path blob = getBlobPath(hash);
+                try {
+                    Files.createDirectories(blob.getParent());
+                    Files.createLink(blob, tmp);
+                } catch (FileAlreadyExistsException ex) {
+                    dedupedFiles.incrementAndGet();
+                    dedupedBytes.addAndGet(bytesWritten);
+                }
+                link(blob, rFile.toPath());
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return bytesWritten;
+    }
+
+    /**
+     * Store the contents of an existing file as a blob, if an identical blob exists the file is
+     * replaced with a link to it.
+     *
+     * @param rFile The file
+     * @throws IOException
+     */
+    public void add(File rFile) throws IOException {
+        Path path = rFile.toPath();
+        if (getLinkCount(path) > 1)
+            return;
+        String hash = digest(path);
+        synchronized (getLock(hash)) {
+            Path blob = getBlobPath(hash);
+            try {
+                Files.createDirectories(blob.getParent());
+                Files.createLink(blob, path);
+            } catch (FileAlreadyExistsException ex) {
+                dedupedFiles.incrementAndGet();
+                dedupedBytes.addAndGet(Files.size(path));
+                link(blob, path);
+            }
+        }
+    }
+
+    /**
+     * Copy a file by linking the destination to the same blob, the source is added to the store
+     * first if it's not linked already.
+     *
+     * @param source The source file
+     * @param dest   The destination file, it is replaced if it exists
+     * @throws IOException
+     */
+    public void copy(File source, File dest) throws IOException {
+        add(source);
+        link(source.toPath(), dest.toPath());
+        dedupedFiles.incrementAndGet();
+        dedupedBytes.addAndGet(source.length());
+    }
+
+    /**
+     * Check if a file shares its contents with other files.
+     *
+     * @param rFile The file
+     * @return True if the file has more than one link
+     * @throws IOException
+     */
+    public boolean isLinked(File rFile) throws IOException {
+        if (!linksSupported)
+            return false;
+        try {
+            return getLinkCount(rFile.toPath()) > 1;
+        } catch (NoSuchFileException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Make sure a file can be modified in place without changing the files that share its contents.
+     * A linked file is replaced with a private copy, or deleted if its contents will be discarded.
+     *
+     * @param rFile        The file
+     * @param keepContents False if the file will be truncated
+     * @throws IOException
+     */
+    public void detach(File rFile, boolean keepContents) throws IOException {
+        if (!isLinked(rFile))
+            return;
+        Path path = rFile.toPath();
+        if (!keepContents) {
+            Files.deleteIfExists(path);
+            return;
+        }
+        Path tmp = createTempPath();
+        try {
+            Files.copy(path, tmp, StandardCopyOption.COPY_ATTRIBUTES);
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Delete the blobs that are not referenced by any file and the temp files left by failed writes.
+     *
+     * @return The number of blobs deleted
+     * @throws IOException
+     */
+    public long gc() throws IOException {
+        Path blobsDir = getBlobsDir();
+        if (!Files.isDirectory(blobsDir))
+            return 0;
+        long count = 0;
+        List<Path> blobs;
+        try (Stream<Path> stream = Files.walk(blobsDir, 2)) {
+            blobs = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        for (Path blob : blobs) {
+            String hash = blob.getFileName().toString();
+            synchronized (getLock(hash)) {
+                try {
+                    if (getLinkCount(blob) > 1)
+                        continue;
+                    long size = Files.size(blob);
+                    Checksums.getInstance().remove(blob.toFile());
+                    Files.delete(blob);
+                    collectedBytes.addAndGet(size);
+                    collectedBlobs.incrementAndGet();
+                    count++;
+                } catch (NoSuchFileException ignored) {
+                }
+            }
+        }
+        Path tmpDir = getTmpDir();
+        if (Files.isDirectory(tmpDir)) {
+            long expired = System.currentTimeMillis() - TMP_MAX_AGE_MS;
+            try (Stream<Path> stream = Files.list(tmpDir)) {
+                for (Path tmp : stream.collect(Collectors.toList())) {
+                    try {
+                        if (Files.getLastModifiedTime(tmp).toMillis() < expired)
+                            Files.delete(tmp);
+                    } catch (NoSuchFileException ignored) {
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the statistics of the store.
+     *
+     * @return The statistics
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("dedupedFiles", dedupedFiles.get());
+        stats.put("dedupedBytes", dedupedBytes.get());
+        stats.put("collectedBlobs", collectedBlobs.get());
+        stats.put("collectedBytes", collectedBytes.get());
+        return stats;
+    }
+
+    /**
+     * Replace a file atomically with a new link to a target, the link is created in the temp
+     * directory and renamed over the file.
+     */
+    private void link(Path target, Path path) throws IOException {
+        Path tmpLink = createTempPath();
+        Files.createLink(tmpLink, target);
+        try {
+            Checksums.getInstance().remove(path.toFile());
+            long start = FileMetrics.getInstance().start();
+            Files.move(tmpLink, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            FileMetrics.getInstance().recordDisk(FileMetrics.DiskOperation.WRITE, start);
+        } finally {
+            // rename does nothing if the file is already a link to the target
+            Files.deleteIfExists(tmpLink);
+        }
+    }
+
+    private String digest(Path path) throws IOException {
+        MessageDigest digest = getDigest();
+        byte[] buff = new byte[64 * 1024];
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buff)) > 0)
+                digest.update(buff, 0, bytesRead);
+        }
+        return toHex(digest.digest());
+    }
+
+    private int getLinkCount(Path path) throws IOException {
+        return (Integer) Files.getAttribute(path, NLINK_ATTRIBUTE);
+    }
+
+    private Object getLock(String hash) {
+        return locks[Integer.parseInt(hash.substring(0, 2), 16) % LOCK_STRIPES];
+    }
+
+    private Path getBlobsDir() {
+        return FileSystem.getInstance().getMetaDir().toPath().resolve(BLOBS_DIR_NAME);
+    }
+
+    private Path getTmpDir() {
+        return FileSystem.getInstance().getTempDir().toPath();
+    }
+
+    private Path getBlobPath(String hash) {
+        return getBlobsDir().resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private Path createTempPath() throws IOException {
+        Path tmpDir = getTmpDir();
+        Files.createDirectories(tmpDir);
+        return tmpDir.resolve(UUID.randomUUID().toString());
+    }
+
+    private static MessageDigest getDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,59 @@
+package com.mku.webfs.service.controller;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Statistics and garbage collection of the blob store, deduplication is set by BlobStoreConfig.
+ * The endpoint needs to be exposed with management.endpoints.web.exposure.include<br>
+ * example:
+ * curl -X GET "http://localhost:8080/actuator/blobs"
+ * curl -X POST "http://localhost:8080/actuator/blobs"
+ */
+@Component
+@Endpoint(id = "blobs")
+public class BlobStoreEndpoint {
+    @ReadOperation
+    public Map<String, Object> stats() {
+        return BlobStore.getInstance().getStats();
+    }
+
+    /**
+     * Delete the unreferenced blobs now
+     */
+    @WriteOperation
+    public Map<String, Object> gc() throws IOException {
+        long collected = BlobStore.getInstance().gc();
+        Map<String, Object> stats = BlobStore.getInstance().getStats();
+        stats.put("collected", collected);
+        return stats;
+    }
+}
@@ -0,0 +1,107 @@
+package com.mku.webfs.service.controller;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import org.springframework.http.HttpRange;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Byte ranges of a download as specified in RFC 7233, shared by the web stacks.
+ */
+public class ByteRanges {
+    /**
+     * Parse a Range header and resolve the ranges against the file length dropping the ones that
+     * are not satisfiable.
+     *
+     * @param rangeHeader The value of the Range header
+     * @param fileLength  The file length
+     * @return The inclusive start and end of the satisfiable ranges, or null if the header is invalid or
+     * the ranges overlap enough to request more bytes than the file has in which case the whole file
+     * should be sent.
+     */
+    public static List<long[]> getSatisfiableRanges(String rangeHeader, long fileLength) {
+        List<HttpRange> httpRanges;
+        try {
+            httpRanges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException ex) {
+            // a syntactically invalid Range header is ignored
+            return null;
+        }
+        List<long[]> ranges = new ArrayList<>();
+        long total = 0;
+        for (HttpRange httpRange : httpRanges) {
+            long start = httpRange.getRangeStart(fileLength);
+            long end = httpRange.getRangeEnd(fileLength);
+            if (start >= fileLength || start > end)
+                continue;
+            ranges.add(new long[]{start, end});
+            total += end - start + 1;
+        }
+        if (total > fileLength)
+            return null;
+        return ranges;
+    }
+
+    public static String getContentRange(long[] range, long fileLength) {
+        return "bytes " + range[0] + "-" + range[1] + "/" + fileLength;
+    }
+
+    /**
+     * Check the If-Range precondition, a range request is served as such only if the validator
+     * matches the current representation of the file. An entity tag must match with the strong
+     * comparison, a date must be the exact modification time.
+     *
+     * @param file    The file
+     * @param ifRange The value of the If-Range header or null
+     * @return True if the Range header should be honored
+     */
+    public static boolean isRangeValid(File file, String ifRange) {
+        if (ifRange == null)
+            return true;
+        if (ifRange.startsWith("W/"))
+            return false;
+        if (ifRange.startsWith("\"")) {
+            try {
+                return ifRange.equals(ETags.getETag(file));
+            } catch (IOException ex) {
+                return false;
+            }
+        }
+        long date;
+        try {
+            date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException ex) {
+            return false;
+        }
+        // HTTP dates have a resolution of seconds
+        return date == file.lastModified() / 1000 * 1000;
+    }
+}
@@ -0,0 +1,81 @@
+package com.mku.webfs.service.controller;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Checksums of files exposed as resources.
+ */
+public class ChecksumResponse {
+    private transient File file;
+    private transient Checksums.Algorithm algorithm;
+    private transient String digest;
+    private transient long length;
+    private transient long chunkSize;
+    private transient boolean cached;
+
+    public ChecksumResponse(File file, Checksums.Algorithm algorithm, String digest, long length, long chunkSize, boolean cached) {
+        this.file = file;
+        this.algorithm = algorithm;
+        this.digest = digest;
+        this.length = length;
+        this.chunkSize = chunkSize;
+        this.cached = cached;
+    }
+
+    public String getPath() throws IOException {
+        return FileSystem.getInstance().getRelativePath(file);
+    }
+
+    public String getAlgorithm() {
+        return algorithm.getName();
+    }
+
+    /**
+     * The checksum as hex, big endian for crc32c and xxhash64
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * The chunk size of the tree hash, 0 if the checksum is the plain hash of the file
+     */
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * True if the checksum was stored and the file was not read
+     */
+    public boolean isCached() {
+        return cached;
+    }
+}
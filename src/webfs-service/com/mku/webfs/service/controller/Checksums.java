@@ -0,0 +1,430 @@
+package com.mku.webfs.service.controller;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.metrics.FileMetrics;
+import net.jpountz.xxhash.StreamingXXHash64;
+import net.jpountz.xxhash.XXHashFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32C;
+
+/**
+ * Checksums of files computed on the server. Files larger than the chunk size are hashed as a tree:
+ * the chunks are hashed in parallel and the checksum is the hash of the concatenated chunk hashes,
+ * smaller files have the plain hash of their contents.
+ * Checksums are stored in an extended attribute of the file, or in a sidecar file under the service
+ * data directory if the file system doesn't support them, together with the size, modification time
+ * and inode of the file when it was hashed. A write changes at least one of them so the stored
+ * checksum is discarded without any work on the write path. Sidecar files are removed with the file
+ * they belong to, extended attributes go away with the file.
+ */
+public class Checksums {
+    /**
+     * The supported algorithms
+     */
+    public enum Algorithm {
+        SHA256("sha256"), CRC32C("crc32c"), XXHASH64("xxhash64");
+
+        private final String name;
+
+        Algorithm(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public static Algorithm fromName(String name) throws IOException {
+            if (name == null)
+                return SHA256;
+            String value = name.toLowerCase(Locale.ROOT).replace("-", "");
+            for (Algorithm algorithm : values()) {
+                if (algorithm.name.equals(value))
+                    return algorithm;
+            }
+            throw new IOException("Unsupported algorithm: " + name);
+        }
+    }
+
+    private static final String XATTR_PREFIX = "webfs.checksum.";
+    private static final String SIDECAR_DIR_NAME = "checksums";
+    private static final String NLINK_ATTRIBUTE = "unix:nlink";
+    private static final int BUFF_LENGTH = 256 * 1024;
+    // a file modified this close to the time it was hashed could have been modified again
+    // without changing the modification time, the checksum is not reused
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private volatile long chunkSize = 8 * 1024 * 1024;
+    private volatile ExecutorService executor;
+    private volatile boolean xattrs = true;
+
+    private static Checksums instance;
+
+    public static synchronized Checksums getInstance() {
+        if (instance == null)
+            instance = new Checksums();
+        return instance;
+    }
+
+    private Checksums() {
+        configure(chunkSize, 0);
+    }
+
+    /**
+     * Configure the tree hashing.
+     *
+     * @param chunkSize The length of the chunks hashed in parallel
+     * @param threads   The threads hashing chunks, 0 for the number of processors
+     */
+    public synchronized void configure(long chunkSize, int threads) {
+        if (chunkSize < BUFF_LENGTH)
+            throw new IllegalArgumentException("Chunk size must be at least " + BUFF_LENGTH);
+        this.chunkSize = chunkSize;
+        int nThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService previous = executor;
+        executor = Executors.newFixedThreadPool(nThreads, runnable -> {
+            Thread thread = new Thread(runnable, "webfs-checksum-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (previous != null)
+            previous.shutdown();
+    }
+
+    /**
+     * Set where checksums are stored.
+     *
+     * @param xattrs True to store checksums in extended attributes when supported, false to always use sidecar files
+     */
+    public void setExtendedAttributes(boolean xattrs) {
+        this.xattrs = xattrs;
+    }
+
+    /**
+     * Get the checksum of a file, from the stored checksum if the file hasn't changed since.
+     *
+     * @param file      The file
+     * @param algorithm The algorithm
+     * @return The checksum
+     * @throws IOException
+     */
+    public ChecksumResponse getChecksum(File file, Algorithm algorithm) throws IOException {
+        return getChecksum(file, algorithm, true);
+    }
+
+    /**
+     * Get the checksum of a file.
+     *
+     * @param file      The file
+     * @param algorithm The algorithm
+     * @param stored    False to compute the checksum without loading or storing it, for temp files
+     * @return The checksum
+     * @throws IOException
+     */
+    public ChecksumResponse getChecksum(File file, Algorithm algorithm, boolean stored) throws IOException {
+        Path path = file.toPath();
+        long chunkSize = this.chunkSize;
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        long length = attrs.size();
+        long treeChunkSize = length > chunkSize ? chunkSize : 0;
+        String key = getKey(attrs, chunkSize);
+        String digest = stored ? load(path, attrs, algorithm, key) : null;
+        if (digest != null)
+            return new ChecksumResponse(file, algorithm, digest, length, treeChunkSize, true);
+
+        long start = FileMetrics.getInstance().start();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (treeChunkSize == 0) {
+                digest = toHex(hash(channel, algorithm, 0, length));
+            } else {
+                digest = toHex(hashTree(channel, algorithm, length, chunkSize));
+            }
+        } finally {
+            FileMetrics.getInstance().recordDisk(FileMetrics.DiskOperation.CHECKSUM, start);
+            FileMetrics.getInstance().addBytesRead(length);
+        }
+        // not stored if the file changed while it was hashed
+        if (stored) {
+            BasicFileAttributes current = Files.readAttributes(path, BasicFileAttributes.class);
+            if (key.equals(getKey(current, chunkSize)))
+                store(path, current, algorithm, key, digest);
+        }
+        return new ChecksumResponse(file, algorithm, digest, length, treeChunkSize, false);
+    }
+
+    /**
+     * Remove the stored checksums of a file before it is deleted or replaced. Files with other hard links
+     * keep them since the checksums belong to the inode.
+     *
+     * @param file The file
+     */
+    public void remove(File file) {
+        Path sidecarDir = getSidecarDir();
+        if (!Files.isDirectory(sidecarDir))
+            return;
+        Path path = file.toPath();
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (!attrs.isRegularFile() || getLinkCount(path) > 1)
+                return;
+            for (Algorithm algorithm : Algorithm.values())
+                Files.deleteIfExists(getSidecarPath(path, attrs, algorithm));
+        } catch (IOException ignored) {
+            // the file is already gone or the sidecar will be overwritten when the inode is reused
+        }
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    private byte[] hashTree(FileChannel channel, Algorithm algorithm, long length, long chunkSize) throws IOException {
+        List<Future<byte[]>> chunks = new ArrayList<>();
+        for (long pos = 0; pos < length; pos += chunkSize) {
+            long chunkStart = pos;
+            long chunkLength = Math.min(chunkSize, length - pos);
+            chunks.add(executor.submit(() -> hash(channel, algorithm, chunkStart, chunkLength)));
+        }
+        Hasher root = newHasher(algorithm);
+        try {
+            for (Future<byte[]> chunk : chunks) {
+                byte[] chunkDigest = chunk.get();
+                root.update(ByteBuffer.wrap(chunkDigest));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw ex.getCause() instanceof IOException ? (IOException) ex.getCause() : new IOException(ex.getCause());
+        } finally {
+            for (Future<byte[]> chunk : chunks)
+                chunk.cancel(false);
+        }
+        return root.digest();
+    }
+
+    /**
+     * Hash a region of a file with positioned reads so the channel can be shared by threads.
+     */
+    private byte[] hash(FileChannel channel, Algorithm algorithm, long position, long length) throws IOException {
+        Hasher hasher = newHasher(algorithm);
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFF_LENGTH, Math.max(length, 1)));
+        long pos = position;
+        long end = position + length;
+        while (pos < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - pos));
+            int bytesRead = channel.read(buffer, pos);
+            if (bytesRead < 0)
+                throw new IOException("File was truncated while hashing");
+            pos += bytesRead;
+            buffer.flip();
+            hasher.update(buffer);
+        }
+        return hasher.digest();
+    }
+
+    /**
+     * The size, modification time and inode of a file, and the chunk size of the tree.
+     */
+    private String getKey(BasicFileAttributes attrs, long chunkSize) {
+        Object fileKey = attrs.fileKey();
+        return attrs.size() + ":" + attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+                + ":" + (fileKey != null ? fileKey.toString().replace(" ", "") : "") + ":" + chunkSize;
+    }
+
+    private String load(Path path, BasicFileAttributes attrs, Algorithm algorithm, String key) throws IOException {
+        String record = null;
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+        if (xattrs && view != null) {
+            try {
+                String name = XATTR_PREFIX + algorithm.getName();
+                if (view.list().contains(name)) {
+                    ByteBuffer buffer = ByteBuffer.allocate(view.size(name));
+                    view.read(name, buffer);
+                    buffer.flip();
+                    record = StandardCharsets.US_ASCII.decode(buffer).toString();
+                }
+            } catch (IOException | UnsupportedOperationException ignored) {
+            }
+        }
+        if (record == null) {
+            Path sidecar = getSidecarPath(path, attrs, algorithm);
+            try {
+                record = new String(Files.readAllBytes(sidecar), StandardCharsets.US_ASCII);
+            } catch (NoSuchFileException ex) {
+                return null;
+            }
+        }
+        // record: key computed-at digest
+        String[] values = record.split(" ");
+        if (values.length != 3 || !values[0].equals(key))
+            return null;
+        if (Long.parseLong(values[1]) - attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS) < RACY_NANOS)
+            return null;
+        return values[2];
+    }
+
+    private void store(Path path, BasicFileAttributes attrs, Algorithm algorithm, String key, String digest) throws IOException {
+        long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        byte[] record = (key + " " + now + " " + digest).getBytes(StandardCharsets.US_ASCII);
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+        if (xattrs && view != null) {
+            try {
+                view.write(XATTR_PREFIX + algorithm.getName(), ByteBuffer.wrap(record));
+                return;
+            } catch (IOException | UnsupportedOperationException ignored) {
+                // extended attributes are not supported or the file is read only
+            }
+        }
+        Path sidecar = getSidecarPath(path, attrs, algorithm);
+        Files.createDirectories(sidecar.getParent());
+        Path tmp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp" + Thread.currentThread().getId());
+        Files.write(tmp, record);
+        Files.move(tmp, sidecar, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Sidecar files are named by the inode so they follow renames, or by the path if there is no inode.
+     */
+    private Path getSidecarPath(Path path, BasicFileAttributes attrs, Algorithm algorithm) {
+        Object fileKey = attrs.fileKey();
+        String id = fileKey != null ? fileKey.toString() : path.toAbsolutePath().toString();
+        String name = toHex(newHasher(Algorithm.SHA256).update(ByteBuffer.wrap(id.getBytes(StandardCharsets.UTF_8))).digest());
+        return getSidecarDir().resolve(name.substring(0, 2)).resolve(name + "." + algorithm.getName());
+    }
+
+    private Path getSidecarDir() {
+        return FileSystem.getInstance().getMetaDir().toPath().resolve(SIDECAR_DIR_NAME);
+    }
+
+    private static long getLinkCount(Path path) throws IOException {
+        try {
+            return ((Number) Files.getAttribute(path, NLINK_ATTRIBUTE, LinkOption.NOFOLLOW_LINKS)).longValue();
+        } catch (UnsupportedOperationException | IllegalArgumentException ex) {
+            return 1;
+        }
+    }
+
+    private static Hasher newHasher(Algorithm algorithm) {
+        switch (algorithm) {
+            case CRC32C:
+                return new Crc32cHasher();
+            case XXHASH64:
+                return new XxHash64Hasher();
+            default:
+                return new Sha256Hasher();
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return sb.toString();
+    }
+
+    private interface Hasher {
+        Hasher update(ByteBuffer buffer);
+
+        byte[] digest();
+    }
+
+    private static class Sha256Hasher implements Hasher {
+        private final MessageDigest digest;
+
+        Sha256Hasher() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        public Hasher update(ByteBuffer buffer) {
+            digest.update(buffer);
+            return this;
+        }
+
+        public byte[] digest() {
+            return digest.digest();
+        }
+    }
+
+    private static class Crc32cHasher implements Hasher {
+        private final CRC32C crc = new CRC32C();
+
+        public Hasher update(ByteBuffer buffer) {
+            crc.update(buffer);
+            return this;
+        }
+
+        public byte[] digest() {
+            return ByteBuffer.allocate(4).putInt((int) crc.getValue()).array();
+        }
+    }
+
+    private static class XxHash64Hasher implements Hasher {
+        private final StreamingXXHash64 hash = XXHashFactory.fastestInstance().newStreamingHash64(0);
+
+        public Hasher update(ByteBuffer buffer) {
+            hash.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return this;
+        }
+
+        public byte[] digest() {
+            byte[] digest = ByteBuffer.allocate(8).putLong(hash.getValue()).array();
+            hash.close();
+            return digest;
+        }
+    }
+}
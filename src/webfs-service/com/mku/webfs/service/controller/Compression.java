@@ -0,0 +1,316 @@
+package com.mku.webfs.service.controller;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.github.luben.zstd.util.Native;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content encodings (RFC 7231 section 3.1.2) of downloads and uploads. A download is compressed only
+ * if the client accepts one of the codecs and the file is not in a compressed format, files with a
+ * known extension are skipped and the rest are sampled. Range requests are always sent as identity
+ * since the ranges refer to the bytes of the file.
+ */
+public class Compression {
+    /**
+     * The supported content codings
+     */
+    public enum Codec {
+        ZSTD("zstd"), GZIP("gzip");
+
+        private final String name;
+
+        Codec(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    public static final String IDENTITY = "identity";
+
+    private static final int BUFF_LENGTH = 64 * 1024;
+
+    // bytes compressed from the start of the region to estimate the ratio
+    private static final int SAMPLE_LENGTH = 16 * 1024;
+
+    // the sample needs to shrink to this ratio or less for the file to be compressed
+    private static final double MAX_SAMPLE_RATIO = 0.9;
+
+    private static final Set<String> DEFAULT_SKIP_EXTENSIONS = Set.of(
+            "gz", "tgz", "zst", "zip", "7z", "rar", "xz", "bz2", "lz4", "br",
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "mp3", "mp4", "m4a", "mkv", "webm", "avi", "mov",
+            "pdf", "docx", "xlsx", "pptx", "jar", "war", "apk");
+
+    private static final boolean zstdSupported = isZstdSupported();
+
+    private volatile boolean enabled = true;
+    private volatile int gzipLevel = 6;
+    private volatile int zstdLevel = 3;
+    private volatile long minLength = 1024;
+    private volatile Set<String> skipExtensions = DEFAULT_SKIP_EXTENSIONS;
+
+    private static Compression instance;
+
+    public static synchronized Compression getInstance() {
+        if (instance == null)
+            instance = new Compression();
+        return instance;
+    }
+
+    /**
+     * Configure the compression of downloads, uploads are always decoded.
+     *
+     * @param enabled        True to compress downloads
+     * @param gzipLevel      The gzip level 1-9
+     * @param zstdLevel      The zstd level 1-19
+     * @param minLength      Regions shorter than this are sent as identity
+     * @param skipExtensions The extensions of files that are already compressed, null for the defaults
+     */
+    public void configure(boolean enabled, int gzipLevel, int zstdLevel, long minLength, Set<String> skipExtensions) {
+        if (gzipLevel < Deflater.BEST_SPEED || gzipLevel > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("Invalid gzip level: " + gzipLevel);
+        if (zstdLevel < 1 || zstdLevel > 19)
+            throw new IllegalArgumentException("Invalid zstd level: " + zstdLevel);
+        this.enabled = enabled;
+        this.gzipLevel = gzipLevel;
+        this.zstdLevel = zstdLevel;
+        this.minLength = minLength;
+        if (skipExtensions == null) {
+            this.skipExtensions = DEFAULT_SKIP_EXTENSIONS;
+        } else {
+            Set<String> extensions = new HashSet<>();
+            for (String extension : skipExtensions)
+                extensions.add(extension.trim().toLowerCase(Locale.ROOT));
+            this.skipExtensions = Collections.unmodifiableSet(extensions);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Select the codec of a download.
+     *
+     * @param acceptEncoding The Accept-Encoding header
+     * @param file           The file
+     * @param position       The position of the region that will be sent
+     * @param length         The length of the region
+     * @return The codec or null to send the region as identity
+     * @throws IOException
+     */
+    public Codec negotiate(String acceptEncoding, File file, long position, long length) throws IOException {
+        if (!enabled || acceptEncoding == null || length < minLength)
+            return null;
+        Codec codec = getAcceptedCodec(acceptEncoding);
+        if (codec == null || !isCompressible(file, position, length))
+            return null;
+        return codec;
+    }
+
+    /**
+     * Get the preferred codec of an Accept-Encoding header, zstd is preferred if the weights are equal.
+     *
+     * @param acceptEncoding The header value
+     * @return The codec or null if none is accepted
+     */
+    public Codec getAcceptedCodec(String acceptEncoding) {
+        double wildcard = 0;
+        double[] weights = new double[Codec.values().length];
+        boolean[] listed = new boolean[weights.length];
+        for (String element : acceptEncoding.split(",")) {
+            String[] params = element.split(";");
+            String coding = params[0].trim().toLowerCase(Locale.ROOT);
+            double weight = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        weight = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException ex) {
+                        weight = 0;
+                    }
+                }
+            }
+            if (coding.equals("*"))
+                wildcard = weight;
+            for (Codec codec : Codec.values()) {
+                if (codec.getName().equals(coding)) {
+                    weights[codec.ordinal()] = weight;
+                    listed[codec.ordinal()] = true;
+                }
+            }
+        }
+        Codec selected = null;
+        double selectedWeight = 0;
+        for (Codec codec : Codec.values()) {
+            if (codec == Codec.ZSTD && !zstdSupported)
+                continue;
+            double weight = listed[codec.ordinal()] ? weights[codec.ordinal()] : wildcard;
+            if (weight > selectedWeight) {
+                selected = codec;
+                selectedWeight = weight;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Check if a region of a file is worth compressing. Files with an extension of a compressed
+     * format are skipped, otherwise the start of the region is compressed with the fastest level.
+     *
+     * @param file     The file
+     * @param position The position of the region
+     * @param length   The length of the region
+     * @return True if the region should be compressed
+     * @throws IOException
+     */
+    public boolean isCompressible(File file, long position, long length) throws IOException {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0 && skipExtensions.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT)))
+            return false;
+
+        byte[] sample = new byte[(int) Math.min(SAMPLE_LENGTH, length)];
+        int sampleLength = 0;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(position);
+            int bytesRead;
+            while (sampleLength < sample.length
+                    && (bytesRead = raf.read(sample, sampleLength, sample.length - sampleLength)) > 0)
+                sampleLength += bytesRead;
+        }
+        if (sampleLength == 0)
+            return false;
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(sample, 0, sampleLength);
+            deflater.finish();
+            byte[] buffer = new byte[sampleLength];
+            int compressedLength = 0;
+            while (!deflater.finished() && compressedLength < sampleLength)
+                compressedLength += deflater.deflate(buffer);
+            return compressedLength <= sampleLength * MAX_SAMPLE_RATIO;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Wrap a stream to compress the data written to it, closing the returned stream finishes
+     * the encoding and closes the underlying stream.
+     *
+     * @param codec        The codec
+     * @param outputStream The stream
+     * @return The compressing stream
+     * @throws IOException
+     */
+    public OutputStream encode(Codec codec, OutputStream outputStream) throws IOException {
+        if (codec == Codec.ZSTD) {
+            ZstdOutputStream zstdOutputStream = new ZstdOutputStream(outputStream, zstdLevel);
+            zstdOutputStream.setCloseFrameOnFlush(false);
+            return zstdOutputStream;
+        }
+        int level = gzipLevel;
+        return new GZIPOutputStream(outputStream, BUFF_LENGTH) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    /**
+     * Check if a Content-Encoding header leaves the data as is.
+     *
+     * @param contentEncoding The header value
+     * @return True if there is no coding other than identity
+     */
+    public boolean isIdentity(String contentEncoding) {
+        if (contentEncoding == null)
+            return true;
+        for (String coding : contentEncoding.split(",")) {
+            String value = coding.trim();
+            if (!value.isEmpty() && !value.equalsIgnoreCase(IDENTITY))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Wrap a stream to decompress the data of a Content-Encoding.
+     *
+     * @param contentEncoding The Content-Encoding header, null or identity if the data is not encoded
+     * @param inputStream     The stream
+     * @return The decompressing stream
+     * @throws IOException
+     * @throws ResponseStatusException 415 if the encoding is not supported
+     */
+    public InputStream decode(String contentEncoding, InputStream inputStream) throws IOException {
+        if (contentEncoding == null)
+            return inputStream;
+        // codings are listed in the order they were applied
+        String[] codings = contentEncoding.split(",");
+        for (int i = codings.length - 1; i >= 0; i--) {
+            String coding = codings[i].trim().toLowerCase(Locale.ROOT);
+            if (coding.equals(IDENTITY) || coding.isEmpty())
+                continue;
+            if (coding.equals(Codec.GZIP.getName()) || coding.equals("x-gzip"))
+                inputStream = new GZIPInputStream(inputStream, BUFF_LENGTH);
+            else if (coding.equals(Codec.ZSTD.getName()) && zstdSupported)
+                inputStream = new ZstdInputStream(inputStream);
+            else
+                throw new ResponseStatusException(HttpStatus.UNSUPPORTED_MEDIA_TYPE, "Unsupported content encoding: " + coding);
+        }
+        return inputStream;
+    }
+
+    private static boolean isZstdSupported() {
+        try {
+            Native.load();
+            return true;
+        } catch (Throwable ex) {
+            // the native library is not available for this platform
+            return false;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.mku.webfs.service.controller;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.metrics.FileMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache of the contents of small files that are downloaded often. Contents are held in direct buffers
+ * outside of the heap under a byte budget and sent from a read-only view of the buffer, so a hit doesn't
+ * open or read the file and doesn't allocate a transfer buffer. A file is read into the cache on its second
+ * download, lookups don't lock and the file evicted is the least recently used of a sample of files
+ * (sampled LRU), a new file is only admitted if it is downloaded more often than the files it would
+ * evict (TinyLFU). Entries are invalidated with the metadata cache, by the write operations
+ * of the service and by the watcher of the directory, which is registered before the file is read.
+ * Evicted buffers are released by the garbage collector once the responses still sending them are done.
+ */
+public class ContentCache {
+    // downloads of a file before it is read into the cache
+    private static final int MIN_FREQUENCY = 2;
+    // files compared to find an eviction victim
+    private static final int SAMPLE_SIZE = 8;
+
+    private volatile boolean enabled = true;
+    private volatile long maxFileSize = 64 * 1024;
+    private volatile long maxBytes = 32 * 1024 * 1024;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile FrequencySketch sketch = new FrequencySketch(getSketchEntries());
+    private final AtomicLong bytes = new AtomicLong();
+    // incremented on every invalidation, contents read before an invalidation are not cached
+    private final AtomicLong version = new AtomicLong();
+
+    // only evictions lock, the samples continue where the previous eviction stopped
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private Iterator<Map.Entry<String, Entry>> evictionHand = Collections.emptyIterator();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    private static ContentCache instance;
+
+    public static synchronized ContentCache getInstance() {
+        if (instance == null) {
+            instance = new ContentCache();
+            MetadataCache.getInstance().addListener(instance::invalidate);
+        }
+        return instance;
+    }
+
+    private static class Entry {
+        private final ByteBuffer content;
+        private final long lastModified;
+        // not volatile, a stale time only makes a sample less accurate
+        private long lastAccess = System.nanoTime();
+
+        private Entry(ByteBuffer content, long lastModified) {
+            this.content = content;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Configure the cache, the cache is cleared.
+     *
+     * @param enabled     False to disable caching
+     * @param maxFileSize Files larger than this are not cached
+     * @param maxBytes    The max bytes of the contents of all the files
+     */
+    public synchronized void configure(boolean enabled, long maxFileSize, long maxBytes) {
+        this.enabled = enabled;
+        this.maxFileSize = Math.min(maxFileSize, Integer.MAX_VALUE);
+        this.maxBytes = maxBytes;
+        sketch = new FrequencySketch(getSketchEntries());
+        clear();
+    }
+
+    /**
+     * Get the contents of a file from the cache, the file is read into the cache if it is downloaded often
+     * and there is room for it.
+     *
+     * @param file  The file
+     * @param attrs The current attributes of the file
+     * @return A read-only view of the contents, null if the file is not cached
+     * @throws IOException
+     */
+    public ByteBuffer get(File file, BasicFileAttributes attrs) throws IOException {
+        if (!enabled || !attrs.isRegularFile() || attrs.size() > maxFileSize)
+            return null;
+        String key = file.getPath();
+        long lastModified = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        sketch.increment(key);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            if (entry.content.capacity() == attrs.size() && entry.lastModified == lastModified) {
+                entry.lastAccess = System.nanoTime();
+                hits.increment();
+                return entry.content.duplicate();
+            }
+            // changed and the event has not been processed yet
+            remove(key, entry);
+        }
+        misses.increment();
+        // files that are not downloaded often are not read at all
+        if (sketch.frequency(key) < MIN_FREQUENCY || !isAdmitted(key, attrs.size()))
+            return null;
+        long readVersion = version.get();
+        // a change after this is reported by the watcher and invalidates the contents
+        if (!MetadataCache.getInstance().watch(file.getParentFile()))
+            return null;
+        ByteBuffer content = read(file, attrs.size());
+        if (content == null)
+            return null;
+        put(key, new Entry(content, lastModified), readVersion);
+        return content.duplicate();
+    }
+
+    /**
+     * Remove the contents of a file, or of all the files under a directory with recursive.
+     *
+     * @param file      The file
+     * @param recursive True to remove the files under the file
+     */
+    public void invalidate(File file, boolean recursive) {
+        version.incrementAndGet();
+        if (entries.isEmpty())
+            return;
+        String path = file.getPath();
+        if (remove(path))
+            invalidations.increment();
+        if (recursive) {
+            String prefix = path + File.separator;
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                if (entry.getKey().startsWith(prefix) && remove(entry.getKey(), entry.getValue()))
+                    invalidations.increment();
+            }
+        }
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public synchronized void clear() {
+        version.incrementAndGet();
+        for (Map.Entry<String, Entry> entry : entries.entrySet())
+            remove(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * Get the statistics of the cache.
+     *
+     * @return The statistics
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("entries", entries.size());
+        stats.put("bytes", bytes.get());
+        stats.put("maxBytes", maxBytes);
+        stats.put("maxFileSize", maxFileSize);
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        long requests = hits.sum() + misses.sum();
+        stats.put("hitRatio", requests > 0 ? (double) hits.sum() / requests : 0);
+        stats.put("loads", loads.sum());
+        stats.put("evictions", evictions.sum());
+        stats.put("rejections", rejections.sum());
+        stats.put("invalidations", invalidations.sum());
+        return stats;
+    }
+
+    private int getSketchEntries() {
+        // room for files of a quarter of the max size
+        return (int) Math.max(64, Math.min(1 << 20, maxBytes / Math.max(maxFileSize / 4, 1)));
+    }
+
+    private ByteBuffer read(File file, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) length);
+        long start = FileMetrics.getInstance().start();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, buffer.position()) < 0)
+                    return null;
+            }
+            // modified while reading
+            if (channel.size() != length)
+                return null;
+        } catch (NoSuchFileException ex) {
+            return null;
+        } finally {
+            FileMetrics.getInstance().recordDisk(FileMetrics.DiskOperation.READ, start);
+        }
+        FileMetrics.getInstance().addBytesRead(length);
+        loads.increment();
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Check if there is room for a file or the least recently used of a sample is less frequent,
+     * so files that would be rejected are not read.
+     */
+    private boolean isAdmitted(String key, long weight) {
+        if (weight > maxBytes)
+            return false;
+        if (bytes.get() + weight <= maxBytes)
+            return true;
+        Map.Entry<String, Entry> victim = sample();
+        return victim == null || sketch.frequency(victim.getKey()) <= sketch.frequency(key);
+    }
+
+    private void put(String key, Entry entry, long readVersion) {
+        if (!enabled || readVersion != version.get())
+            return;
+        remove(key);
+        long weight = entry.content.capacity();
+        if (weight > maxBytes) {
+            rejections.increment();
+            return;
+        }
+        int frequency = sketch.frequency(key);
+        while (bytes.get() + weight > maxBytes && !entries.isEmpty()) {
+            if (!evict(frequency)) {
+                rejections.increment();
+                return;
+            }
+        }
+        Entry previous = entries.put(key, entry);
+        if (previous != null)
+            bytes.addAndGet(-previous.content.capacity());
+        bytes.addAndGet(weight);
+        // invalidated while it was read, the invalidation might not have seen it
+        if (readVersion != version.get())
+            remove(key, entry);
+    }
+
+    /**
+     * Evict the least recently used file of a sample if it is not downloaded more often than the new file.
+     *
+     * @param frequency The frequency of the new file
+     * @return False if the new file is rejected
+     */
+    private boolean evict(int frequency) {
+        evictionLock.lock();
+        try {
+            Map.Entry<String, Entry> victim = sample();
+            if (victim == null)
+                return true;
+            if (sketch.frequency(victim.getKey()) > frequency)
+                return false;
+            if (remove(victim.getKey(), victim.getValue()))
+                evictions.increment();
+            return true;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Get the least recently used of the next files of the eviction hand.
+     *
+     * @return The file or null if the cache is empty
+     */
+    private Map.Entry<String, Entry> sample() {
+        evictionLock.lock();
+        try {
+            Map.Entry<String, Entry> victim = null;
+            for (int i = 0; i < SAMPLE_SIZE; i++) {
+                if (!evictionHand.hasNext()) {
+                    evictionHand = entries.entrySet().iterator();
+                    if (!evictionHand.hasNext())
+                        break;
+                }
+                Map.Entry<String, Entry> candidate = evictionHand.next();
+                if (victim == null || candidate.getValue().lastAccess - victim.getValue().lastAccess < 0)
+                    victim = candidate;
+            }
+            return victim;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private boolean remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry == null)
+            return false;
+        bytes.addAndGet(-entry.content.capacity());
+        return true;
+    }
+
+    private boolean remove(String key, Entry entry) {
+        if (!entries.remove(key, entry))
+            return false;
+        bytes.addAndGet(-entry.content.capacity());
+        return true;
+    }
+}
@@ -0,0 +1,285 @@
+package com.mku.webfs.service.controller;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.metrics.FileMetrics;
+import net.jpountz.xxhash.XXHash64;
+import net.jpountz.xxhash.XXHashFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delta sync in the style of rsync, so a changed file is uploaded with the cost of the change.
+ * The client gets the block signatures of the current file, finds the blocks that it still has at
+ * any offset with the rolling checksum, and sends a delta of copy and literal instructions. The new
+ * file is rebuilt in a temp file, the copied regions are transferred by the kernel, and then it
+ * replaces the file atomically.<br>
+ * Signature, big endian: "WFSS", int version, int block size, long file length, int strong hash length,
+ * then for every block: int rolling checksum (RollingChecksum), long xxHash64 of the block with seed 0.
+ * The last block can be shorter.<br>
+ * Delta, big endian: "WFSD", int version, long length of the new file, then instructions: byte 1 COPY
+ * long offset long length from the current file, byte 2 DATA int length followed by the bytes, byte 0 END.
+ * The instructions must produce exactly the length of the new file.
+ */
+public class DeltaSync {
+    public static final int VERSION = 1;
+    private static final byte[] SIGNATURE_MAGIC = {'W', 'F', 'S', 'S'};
+    private static final byte[] DELTA_MAGIC = {'W', 'F', 'S', 'D'};
+    private static final int SIGNATURE_HEADER_LENGTH = 24;
+    private static final int STRONG_HASH_LENGTH = 8;
+    private static final int BLOCK_ENTRY_LENGTH = 4 + STRONG_HASH_LENGTH;
+
+    public static final byte OP_END = 0;
+    public static final byte OP_COPY = 1;
+    public static final byte OP_DATA = 2;
+
+    public static final int MIN_BLOCK_SIZE = 1024;
+    public static final int MAX_BLOCK_SIZE = 1024 * 1024;
+    private static final int MAX_DATA_LENGTH = 16 * 1024 * 1024;
+    private static final int BUFF_LENGTH = 1024 * 1024;
+
+    private final XXHash64 strongHash = XXHashFactory.fastestInstance().hash64();
+
+    private static DeltaSync instance;
+
+    public static synchronized DeltaSync getInstance() {
+        if (instance == null)
+            instance = new DeltaSync();
+        return instance;
+    }
+
+    /**
+     * Get the block size of the signature of a file, about the square root of the length like rsync.
+     *
+     * @param length    The file length
+     * @param blockSize The block size requested by the client, 0 for the default
+     * @return The block size
+     * @throws IOException If the block size is not valid
+     */
+    public int getBlockSize(long length, int blockSize) throws IOException {
+        if (blockSize == 0) {
+            long size = ((long) Math.sqrt(length) + MIN_BLOCK_SIZE - 1) / MIN_BLOCK_SIZE * MIN_BLOCK_SIZE;
+            return (int) Math.max(MIN_BLOCK_SIZE * 4, Math.min(MAX_BLOCK_SIZE, size));
+        }
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE)
+            throw new IOException("Block size must be between " + MIN_BLOCK_SIZE + " and " + MAX_BLOCK_SIZE);
+        return blockSize;
+    }
+
+    /**
+     * Get the length of a signature.
+     *
+     * @param length    The file length
+     * @param blockSize The block size
+     * @return The length in bytes
+     */
+    public long getSignatureLength(long length, int blockSize) {
+        return SIGNATURE_HEADER_LENGTH + (length + blockSize - 1) / blockSize * BLOCK_ENTRY_LENGTH;
+    }
+
+    /**
+     * Write the signature of a file.
+     *
+     * @param file         The file
+     * @param length       The length of the file when the block size was chosen
+     * @param blockSize    The block size
+     * @param outputStream The stream, it's not closed
+     * @throws IOException
+     */
+    public void writeSignature(File file, long length, int blockSize, OutputStream outputStream) throws IOException {
+        DataOutputStream output = new DataOutputStream(outputStream);
+        output.write(SIGNATURE_MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(blockSize);
+        output.writeLong(length);
+        output.writeInt(STRONG_HASH_LENGTH);
+        // whole blocks are read so a block never spans two reads
+        byte[] buff = new byte[BUFF_LENGTH / blockSize * blockSize];
+        ByteBuffer buffer = ByteBuffer.wrap(buff);
+        long start = FileMetrics.getInstance().start();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long pos = 0;
+            while (pos < length) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buff.length, length - pos));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, pos + buffer.position()) < 0)
+                        throw new EOFException("File was truncated during signature");
+                }
+                for (int offset = 0; offset < buffer.limit(); offset += blockSize) {
+                    int blockLength = Math.min(blockSize, buffer.limit() - offset);
+                    output.writeInt(RollingChecksum.of(buff, offset, blockLength));
+                    output.writeLong(strongHash.hash(buff, offset, blockLength, 0));
+                }
+                pos += buffer.limit();
+            }
+        } finally {
+            FileMetrics.getInstance().recordDisk(FileMetrics.DiskOperation.CHECKSUM, start);
+            FileMetrics.getInstance().addBytesRead(length);
+        }
+        output.flush();
+    }
+
+    /**
+     * Rebuild a file from its current contents and a delta, the file is replaced atomically
+     * only if the delta is complete and the file was not modified meanwhile. Only the delta is
+     * transferred, the bytes copied from the current file don't count against the bandwidth limits.
+     *
+     * @param rFile       The file, it can be missing if the delta has only data
+     * @param inputStream The delta, it's not closed
+     * @param checksum    The expected sha256 of the new file as returned by /api/checksum, null to skip the check
+     * @return The file
+     * @throws IOException
+     */
+    public File patch(File rFile, InputStream inputStream, String checksum) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream, BUFF_LENGTH));
+        byte[] magic = new byte[DELTA_MAGIC.length];
+        input.readFully(magic);
+        int version = input.readInt();
+        if (!Arrays.equals(magic, DELTA_MAGIC) || version != VERSION)
+            throw new IOException("Invalid delta");
+        long targetLength = input.readLong();
+        if (targetLength < 0)
+            throw new IOException("Invalid delta length");
+
+        Path path = rFile.toPath();
+        String basisKey = getKey(path);
+        File tmpDir = FileSystem.getInstance().getTempDir();
+        Files.createDirectories(tmpDir.toPath());
+        Path tmp = tmpDir.toPath().resolve(UUID.randomUUID().toString());
+        FileMetrics.getInstance().transferStarted(FileMetrics.Direction.UPLOAD);
+        try {
+            try (FileChannel basis = basisKey != null ? FileChannel.open(path, StandardOpenOption.READ) : null;
+                 FileChannel target = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                apply(input, basis, target, targetLength);
+            }
+            if (checksum != null) {
+                String digest = Checksums.getInstance().getChecksum(tmp.toFile(), Checksums.Algorithm.SHA256, false).getDigest();
+                if (!digest.equalsIgnoreCase(checksum))
+                    throw new IOException("Checksum does not match");
+            }
+            synchronized (this) {
+                if (!Objects.equals(basisKey, getKey(path)))
+                    throw new IOException("File was modified during patch");
+                Checksums.getInstance().remove(rFile);
+                Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (BlobStore.getInstance().isEnabled())
+                BlobStore.getInstance().add(rFile);
+        } finally {
+            FileMetrics.getInstance().transferEnded(FileMetrics.Direction.UPLOAD);
+            Files.deleteIfExists(tmp);
+            MetadataCache.getInstance().invalidate(rFile, false);
+        }
+        return rFile;
+    }
+
+    private void apply(DataInputStream input, FileChannel basis, FileChannel target, long targetLength) throws IOException {
+        long basisLength = basis != null ? basis.size() : 0;
+        byte[] buff = new byte[BUFF_LENGTH];
+        long pos = 0;
+        long copied = 0;
+        long written = 0;
+        long start = FileMetrics.getInstance().start();
+        try {
+            while (true) {
+                byte op = input.readByte();
+                if (op == OP_END) {
+                    if (pos != targetLength)
+                        throw new EOFException("Delta is incomplete");
+                    break;
+                }
+                if (op == OP_COPY) {
+                    long offset = input.readLong();
+                    long length = input.readLong();
+                    if (offset < 0 || length < 0 || offset + length > basisLength)
+                        throw new IOException("Invalid copy instruction");
+                    if (length > targetLength - pos)
+                        throw new IOException("Delta is longer than the new file");
+                    long end = offset + length;
+                    for (long from = offset; from < end; ) {
+                        long bytesTransferred = basis.transferTo(from, end - from, target);
+                        if (bytesTransferred <= 0)
+                            throw new EOFException("File was truncated during patch");
+                        from += bytesTransferred;
+                    }
+                    pos += length;
+                    copied += length;
+                } else if (op == OP_DATA) {
+                    int length = input.readInt();
+                    if (length < 0 || length > MAX_DATA_LENGTH)
+                        throw new IOException("Invalid data instruction");
+                    if (length > targetLength - pos)
+                        throw new IOException("Delta is longer than the new file");
+                    for (int remaining = length; remaining > 0; ) {
+                        int bytesRead = input.read(buff, 0, Math.min(buff.length, remaining));
+                        if (bytesRead < 0)
+                            throw new EOFException("Delta is incomplete");
+                        ByteBuffer buffer = ByteBuffer.wrap(buff, 0, bytesRead);
+                        while (buffer.hasRemaining())
+                            pos += target.write(buffer, pos);
+                        remaining -= bytesRead;
+                    }
+                    written += length;
+                } else {
+                    throw new IOException("Invalid delta instruction: " + op);
+                }
+                // transferTo appends at the channel position
+                target.position(pos);
+            }
+        } finally {
+            FileMetrics.getInstance().recordDisk(FileMetrics.DiskOperation.WRITE, start);
+            FileMetrics.getInstance().addBytesRead(copied);
+            FileMetrics.getInstance().addBytesWritten(copied + written);
+        }
+    }
+
+    /**
+     * The size, modification time and inode of a file, null if it does not exist.
+     */
+    private String getKey(Path path) throws IOException {
+        if (!Files.exists(path))
+            return null;
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        return attrs.size() + ":" + attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS) + ":" + attrs.fileKey();
+    }
+}
@@ -0,0 +1,165 @@
+package com.mku.webfs.service.controller;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import net.jpountz.xxhash.StreamingXXHash64;
+import net.jpountz.xxhash.XXHashFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entity tags of files and listings (RFC 7232). The tag of a file is made of its size, modification time
+ * and inode so it changes with every write without reading the contents. Listings have weak tags made
+ * of the directory and the size and modification time of every entry, since modifying a file in place
+ * doesn't change the modification time of its directory.
+ */
+public class ETags {
+    private static final String WEAK_PREFIX = "W/";
+
+    /**
+     * Get the strong entity tag of a file or directory.
+     *
+     * @param attrs The attributes of the file
+     * @return The entity tag, quoted
+     */
+    public static String getETag(BasicFileAttributes attrs) {
+        Object fileKey = attrs.fileKey();
+        return "\"" + Long.toHexString(attrs.size())
+                + "-" + Long.toHexString(attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS))
+                + "-" + Integer.toHexString(fileKey != null ? fileKey.hashCode() : 0) + "\"";
+    }
+
+    /**
+     * Get the strong entity tag of a representation of a file, each content coding is a different
+     * representation so it has a different tag (RFC 7232 2.3.3).
+     *
+     * @param attrs           The attributes of the file
+     * @param contentEncoding The content coding of the body, null for identity
+     * @return The entity tag, quoted
+     */
+    public static String getETag(BasicFileAttributes attrs, String contentEncoding) {
+        String etag = getETag(attrs);
+        if (contentEncoding == null)
+            return etag;
+        return etag.substring(0, etag.length() - 1) + "-" + contentEncoding + "\"";
+    }
+
+    /**
+     * Get the strong entity tag of a file from its current attributes.
+     *
+     * @param file The file
+     * @return The entity tag, null if the file does not exist
+     * @throws IOException
+     */
+    public static String getETag(File file) throws IOException {
+        try {
+            return getETag(Files.readAttributes(file.toPath(), BasicFileAttributes.class));
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the weak entity tag of a listing.
+     *
+     * @param dir     The directory info
+     * @param entries The entries
+     * @return The entity tag
+     * @throws IOException
+     */
+    public static String getETag(FileResponse dir, List<FileResponse> entries) throws IOException {
+        try (StreamingXXHash64 hash = XXHashFactory.fastestInstance().newStreamingHash64(0)) {
+            byte[] buffer = new byte[8];
+            update(hash, buffer, dir.getLastModified());
+            for (FileResponse entry : entries) {
+                byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+                hash.update(name, 0, name.length);
+                update(hash, buffer, entry.isDirectory() ? -1 : entry.getLength());
+                update(hash, buffer, entry.getLastModified());
+            }
+            return WEAK_PREFIX + "\"" + Long.toHexString(hash.getValue()) + "\"";
+        }
+    }
+
+    /**
+     * Get the last modification time of a listing, the latest of the directory and its entries.
+     *
+     * @param dir     The directory info
+     * @param entries The entries
+     * @return The time in milliseconds
+     */
+    public static long getLastModified(FileResponse dir, List<FileResponse> entries) {
+        long lastModified = dir.getLastModified();
+        for (FileResponse entry : entries)
+            lastModified = Math.max(lastModified, entry.getLastModified());
+        return lastModified;
+    }
+
+    /**
+     * Check the If-Match precondition of a write, the tags are compared with the strong comparison.
+     *
+     * @param ifMatch The If-Match header, null if there is no precondition
+     * @param file    The file that will be modified
+     * @throws IOException
+     * @throws ResponseStatusException 412 if the precondition fails
+     */
+    public static void checkIfMatch(String ifMatch, File file) throws IOException {
+        if (ifMatch == null)
+            return;
+        String etag = file != null ? getETag(file) : null;
+        if (etag == null || !matches(ifMatch, etag))
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "Precondition failed, the file has changed");
+    }
+
+    /**
+     * Check if a list of entity tags matches a strong tag, weak tags never match.
+     *
+     * @param tags The comma separated tags or *
+     * @param etag The strong tag
+     * @return True if one of the tags matches
+     */
+    public static boolean matches(String tags, String etag) {
+        for (String tag : tags.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || tag.equals(etag))
+                return true;
+        }
+        return false;
+    }
+
+    private static void update(StreamingXXHash64 hash, byte[] buffer, long value) {
+        for (int i = 0; i < 8; i++)
+            buffer[i] = (byte) (value >>> (56 - i * 8));
+        hash.update(buffer, 0, buffer.length);
+    }
+}
@@ -23,18 +23,27 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 SOFTWARE.
 */
 
-import org.springframework.core.io.InputStreamResource;
-import org.springframework.core.io.Resource;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import com.mku.webfs.service.log.AccessLog;
+import com.mku.webfs.service.qos.QosInterceptor;
 import com.mku.webfs.service.security.Security;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.*;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.List;
 
 @RestController
@@ -46,51 +55,85 @@ import java.util.List;
  * decryption will happen at the client side.
  */
 public class FileController {
+    private static final String CURSOR_HEADER = "X-WebFS-Cursor";
+
+    private final ObjectMapper objectMapper;
+
+    public FileController(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
 
     /**
      * Get details about a file<br>
      * example:
      * curl -X GET "http://localhost:8080/api/info?path=/dir1/file.dat"
+     * The response has an ETag and a Last-Modified, with If-None-Match or If-Modified-Since a 304 is sent if
+     * the file has not changed.
      *
      * @param path The file path
      * @return
      */
     @GetMapping("/info")
-    public FileResponse info(HttpServletRequest request, String path) throws IOException {
+    public ResponseEntity<FileResponse> info(HttpServletRequest request, String path) throws IOException {
         Security.checkRead(request);
-		path = FileSystem.getInstance().validateFilePath(path);
-        System.out.println("INFO, path: " + path);
-        File file = FileSystem.getInstance().getFile(path);
-        if (file == null)
-            throw new IOException("Partial path does not exist: " + path);
-        return new FileResponse(file);
+        FileResponse info = FileOperations.getInstance().info(path);
+        String etag = info.getEtag();
+        if (etag == null)
+            return ResponseEntity.ok(info);
+        // the 304 is sent by Spring if the validators match
+        return ResponseEntity.ok().eTag(etag).lastModified(info.getLastModified()).body(info);
     }
 
     /**
      * List files and directories under a directory<br>
      * example:
      * curl -X GET "http://localhost:8080/api/list?path=/dir1/dir2"
+     * The response has a weak ETag, with If-None-Match or If-Modified-Since a 304 is sent if no entry has changed.
      *
      * @param path The directory path
      * @return
      */
     @GetMapping("/list")
-    public List<FileResponse> list(HttpServletRequest request, String path) throws IOException {
+    public ResponseEntity<List<FileResponse>> list(HttpServletRequest request, String path) throws IOException {
         Security.checkRead(request);
-		path = FileSystem.getInstance().validateFilePath(path);
-        System.out.println("LIST, path: " + path);
-        ArrayList<FileResponse> list = new ArrayList<>();
-        File file = FileSystem.getInstance().getFile(path);
-        if (file == null || !file.exists())
-            throw new IOException("Directory does not exist");
-        if (file.isDirectory()) {
-            File[] files = file.listFiles();
-            for (File rFile : files)
-                list.add(new FileResponse(rFile));
-        } else {
-            throw new IOException("Resource is a file");
+        List<FileResponse> entries = FileOperations.getInstance().list(path);
+        FileResponse dir = FileOperations.getInstance().info(path);
+        return ResponseEntity.ok()
+                .eTag(ETags.getETag(dir, entries))
+                .lastModified(ETags.getLastModified(dir, entries))
+                .body(entries);
+    }
+
+    /**
+     * List a page of files and directories under a directory sorted by name, the entries are streamed
+     * as a JSON array. If there are more entries the header X-WebFS-Cursor contains the cursor of the
+     * next page.<br>
+     * example:
+     * curl -X GET "http://localhost:8080/api/list?path=/dir1/dir2&limit=1000"
+     * curl -X GET "http://localhost:8080/api/list?path=/dir1/dir2&limit=1000&cursor=ZmlsZTk5OS5kYXQ"
+     *
+     * @param path   The directory path
+     * @param limit  The max number of entries, up to 10000
+     * @param cursor The cursor returned with the previous page
+     */
+    @GetMapping(path = "/list", params = "limit")
+    public void listPage(HttpServletRequest request, HttpServletResponse response, String path, int limit, String cursor) throws IOException {
+        Security.checkRead(request);
+        FileOperations.Page page = FileOperations.getInstance().listPage(path, limit, cursor);
+        FileResponse dir = FileOperations.getInstance().info(path);
+        if (new ServletWebRequest(request, response).checkNotModified(ETags.getETag(dir, page.getEntries()),
+                ETags.getLastModified(dir, page.getEntries())))
+            return;
+        if (page.getCursor() != null)
+            response.setHeader(CURSOR_HEADER, page.getCursor());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            generator.writeStartArray();
+            for (FileResponse fileResponse : page.getEntries())
+                writer.writeValue(generator, fileResponse);
+            generator.writeEndArray();
         }
-        return list;
     }
 
     /**
@@ -104,17 +147,7 @@ public class FileController {
     @PostMapping("/mkdir")
     public FileResponse mkdir(HttpServletRequest request, String path) throws IOException {
         Security.checkWrite(request);
-		path = FileSystem.getInstance().validateFilePath(path);
-        System.out.println("MKDIR, path: " + path);
-        File file = FileSystem.getInstance().getFile(path);
-        File parent = new File(file.getParent());
-        if (!parent.exists())
-            throw new IOException("Parent does not exist");
-        file = new File(parent, file.getName());
-        file.mkdir();
-        if (!file.exists() || !file.isDirectory())
-            throw new IOException("Could not create dir");
-        return new FileResponse(file);
+        return FileOperations.getInstance().mkdir(path);
     }
 
 
@@ -129,17 +162,7 @@ public class FileController {
     @PostMapping("/create")
     public FileResponse create(HttpServletRequest request, String path) throws IOException {
         Security.checkWrite(request);
-		path = FileSystem.getInstance().validateFilePath(path);
-        System.out.println("CREATE, path: " + path);
-        File file = FileSystem.getInstance().getFile(path);
-        File parent = new File(file.getParent());
-        if (!parent.exists() || !parent.isDirectory())
-            throw new IOException("Parent does not exist");
-        file = new File(parent, file.getName());
-        file.createNewFile();
-        if (!file.exists() || !file.isFile())
-            throw new IOException("Could not create file");
-        return new FileResponse(file);
+        return FileOperations.getInstance().create(path);
     }
 
     /**
@@ -157,115 +180,214 @@ public class FileController {
     public ResponseEntity<FileResponse> upload(HttpServletRequest request, @RequestParam("file") MultipartFile file, String path, Long position) throws IOException {
         Security.checkWrite(request);
 		path = FileSystem.getInstance().validateFilePath(path);
-        System.out.println("UPLOAD, path: " + path + ", position: " + position + ", size: " + file.getSize());
-        File rFile = FileSystem.getInstance().write(path, file, position);
-        return new ResponseEntity<>(new FileResponse(rFile), position > 0 ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK);
+        checkIfMatch(request, path);
+        long start = position != null ? position : 0;
+        File rFile = FileSystem.getInstance().write(path, QosInterceptor.throttle(request, file.getInputStream()), start);
+        return new ResponseEntity<>(new FileResponse(rFile), start > 0 ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK);
     }
 
     /**
-     * Get a file<br>
+     * Upload a file with the raw request body, the data is written straight into the file so no
+     * multipart temp file is spooled<br>
      * example:
-     * curl -X GET "http://localhost:8080/api/get?path=/dir/file.dat"
+     * curl -T "D:/tmp/testdata/data.dat" "http://localhost:8080/api/upload?path=/dir/file.dat&position=0"
+     * The body can be compressed with Content-Encoding gzip or zstd, the position refers to the decoded data.
+     * With If-Match the upload fails with 412 if the file has changed.
      *
      * @param path The path to the file
-     * @param path The byte position of the file that reading will start from
+     * @param position The byte position of the file that writing will start
      * @return
      * @throws IOException
      */
+    @RequestMapping(path = "/upload", method = {RequestMethod.PUT, RequestMethod.POST},
+            consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<FileResponse> uploadStream(HttpServletRequest request, HttpServletResponse response, String path, Long position) throws IOException {
+        Security.checkWrite(request);
+		path = FileSystem.getInstance().validateFilePath(path);
+        checkIfMatch(request, path);
+        long start = position != null ? position : 0;
+        String contentEncoding = request.getHeader(HttpHeaders.CONTENT_ENCODING);
+        // encoded bodies are decoded with a blocking stream
+        if (FileTransfer.getInstance().isAsync(request) && Compression.getInstance().isIdentity(contentEncoding)) {
+            if (start < 0)
+                throw new IOException("Invalid position");
+            File rFile = FileSystem.getInstance().getFile(path);
+            AsyncFileTransfer.getInstance().receive(rFile, FileSystem.getInstance().openForWrite(rFile, start == 0), start,
+                    Long.MAX_VALUE, request, response, bytesWritten -> new ResponseEntity<>(new FileResponse(rFile),
+                            start > 0 ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK));
+            return null;
+        }
+        InputStream inputStream = Compression.getInstance().decode(contentEncoding,
+                QosInterceptor.throttle(request, request.getInputStream()));
+        File rFile = FileSystem.getInstance().write(path, inputStream, start);
+        return new ResponseEntity<>(new FileResponse(rFile), start > 0 ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK);
+    }
+
+    /**
+     * Get a file, byte ranges can be requested with a Range header (RFC 7233)<br>
+     * example:
+     * curl -X GET "http://localhost:8080/api/get?path=/dir/file.dat"
+     * curl -X GET "http://localhost:8080/api/get?path=/dir/file.dat" -H "Range: bytes=0-65535"
+     * curl -X GET "http://localhost:8080/api/get?path=/dir/file.dat" -H "Accept-Encoding: zstd, gzip" --compressed
+     * The body is compressed if the client accepts gzip or zstd and the file is compressible, ranges are sent as identity.
+     * With If-None-Match or If-Modified-Since a 304 is sent if the file has not changed, If-Range accepts the ETag.
+     * Compressed bodies have their own ETag, the ETag of the identity body with the content coding as a suffix.
+     * Small files that are downloaded often are sent from memory, see ContentCache.
+     *
+     * @param path The path to the file
+     * @param position The byte position of the file that reading will start from, ignored if a Range header is present
+     * @throws IOException
+     */
     @GetMapping(path = "/get")
-    public ResponseEntity<Resource> get(HttpServletRequest request, String path, Long position) throws IOException {
+    public void get(HttpServletRequest request, HttpServletResponse response, String path, Long position) throws IOException {
         Security.checkRead(request);
-		path = FileSystem.getInstance().validateFilePath(path);
-        System.out.println("GET, path: " + path + ", position: " + position);
-        File rFile = FileSystem.getInstance().getFile(path);
-        if (rFile == null || !rFile.exists() || !rFile.isFile())
-            throw new IOException("File does not exist");
-        FileInputStream stream = new FileInputStream(rFile);
-        stream.skip(position);
-        InputStreamResource resource = new InputStreamResource(stream);
-        return ResponseEntity.status(position > 0 ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK)
-                .contentLength(rFile.length() - position)
-                .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .body(resource);
+        String range = request.getHeader(HttpHeaders.RANGE);
+        File rFile = FileOperations.getInstance().getDownloadFile(path);
+        BasicFileAttributes attrs = Files.readAttributes(rFile.toPath(), BasicFileAttributes.class);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (Compression.getInstance().isEnabled())
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        boolean ranged = range != null && FileTransfer.getInstance().isRangeValid(rFile, request);
+        long start = position != null && range == null ? position : 0;
+        long length = attrs.size();
+        if (start < 0 || start > length)
+            throw new IOException("Invalid position");
+        // ranges are always sent as identity, each content coding has its own entity tag
+        Compression.Codec codec = ranged ? null : Compression.getInstance().negotiate(
+                request.getHeader(HttpHeaders.ACCEPT_ENCODING), rFile, start, length - start);
+        String etag = ETags.getETag(attrs, codec != null ? codec.getName() : null);
+        if (new ServletWebRequest(request, response).checkNotModified(etag, attrs.lastModifiedTime().toMillis()))
+            return;
+        if (ranged) {
+            FileTransfer.getInstance().sendRanges(rFile, range, request, response);
+            return;
+        }
+        response.setStatus(start > 0 ? HttpServletResponse.SC_PARTIAL_CONTENT : HttpServletResponse.SC_OK);
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        if (codec != null) {
+            FileTransfer.getInstance().sendEncoded(rFile, start, length - start, codec, request, response);
+            return;
+        }
+        // small files that are downloaded often are sent from memory
+        ByteBuffer content = ContentCache.getInstance().get(rFile, attrs);
+        if (content != null)
+            FileTransfer.getInstance().send(content.position((int) start), request, response);
+        else
+            FileTransfer.getInstance().send(rFile, start, length - start, request, response);
+    }
+
+    /**
+     * Get the checksum of a file computed on the server: sha256, crc32c or xxhash64. Files larger than
+     * the chunk size are hashed in parallel as a tree, the checksum is the hash of the chunk hashes.
+     * Checksums are stored with the file so they are computed again only if the file changes.<br>
+     * example:
+     * curl -X GET "http://localhost:8080/api/checksum?path=/dir/file.dat&algorithm=sha256"
+     *
+     * @param path      The path to the file
+     * @param algorithm The algorithm, default sha256
+     * @return
+     * @throws IOException
+     */
+    @GetMapping("/checksum")
+    public ChecksumResponse checksum(HttpServletRequest request, String path, String algorithm) throws IOException {
+        Security.checkRead(request);
+        File rFile = FileOperations.getInstance().getDownloadFile(path);
+        return Checksums.getInstance().getChecksum(rFile, Checksums.Algorithm.fromName(algorithm));
+    }
+
+    /**
+     * Get the block signatures of a file for a delta upload with /api/patch, the format is described
+     * in DeltaSync<br>
+     * example:
+     * curl -X GET "http://localhost:8080/api/signature?path=/dir/file.dat" -o file.sig
+     *
+     * @param path      The path to the file
+     * @param blockSize The block size, default about the square root of the file length
+     * @throws IOException
+     */
+    @GetMapping("/signature")
+    public void signature(HttpServletRequest request, HttpServletResponse response, String path, Integer blockSize) throws IOException {
+        Security.checkRead(request);
+        File rFile = FileOperations.getInstance().getDownloadFile(path);
+        long length = rFile.length();
+        int size = DeltaSync.getInstance().getBlockSize(length, blockSize != null ? blockSize : 0);
+        long signatureLength = DeltaSync.getInstance().getSignatureLength(length, size);
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setContentLengthLong(signatureLength);
+        request.setAttribute(AccessLog.BYTES_OUT_ATTRIBUTE, signatureLength);
+        DeltaSync.getInstance().writeSignature(rFile, length, size, response.getOutputStream());
+    }
+
+    /**
+     * Update a file with a delta of copy and data instructions against its current contents, the
+     * new file replaces the current atomically. The format is described in DeltaSync<br>
+     * example:
+     * curl -T "file.delta" "http://localhost:8080/api/patch?path=/dir/file.dat&checksum=ba7816bf..."
+     *
+     * @param path     The path to the file
+     * @param checksum The expected sha256 of the new file as returned by /api/checksum (optional)
+     * @return
+     * @throws IOException
+     */
+    @RequestMapping(path = "/patch", method = {RequestMethod.PUT, RequestMethod.POST},
+            consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public FileResponse patch(HttpServletRequest request, String path, String checksum) throws IOException {
+        Security.checkRead(request);
+        Security.checkWrite(request);
+        File rFile = FileOperations.getInstance().getUploadFile(path, 0);
+        checkIfMatch(request, path);
+        try (InputStream inputStream = Compression.getInstance().decode(request.getHeader(HttpHeaders.CONTENT_ENCODING),
+                QosInterceptor.throttle(request, request.getInputStream()))) {
+            DeltaSync.getInstance().patch(rFile, inputStream, checksum);
+        }
+        return new FileResponse(rFile);
     }
 
     /**
-     * Copy a file to the destination directory<br>
+     * Copy a file to the destination directory, directories are copied with recursive=true<br>
      * example:
      * curl -X PUT "http://localhost:8080/api/copy?sourcePath=/dir1/file.dat&destDir=/dir2&filename=newfile.dat"
+     * curl -X POST "http://localhost:8080/api/copy?path=/dir1&destDir=/dir2&recursive=true"
      *
-     * @param path    The file to copy
-     * @param destDir The destination directory
+     * @param path      The file to copy
+     * @param destDir   The destination directory
+     * @param recursive Copy the whole tree if the path is a directory
      * @return
      * @throws IOException
      */
     @PostMapping("/copy")
-    public FileResponse copy(HttpServletRequest request, String path, String destDir, String filename) throws IOException {
+    public FileResponse copy(HttpServletRequest request, String path, String destDir, String filename, boolean recursive) throws IOException {
         Security.checkRead(request);
         Security.checkWrite(request);
-		path = FileSystem.getInstance().validateFilePath(path);
-		destDir = FileSystem.getInstance().validateFilePath(destDir);
-		filename = FileSystem.getInstance().validateFilePath(filename);
-        System.out.println("COPY, path: " + path + ", filename: " + filename);
-        File source = FileSystem.getInstance().getFile(path);
-        if (source == null || !source.exists())
-            throw new IOException("Path does not exist");
-        File dest = FileSystem.getInstance().getFile(destDir);
-        if (dest == null || !dest.exists() || !dest.isDirectory())
-            throw new IOException("Destination directory does not exist");
-        File nFile;
-        if (source.isDirectory()) {
-            throw new IOException("Cannot copy directories, use createDirectory and copy recursively");
-        } else {
-            filename = filename == null ? source.getName() : filename;
-            nFile = new File(destDir, filename);
-            FileInputStream stream = new FileInputStream(source);
-            FileSystem.getInstance().write(nFile, stream, 0);
-		}
-        return new FileResponse(nFile);
+        return FileOperations.getInstance().copy(path, destDir, filename, recursive);
     }
 
 
     /**
-     * Move a file to the destination directory<br>
+     * Move a file to the destination directory, directories are moved with recursive=true<br>
      * example:
      * curl -X PUT "http://localhost:8080/api/move?sourcePath=/dir1/file.dat&destDir=/dir2&filename=newfile.dat"
+     * curl -X PUT "http://localhost:8080/api/move?path=/dir1&destDir=/dir2&recursive=true"
      *
-     * @param path     The file to move
-     * @param destDir  The destination directory
-     * @param filename The new file name (optional)
+     * @param path      The file to move
+     * @param destDir   The destination directory
+     * @param filename  The new file name (optional)
+     * @param recursive Move the whole tree if the path is a directory
      * @return
      * @throws IOException
      */
     @PutMapping("/move")
-    public FileResponse move(HttpServletRequest request, String path, String destDir, String filename) throws IOException {
+    public FileResponse move(HttpServletRequest request, String path, String destDir, String filename, boolean recursive) throws IOException {
         Security.checkRead(request);
         Security.checkWrite(request);
-		path = FileSystem.getInstance().validateFilePath(path);
-		destDir = FileSystem.getInstance().validateFilePath(destDir);
-		filename = FileSystem.getInstance().validateFilePath(filename);
-        System.out.println("MOVE, path: " + path + ", destDir: " + destDir + ", filename: " + filename);
-        File source = FileSystem.getInstance().getFile(path);
-        if (source == null || !source.exists())
-            throw new IOException("Path does not exist");
-        File dest = FileSystem.getInstance().getFile(destDir);
-        if (dest == null || !dest.exists() || !dest.isDirectory())
-            throw new IOException("Destination directory does not exist");
-        File nFile;
-        if (source.isDirectory()) {
-            throw new IOException("Cannot move directories, use createDirectory and move recursively");
-        } else {
-			filename = filename == null ? source.getName() : filename;
-            nFile = new File(destDir, filename);
-            source.renameTo(nFile);
-		}
-        return new FileResponse(nFile);
+        return FileOperations.getInstance().move(path, destDir, filename, recursive);
     }
 
     /**
      * Rename a file or directory<br>
      * example:
      * curl -X PUT "http://localhost:8080/api/rename?path=/dir/file.dat&filename=newfile.dat"
+     * With If-Match the operation fails with 412 if the file has changed.
      *
      * @param path     The file or directory path
      * @param filename The new filename
@@ -275,41 +397,33 @@ public class FileController {
     @PutMapping("/rename")
     public FileResponse rename(HttpServletRequest request, String path, String filename) throws IOException {
         Security.checkWrite(request);
-		path = FileSystem.getInstance().validateFilePath(path);
-		filename = FileSystem.getInstance().validateFilePath(filename);
-        System.out.println("RENAME, path: " + path + ", filename: " + filename);
-        File file = FileSystem.getInstance().getFile(path);
-        if (file == null || !file.exists())
-            throw new IOException("Path does not exist");
-        File nFile = new File(file.getParent(), filename);
-        file.renameTo(nFile);
-        return new FileResponse(nFile);
+        checkIfMatch(request, path);
+        return FileOperations.getInstance().rename(path, filename);
     }
 
     /**
-     * Delete a file or directory<br>
+     * Delete a file or directory, non-empty directories are deleted with recursive=true<br>
      * example:
      * curl -X DELETE "http://localhost:8080/api/delete?path=/dir/file.dat"
+     * curl -X DELETE "http://localhost:8080/api/delete?path=/dir&recursive=true"
+     * With If-Match the operation fails with 412 if the file has changed.
      *
-     * @param path The file or directory path
+     * @param path      The file or directory path
+     * @param recursive Delete the whole tree if the path is a directory
      * @return
      */
     @DeleteMapping("/delete")
-    public FileResponse delete(HttpServletRequest request, String path) throws IOException {
+    public FileResponse delete(HttpServletRequest request, String path, boolean recursive) throws IOException {
         Security.checkWrite(request);
-		path = FileSystem.getInstance().validateFilePath(path);
-        System.out.println("DELETE, path: " + path);
-        File file = FileSystem.getInstance().getFile(path);
-        if (file == null || !file.exists())
-            throw new IOException("Path does not exist");
-        file.delete();
-        return new FileResponse(file);
+        checkIfMatch(request, path);
+        return FileOperations.getInstance().delete(path, recursive);
     }
 
     /**
      * Set the file length<br>
      * example:
      * curl -X PUT "http://localhost:8080/api/rename?path=/dir/file.dat&length=1204"
+     * With If-Match the operation fails with 412 if the file has changed.
      *
      * @param path   The file
      * @param length The new size
@@ -319,21 +433,16 @@ public class FileController {
     @PutMapping("/setLength")
     public FileResponse setLength(HttpServletRequest request, String path, long length) throws IOException {
         Security.checkWrite(request);
-		path = FileSystem.getInstance().validateFilePath(path);
-        System.out.println("SETLENGTH, path: " + path + ", length: " + length);
-        FileOutputStream stream = null;
-        try {
-            File file = FileSystem.getInstance().getFile(path);
-            if (file == null || !file.exists())
-                throw new IOException("Path does not exist");
-            stream = new FileOutputStream(file);
-            RandomAccessFile raf = new RandomAccessFile(file.getPath(), "rw");
-            raf.setLength(length);
-            return new FileResponse(file);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        } finally {
-            stream.close();
-        }
+        checkIfMatch(request, path);
+        return FileOperations.getInstance().setLength(path, length);
+    }
+
+    /**
+     * Check the If-Match precondition of a write to a path.
+     */
+    private void checkIfMatch(HttpServletRequest request, String path) throws IOException {
+        String ifMatch = request.getHeader(HttpHeaders.IF_MATCH);
+        if (ifMatch != null)
+            ETags.checkIfMatch(ifMatch, FileSystem.getInstance().getFile(path));
     }
 }
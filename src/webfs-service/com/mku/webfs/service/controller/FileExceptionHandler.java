@@ -23,6 +23,7 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 SOFTWARE.
 */
 
+import com.mku.webfs.service.metrics.FileMetrics;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpStatus;
@@ -30,6 +31,7 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.server.ResponseStatusException;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -40,9 +42,16 @@ public class FileExceptionHandler {
     @ExceptionHandler
     public ResponseEntity<Resource> handleException(Exception e, HttpServletRequest request, HttpServletResponse response) {
 		e.printStackTrace();
+        FileMetrics.getInstance().error(e);
         String msg = e.getMessage();
+        HttpStatus status = HttpStatus.INTERNAL_SERVER_ERROR;
+        if (e instanceof ResponseStatusException) {
+            // ie: a failed precondition
+            status = ((ResponseStatusException) e).getStatus();
+            msg = ((ResponseStatusException) e).getReason() != null ? ((ResponseStatusException) e).getReason() : status.getReasonPhrase();
+        }
         InputStreamResource resource = new InputStreamResource(new ByteArrayInputStream(msg.getBytes()));
-        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+        return ResponseEntity.status(status)
                 .contentLength(msg.length())
                 .contentType(MediaType.APPLICATION_JSON)
                 .body(resource);
@@ -0,0 +1,282 @@
+package com.mku.webfs.service.controller;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.metrics.FileMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * The file operations of the API without the web stack, the servlet and the reactive controllers
+ * check the permissions and call these so both have the same semantics.
+ */
+public class FileOperations {
+    public static final int MAX_LIST_LIMIT = 10000;
+
+    private static FileOperations instance;
+
+    public static synchronized FileOperations getInstance() {
+        if (instance == null)
+            instance = new FileOperations();
+        return instance;
+    }
+
+    /**
+     * A page of a directory listing
+     */
+    public static class Page {
+        private final List<FileResponse> entries;
+        private final String cursor;
+
+        Page(List<FileResponse> entries, String cursor) {
+            this.entries = entries;
+            this.cursor = cursor;
+        }
+
+        public List<FileResponse> getEntries() {
+            return entries;
+        }
+
+        /**
+         * @return The cursor of the next page or null if this is the last page
+         */
+        public String getCursor() {
+            return cursor;
+        }
+    }
+
+    public FileResponse info(String path) throws IOException {
+        path = FileSystem.getInstance().validateFilePath(path);
+        File file = FileSystem.getInstance().getFile(path);
+        if (file == null)
+            throw new IOException("Partial path does not exist: " + path);
+        return MetadataCache.getInstance().getInfo(file);
+    }
+
+    public List<FileResponse> list(String path) throws IOException {
+        path = FileSystem.getInstance().validateFilePath(path);
+        File file = FileSystem.getInstance().getFile(path);
+        FileResponse info = file != null ? MetadataCache.getInstance().getInfo(file) : null;
+        if (info == null || !info.isPresent())
+            throw new IOException("Directory does not exist");
+        if (!info.isDirectory())
+            throw new IOException("Resource is a file");
+        return MetadataCache.getInstance().getList(file);
+    }
+
+    public Page listPage(String path, int limit, String cursor) throws IOException {
+        path = FileSystem.getInstance().validateFilePath(path);
+        if (limit <= 0 || limit > MAX_LIST_LIMIT)
+            throw new IOException("Invalid limit, max: " + MAX_LIST_LIMIT);
+        File file = FileSystem.getInstance().getFile(path);
+        if (file == null || !file.exists())
+            throw new IOException("Directory does not exist");
+        if (!file.isDirectory())
+            throw new IOException("Resource is a file");
+        String after = null;
+        if (cursor != null && cursor.length() > 0)
+            after = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+
+        // get one more to know if there is a next page
+        List<FileResponse> list = FileSystem.getInstance().list(file, after, limit + 1);
+        String next = null;
+        if (list.size() > limit) {
+            list = list.subList(0, limit);
+            String name = list.get(limit - 1).getName();
+            next = Base64.getUrlEncoder().withoutPadding().encodeToString(name.getBytes(StandardCharsets.UTF_8));
+        }
+        return new Page(list, next);
+    }
+
+    public FileResponse mkdir(String path) throws IOException {
+        path = FileSystem.getInstance().validateFilePath(path);
+        File file = FileSystem.getInstance().getFile(path);
+        File parent = new File(file.getParent());
+        if (!parent.exists())
+            throw new IOException("Parent does not exist");
+        file = new File(parent, file.getName());
+        file.mkdir();
+        MetadataCache.getInstance().invalidate(file, false);
+        if (!file.exists() || !file.isDirectory())
+            throw new IOException("Could not create dir");
+        return new FileResponse(file);
+    }
+
+    public FileResponse create(String path) throws IOException {
+        path = FileSystem.getInstance().validateFilePath(path);
+        File file = FileSystem.getInstance().getFile(path);
+        File parent = new File(file.getParent());
+        if (!parent.exists() || !parent.isDirectory())
+            throw new IOException("Parent does not exist");
+        file = new File(parent, file.getName());
+        file.createNewFile();
+        MetadataCache.getInstance().invalidate(file, false);
+        if (!file.exists() || !file.isFile())
+            throw new IOException("Could not create file");
+        return new FileResponse(file);
+    }
+
+    public FileResponse copy(String path, String destDir, String filename, boolean recursive) throws IOException {
+        path = FileSystem.getInstance().validateFilePath(path);
+        destDir = FileSystem.getInstance().validateFilePath(destDir);
+        filename = FileSystem.getInstance().validateFilePath(filename);
+        File source = FileSystem.getInstance().getFile(path);
+        if (source == null || !source.exists())
+            throw new IOException("Path does not exist");
+        File dest = FileSystem.getInstance().getFile(destDir);
+        if (dest == null || !dest.exists() || !dest.isDirectory())
+            throw new IOException("Destination directory does not exist");
+        filename = filename == null ? source.getName() : filename;
+        File nFile = new File(dest, filename);
+        FileSystem.getInstance().validateFile(nFile);
+        if (source.isDirectory()) {
+            if (!recursive)
+                throw new IOException("Cannot copy directories, use recursive=true");
+            FileTree.Result result = FileTree.getInstance().copy(source, nFile);
+            MetadataCache.getInstance().invalidate(nFile, true);
+            return new TreeResponse(nFile, result);
+        } else {
+            FileSystem.getInstance().copy(source, nFile);
+        }
+        return new FileResponse(nFile);
+    }
+
+    public FileResponse move(String path, String destDir, String filename, boolean recursive) throws IOException {
+        path = FileSystem.getInstance().validateFilePath(path);
+        destDir = FileSystem.getInstance().validateFilePath(destDir);
+        filename = FileSystem.getInstance().validateFilePath(filename);
+        File source = FileSystem.getInstance().getFile(path);
+        if (source == null || !source.exists())
+            throw new IOException("Path does not exist");
+        File dest = FileSystem.getInstance().getFile(destDir);
+        if (dest == null || !dest.exists() || !dest.isDirectory())
+            throw new IOException("Destination directory does not exist");
+        filename = filename == null ? source.getName() : filename;
+        File nFile = new File(dest, filename);
+        FileSystem.getInstance().validateFile(nFile);
+        if (source.isDirectory()) {
+            if (!recursive)
+                throw new IOException("Cannot move directories, use recursive=true");
+            FileTree.Result result = FileTree.getInstance().move(source, nFile);
+            MetadataCache.getInstance().invalidate(source, true);
+            MetadataCache.getInstance().invalidate(nFile, true);
+            return new TreeResponse(nFile, result);
+        } else {
+            if (nFile.isFile())
+                Checksums.getInstance().remove(nFile);
+            source.renameTo(nFile);
+            MetadataCache.getInstance().invalidate(source, false);
+            MetadataCache.getInstance().invalidate(nFile, false);
+        }
+        return new FileResponse(nFile);
+    }
+
+    public FileResponse rename(String path, String filename) throws IOException {
+        path = FileSystem.getInstance().validateFilePath(path);
+        filename = FileSystem.getInstance().validateFilePath(filename);
+        File file = FileSystem.getInstance().getFile(path);
+        if (file == null || !file.exists())
+            throw new IOException("Path does not exist");
+        File nFile = new File(file.getParent(), filename);
+        FileSystem.getInstance().validateFile(nFile);
+        if (nFile.isFile())
+            Checksums.getInstance().remove(nFile);
+        file.renameTo(nFile);
+        MetadataCache.getInstance().invalidate(file, true);
+        MetadataCache.getInstance().invalidate(nFile, true);
+        return new FileResponse(nFile);
+    }
+
+    public FileResponse delete(String path, boolean recursive) throws IOException {
+        path = FileSystem.getInstance().validateFilePath(path);
+        File file = FileSystem.getInstance().getFile(path);
+        if (file == null || !file.exists())
+            throw new IOException("Path does not exist");
+        if (file.equals(FileSystem.getInstance().getRoot()))
+            throw new IOException("Cannot delete the root directory");
+        if (file.isDirectory() && recursive) {
+            FileTree.Result result = FileTree.getInstance().delete(file);
+            MetadataCache.getInstance().invalidate(file, true);
+            return new TreeResponse(file, result);
+        }
+        if (file.isFile())
+            Checksums.getInstance().remove(file);
+        long start = FileMetrics.getInstance().start();
+        boolean deleted = file.delete();
+        FileMetrics.getInstance().recordDisk(FileMetrics.DiskOperation.DELETE, start);
+        MetadataCache.getInstance().invalidate(file, false);
+        if (!deleted)
+            throw new IOException(file.isDirectory() ? "Directory is not empty, use recursive=true" : "Could not delete file");
+        return new FileResponse(file);
+    }
+
+    public FileResponse setLength(String path, long length) throws IOException {
+        path = FileSystem.getInstance().validateFilePath(path);
+        File file = FileSystem.getInstance().getFile(path);
+        if (file == null || !file.exists())
+            throw new IOException("Path does not exist");
+        BlobStore.getInstance().detach(file, true);
+        try (RandomAccessFile raf = new RandomAccessFile(file.getPath(), "rw")) {
+            raf.setLength(length);
+        } finally {
+            MetadataCache.getInstance().invalidate(file, false);
+        }
+        return new FileResponse(file);
+    }
+
+    /**
+     * Get a file to download.
+     *
+     * @param path The file path
+     * @return The file
+     * @throws IOException If the path is not a file
+     */
+    public File getDownloadFile(String path) throws IOException {
+        path = FileSystem.getInstance().validateFilePath(path);
+        File rFile = FileSystem.getInstance().getFile(path);
+        if (rFile == null || !rFile.exists() || !rFile.isFile())
+            throw new IOException("File does not exist");
+        return rFile;
+    }
+
+    /**
+     * Get the file of an upload.
+     *
+     * @param path     The file path
+     * @param position The byte position of the file that writing will start
+     * @return The file
+     * @throws IOException If the position is invalid
+     */
+    public File getUploadFile(String path, long position) throws IOException {
+        path = FileSystem.getInstance().validateFilePath(path);
+        if (position < 0)
+            throw new IOException("Invalid position");
+        return FileSystem.getInstance().getFile(path);
+    }
+}
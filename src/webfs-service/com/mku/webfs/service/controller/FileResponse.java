@@ -25,6 +25,7 @@ SOFTWARE.
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
 
 /**
  * File system nodes exposed as resources.
@@ -35,35 +36,77 @@ public class FileResponse {
      */
     private transient File file;
 
+    /**
+     * Attributes read once when the node was listed, if null they are read from the file.
+     */
+    private transient BasicFileAttributes attrs;
+    private transient String path;
+    private transient boolean snapshot;
+
     public FileResponse(File file) {
         this.file = file;
     }
 
+    /**
+     * Create a node with attributes that have already been read so the getters do not touch the disk.
+     *
+     * @param file  The file
+     * @param attrs The file attributes, null if the file does not exist
+     * @param path  The relative path of the file
+     */
+    public FileResponse(File file, BasicFileAttributes attrs, String path) {
+        this.file = file;
+        this.attrs = attrs;
+        this.path = path;
+        this.snapshot = true;
+    }
+
     public String getPath() throws IOException {
+        if (path != null)
+            return path;
         return FileSystem.getInstance().getRelativePath(file);
     }
 
     public boolean isPresent() {
+        if (snapshot)
+            return attrs != null;
         return file.exists();
     }
 
     public boolean isDirectory() throws IOException {
+        if (snapshot)
+            return attrs != null && attrs.isDirectory();
         return file.isDirectory();
     }
 
     public boolean isFile() throws IOException {
+        if (snapshot)
+            return attrs != null && attrs.isRegularFile();
         return file.isFile();
     }
 
     public long getLength() {
+        if (snapshot)
+            return attrs != null ? attrs.size() : 0;
         return file.length();
     }
 
     public long getLastModified() {
+        if (snapshot)
+            return attrs != null ? attrs.lastModifiedTime().toMillis() : 0;
         return file.lastModified();
     }
 
     public String getName() {
         return file.getName();
     }
+
+    /**
+     * The entity tag, with If-Match a file is modified only if it has not changed since
+     */
+    public String getEtag() throws IOException {
+        if (snapshot)
+            return attrs != null ? ETags.getETag(attrs) : null;
+        return ETags.getETag(file);
+    }
 }
@@ -23,11 +23,26 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 SOFTWARE.
 */
 
+import com.mku.webfs.service.metrics.FileMetrics;
 import org.springframework.web.multipart.MultipartFile;
 import org.apache.commons.text.StringEscapeUtils;
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
@@ -40,7 +55,10 @@ import java.io.InputStream;
 public class FileSystem {
     private static final int BUFF_LENGTH = 32768;
 	private static final Pattern pattern = Pattern.compile("^.+[\\:\\*\\?\\<\\>\\|]+$");
+    private static final String META_DIR_NAME = ".webfs";
+    private static final String TMP_DIR_NAME = "tmp";
     private String path;
+    private File root;
 
     private static FileSystem instance;
 
@@ -53,67 +71,345 @@ public class FileSystem {
 
     public void setPath(String path) {
         this.path = path;
+        this.root = new File(path).toPath().toAbsolutePath().normalize().toFile();
+        PathResolver.getInstance().setRoot(root, META_DIR_NAME);
     }
 
     public File getRoot() {
-        File realRoot = new File(path);
-        return realRoot;
+        return root;
+    }
+
+    /**
+     * Get the directory under the root where the service keeps its own data, it is not accessible
+     * through the API.
+     *
+     * @return The directory
+     */
+    public File getMetaDir() {
+        return new File(getRoot(), META_DIR_NAME);
+    }
+
+    /**
+     * Get the directory for temp files under the service data directory, files are created there
+     * and renamed into place.
+     *
+     * @return The directory
+     */
+    public File getTempDir() {
+        return new File(getMetaDir(), TMP_DIR_NAME);
+    }
+
+    /**
+     * Check if a file is the service data directory.
+     *
+     * @param file The file
+     * @return True if it is the service data directory
+     */
+    public boolean isMetaDir(File file) {
+        return file.getName().equals(META_DIR_NAME) && getRoot().equals(file.getParentFile());
     }
 
     public File getFile(String path) {
 		path = validateFilePath(path);
-        String[] parts = path.split("/");
-        File file = getRoot();
-        for (String part : parts) {
-            if (part.length() == 0)
-                continue;
-            if (part.equals(".."))
-                throw new RuntimeException("Backwards traversing (..) is not supported");
-            file = new File(file, part);
-			if(file == null)
-				return null;
-        }
-		validateFile(file);
-        return file;
+        return PathResolver.getInstance().resolve(path);
     }
 
     public String getRelativePath(File file) {
-        return new File(file.getPath()).getPath().replace(
-                new File(path).getPath(), "").replace("\\", "/");
+        return PathResolver.getInstance().getRelativePath(file);
+    }
+
+    /**
+     * List a directory, the attributes of each entry are read once.
+     *
+     * @param dir The directory
+     * @return The entries
+     * @throws IOException
+     */
+    public List<FileResponse> list(File dir) throws IOException {
+        long start = FileMetrics.getInstance().start();
+        List<FileResponse> list = new ArrayList<>();
+        String dirPath = getRelativePath(dir);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath())) {
+            for (Path child : stream) {
+                FileResponse response = getResponse(child, dirPath);
+                if (response != null)
+                    list.add(response);
+            }
+        }
+        FileMetrics.getInstance().recordDisk(FileMetrics.DiskOperation.LIST, start);
+        return list;
+    }
+
+    /**
+     * List a page of a directory sorted by name. Only the names are kept while the directory is
+     * scanned and the attributes are read for the entries of the page only, entries deleted
+     * in the meantime are replaced with the next ones.
+     *
+     * @param dir   The directory
+     * @param after The name of the last entry of the previous page, null for the first page
+     * @param limit The max number of entries
+     * @return The entries
+     * @throws IOException
+     */
+    public List<FileResponse> list(File dir, String after, int limit) throws IOException {
+        long start = FileMetrics.getInstance().start();
+        List<FileResponse> list = new ArrayList<>();
+        String dirPath = getRelativePath(dir);
+        String last = after;
+        while (true) {
+            int count = limit - list.size();
+            List<String> names = getNames(dir, last, count);
+            for (String name : names) {
+                FileResponse response = getResponse(dir.toPath().resolve(name), dirPath);
+                if (response != null)
+                    list.add(response);
+            }
+            if (names.size() < count || list.size() == limit)
+                break;
+            last = names.get(names.size() - 1);
+        }
+        FileMetrics.getInstance().recordDisk(FileMetrics.DiskOperation.LIST, start);
+        return list;
     }
 
+    /**
+     * Get the first names of a directory sorted after a name, the service data directory is skipped.
+     */
+    private List<String> getNames(File dir, String after, int limit) throws IOException {
+        boolean isRoot = dir.equals(getRoot());
+        // max heap, the largest name is dropped when the page is full
+        PriorityQueue<String> names = new PriorityQueue<>(limit + 1, Comparator.reverseOrder());
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath())) {
+            for (Path child : stream) {
+                String name = child.getFileName().toString();
+                if (isRoot && name.equals(META_DIR_NAME))
+                    continue;
+                if (after != null && name.compareTo(after) <= 0)
+                    continue;
+                if (names.size() == limit) {
+                    if (name.compareTo(names.peek()) >= 0)
+                        continue;
+                    names.poll();
+                }
+                names.add(name);
+            }
+        }
+        List<String> sorted = new ArrayList<>(names);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Read the attributes of a file once.
+     *
+     * @param file The file
+     * @return The node, not present if the file does not exist
+     * @throws IOException
+     */
+    public FileResponse getResponse(File file) throws IOException {
+        long start = FileMetrics.getInstance().start();
+        BasicFileAttributes attrs = null;
+        try {
+            attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (NoSuchFileException ignored) {
+        }
+        FileMetrics.getInstance().recordDisk(FileMetrics.DiskOperation.STAT, start);
+        return new FileResponse(file, attrs, getRelativePath(file));
+    }
+
+    private FileResponse getResponse(Path path, String dirPath) throws IOException {
+        File file = path.toFile();
+        if (isMetaDir(file))
+            return null;
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException ex) {
+            // deleted while listing or a broken link
+            return null;
+        }
+        return new FileResponse(file, attrs, dirPath + "/" + file.getName());
+    }
+
+    /**
+     * Write the contents of an uploaded part into a file starting at a byte position.
+     *
+     * @param path     The file path
+     * @param file     The uploaded part
+     * @param position The byte position of the file that writing will start
+     * @return The file
+     * @throws IOException
+     */
     public File write(String path, MultipartFile file, long position) throws IOException {
         File rFile = getFile(path);
-        if (!rFile.exists()) {
-            rFile.createNewFile();
-        }
-        InputStream inputStream = file.getInputStream();
+        return write(rFile, file.getInputStream(), position);
+    }
+
+    /**
+     * Write a stream into a file starting at a byte position. Writing at position 0 replaces the
+     * contents, any other position keeps the existing data.
+     *
+     * @param path        The file path
+     * @param inputStream The data
+     * @param position    The byte position of the file that writing will start
+     * @return The file
+     * @throws IOException
+     */
+    public File write(String path, InputStream inputStream, long position) throws IOException {
+        File rFile = getFile(path);
         return write(rFile, inputStream, position);
     }
 
+    /**
+     * Write a stream into a file starting at a byte position, only the region written is updated.
+     * Writing at position 0 replaces the contents. The stream is closed.
+     *
+     * @param rFile       The file
+     * @param inputStream The data
+     * @param position    The byte position of the file that writing will start
+     * @return The file
+     * @throws IOException
+     */
     public File write(File rFile, InputStream inputStream, long position) throws IOException {
-        FileOutputStream outputStream = null;
+        FileMetrics.getInstance().transferStarted(FileMetrics.Direction.UPLOAD);
         try {
-            inputStream.skip(position);
-            outputStream = new FileOutputStream(rFile);
-
-            byte[] buff = new byte[BUFF_LENGTH];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buff, 0, buff.length)) > 0) {
-                outputStream.write(buff, 0, bytesRead);
+            if (position < 0)
+                throw new IOException("Invalid position");
+            if (position == 0 && BlobStore.getInstance().isEnabled()) {
+                BlobStore.getInstance().write(rFile, inputStream);
+                return rFile;
+            }
+            try (FileChannel channel = openForWrite(rFile, position == 0)) {
+                write(channel, inputStream, position);
             }
-        } catch (Exception ex) {
-            throw ex;
         } finally {
+            FileMetrics.getInstance().transferEnded(FileMetrics.Direction.UPLOAD);
+            MetadataCache.getInstance().invalidate(rFile, false);
             if (inputStream != null)
                 inputStream.close();
-            if (outputStream != null)
-                outputStream.close();
         }
         return rFile;
     }
-	
+
+    /**
+     * Open a file for positioned writes, the file is created if it does not exist. If the file shares
+     * its contents with other files it's detached first so they are not modified.
+     *
+     * @param rFile    The file
+     * @param truncate True to discard the existing contents
+     * @return The channel
+     * @throws IOException
+     */
+    public FileChannel openForWrite(File rFile, boolean truncate) throws IOException {
+        BlobStore.getInstance().detach(rFile, !truncate);
+        if (truncate)
+            return FileChannel.open(rFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        return FileChannel.open(rFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Write a stream into a channel with positioned writes, the channel position is not modified
+     * so concurrent writers can share the channel. The stream is not closed.
+     *
+     * @param channel     The file channel
+     * @param inputStream The data
+     * @param position    The byte position of the file that writing will start
+     * @return The bytes written
+     * @throws IOException
+     */
+    public long write(FileChannel channel, InputStream inputStream, long position) throws IOException {
+        if (inputStream instanceof FileInputStream && position <= channel.size()) {
+            // file to file, let the kernel do the copy, transferFrom cannot start past the end of the file
+            long start = FileMetrics.getInstance().start();
+            FileChannel source = ((FileInputStream) inputStream).getChannel();
+            long pos = position;
+            long bytesTransferred;
+            while ((bytesTransferred = channel.transferFrom(source, pos, BUFF_LENGTH * 256L)) > 0)
+                pos += bytesTransferred;
+            FileMetrics.getInstance().recordDisk(FileMetrics.DiskOperation.WRITE, start);
+            FileMetrics.getInstance().addBytesWritten(pos - position);
+            return pos - position;
+        }
+        byte[] buff = new byte[BUFF_LENGTH];
+        ByteBuffer buffer = ByteBuffer.wrap(buff);
+        long pos = position;
+        int bytesRead;
+        // only the writes are timed, reading the stream is waiting on the network
+        long writeNanos = 0;
+        try {
+            while ((bytesRead = inputStream.read(buff, 0, buff.length)) > 0) {
+                buffer.clear();
+                buffer.limit(bytesRead);
+                long start = System.nanoTime();
+                while (buffer.hasRemaining())
+                    pos += channel.write(buffer, pos);
+                writeNanos += System.nanoTime() - start;
+            }
+        } finally {
+            FileMetrics.getInstance().recordDiskNanos(FileMetrics.DiskOperation.WRITE, writeNanos);
+            FileMetrics.getInstance().addBytesWritten(pos - position);
+        }
+        return pos - position;
+    }
+
+    /**
+     * Copy a file without moving the data through the heap. FileChannel.transferTo lets the kernel
+     * copy the file (sendfile or copy_file_range), if the file system does not support it the copy
+     * falls back to Files.copy. With deduplication the destination is linked to the blob of the source.
+     *
+     * @param source The source file
+     * @param dest   The destination file, it is replaced if it exists
+     * @return The destination file
+     * @throws IOException
+     */
+    public File copy(File source, File dest) throws IOException {
+        if (BlobStore.getInstance().isEnabled()) {
+            // the destination links to the same blob, no data is copied
+            long start = FileMetrics.getInstance().start();
+            try {
+                BlobStore.getInstance().copy(source, dest);
+            } finally {
+                FileMetrics.getInstance().recordDisk(FileMetrics.DiskOperation.COPY, start);
+                MetadataCache.getInstance().invalidate(source, false);
+                MetadataCache.getInstance().invalidate(dest, false);
+            }
+            return dest;
+        }
+        long start = FileMetrics.getInstance().start();
+        try (FileChannel sourceChannel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            try (FileChannel destChannel = openForWrite(dest, true)) {
+                long size = sourceChannel.size();
+                long pos = 0;
+                while (pos < size) {
+                    long bytesTransferred = sourceChannel.transferTo(pos, size - pos, destChannel);
+                    if (bytesTransferred <= 0)
+                        throw new IOException("Could not transfer file");
+                    pos += bytesTransferred;
+                }
+            } catch (IOException ex) {
+                Files.copy(source.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            FileMetrics.getInstance().recordDisk(FileMetrics.DiskOperation.COPY, start);
+            MetadataCache.getInstance().invalidate(dest, false);
+        }
+        long length = dest.length();
+        FileMetrics.getInstance().addBytesRead(length);
+        FileMetrics.getInstance().addBytesWritten(length);
+        return dest;
+    }
+
 	public String validateFilePath(String path) {
+		if (path == null)
+			return null;
+        if (isPlainPath(path)) {
+            // nothing to escape, only the last char can match the pattern
+            char last = path.length() > 1 ? path.charAt(path.length() - 1) : 0;
+            if (last == ':' || last == '*' || last == '?' || last == '|')
+                throw new RuntimeException("Invalid characters in file path found");
+            return path;
+        }
 		path = StringEscapeUtils.escapeHtml4(path);
 		Matcher matcher = pattern.matcher(path);
 		if(matcher.matches()){
@@ -122,14 +418,24 @@ public class FileSystem {
 		return path;
 	}
 	
+    /**
+     * Check if a path only has printable ASCII chars that are not escaped by escapeHtml4.
+     */
+    private static boolean isPlainPath(String path) {
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c < 0x20 || c > 0x7e || c == '&' || c == '<' || c == '>' || c == '"')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Check that a file is under the root and not in the service data directory, links are followed.
+     *
+     * @param file The file
+     */
 	public void validateFile(File file) {
-		try {
-			java.io.File f = new java.io.File(file.getPath());
-			java.io.File r = new java.io.File(getRoot().getPath());
-			if(!f.getCanonicalPath().startsWith(r.getCanonicalPath()))
-				throw new RuntimeException("Could not validate file path");
-		} catch (Exception ex) {
-			throw new RuntimeException(ex);
-		}
+        PathResolver.getInstance().verify(file.toPath());
 	}
 }
@@ -0,0 +1,370 @@
+package com.mku.webfs.service.controller;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.metrics.FileMetrics;
+import com.mku.webfs.service.log.AccessLog;
+import com.mku.webfs.service.qos.QosInterceptor;
+import org.apache.catalina.connector.CoyoteOutputStream;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Download engine that sends file regions to the client without copying them through the heap.
+ * If the connector supports it (Tomcat NIO/NIO2 without SSL) the region is handed over to the
+ * container which uses sendfile, otherwise the region is pushed with positioned FileChannel transfers,
+ * or with non-blocking servlet I/O in the ASYNC mode.
+ */
+public class FileTransfer {
+    /**
+     * How transfers that can't use sendfile are executed
+     */
+    public enum Mode {
+        /**
+         * The request thread is held until the transfer ends
+         */
+        BLOCKING,
+        /**
+         * The request goes async and the data is moved when the socket is ready
+         */
+        ASYNC
+    }
+
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    /**
+     * Max bytes per transferTo call, large regions are sent in multiple calls.
+     */
+    private static final long CHUNK_LENGTH = 8 * 1024 * 1024;
+
+    private static final String CRLF = "\r\n";
+
+    private volatile Mode mode = Mode.BLOCKING;
+
+    private static FileTransfer instance;
+
+    public static FileTransfer getInstance() {
+        if (instance == null)
+            instance = new FileTransfer();
+        return instance;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Check if the transfers of a request should use non-blocking I/O.
+     *
+     * @param request The request
+     * @return True for non-blocking I/O
+     */
+    public boolean isAsync(HttpServletRequest request) {
+        return mode == Mode.ASYNC && request.isAsyncSupported();
+    }
+
+    /**
+     * Send a region of a file as the response body. The caller is expected to set the status and the
+     * content type, the content length is set here.
+     *
+     * @param file     The file
+     * @param position The byte position of the region
+     * @param length   The length of the region
+     * @param request  The request
+     * @param response The response
+     * @throws IOException
+     */
+    public void send(File file, long position, long length, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentLengthLong(length);
+        request.setAttribute(AccessLog.BYTES_OUT_ATTRIBUTE, length);
+        if (length == 0)
+            return;
+        // throttled transfers are paced here so they can't be handed over to sendfile
+        if (isSendfileSupported(request) && QosInterceptor.getThrottle(request) == null) {
+            FileMetrics.getInstance().addBytesRead(length);
+            // the container will send the region after the handler returns
+            request.setAttribute(SENDFILE_FILENAME_ATTR, file.getAbsolutePath());
+            request.setAttribute(SENDFILE_START_ATTR, position);
+            request.setAttribute(SENDFILE_END_ATTR, position + length);
+            return;
+        }
+        if (isAsync(request)) {
+            AsyncFileTransfer.getInstance().send(file, Collections.singletonList(new AsyncFileTransfer.Segment(null, position, length)),
+                    request, response);
+            return;
+        }
+        FileMetrics.getInstance().transferStarted(FileMetrics.Direction.DOWNLOAD);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            transfer(channel, position, length, QosInterceptor.throttle(request, Channels.newChannel(response.getOutputStream())));
+        } finally {
+            FileMetrics.getInstance().transferEnded(FileMetrics.Direction.DOWNLOAD);
+        }
+    }
+
+    /**
+     * Send contents held in memory as the response body, see ContentCache. The caller is expected to set
+     * the status and the content type, the content length is set here. The contents are small so they are
+     * always written with blocking I/O, on Tomcat straight from the buffer into the connector buffer.
+     *
+     * @param content  The contents from the position to the limit, the position is moved
+     * @param request  The request
+     * @param response The response
+     * @throws IOException
+     */
+    public void send(ByteBuffer content, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long length = content.remaining();
+        response.setContentLengthLong(length);
+        request.setAttribute(AccessLog.BYTES_OUT_ATTRIBUTE, length);
+        if (length == 0)
+            return;
+        ServletOutputStream outputStream = response.getOutputStream();
+        FileMetrics.getInstance().transferStarted(FileMetrics.Direction.DOWNLOAD);
+        try {
+            if (outputStream instanceof CoyoteOutputStream && QosInterceptor.getThrottle(request) == null) {
+                ((CoyoteOutputStream) outputStream).write(content);
+            } else {
+                WritableByteChannel target = QosInterceptor.throttle(request, Channels.newChannel(outputStream));
+                while (content.hasRemaining())
+                    target.write(content);
+            }
+        } finally {
+            FileMetrics.getInstance().transferEnded(FileMetrics.Direction.DOWNLOAD);
+        }
+    }
+
+    /**
+     * Send a region of a file compressed with a content coding. The length of the body is not known
+     * in advance so it's sent chunked, and since it's not a file region it's never sent with sendfile
+     * or with non-blocking I/O.
+     *
+     * @param file     The file
+     * @param position The byte position of the region
+     * @param length   The length of the region
+     * @param codec    The codec
+     * @param request  The request
+     * @param response The response
+     * @throws IOException
+     */
+    public void sendEncoded(File file, long position, long length, Compression.Codec codec,
+                            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.CONTENT_ENCODING, codec.getName());
+        CountingOutputStream outputStream = new CountingOutputStream(Channels.newOutputStream(
+                QosInterceptor.throttle(request, Channels.newChannel(response.getOutputStream()))));
+        FileMetrics.getInstance().transferStarted(FileMetrics.Direction.DOWNLOAD);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             OutputStream encoder = Compression.getInstance().encode(codec, outputStream)) {
+            transfer(channel, position, length, Channels.newChannel(encoder));
+        } finally {
+            FileMetrics.getInstance().transferEnded(FileMetrics.Direction.DOWNLOAD);
+            request.setAttribute(AccessLog.BYTES_OUT_ATTRIBUTE, outputStream.getCount());
+        }
+    }
+
+    /**
+     * Transfer a region of a file to an output stream.
+     *
+     * @param file         The file
+     * @param position     The byte position of the region
+     * @param length       The length of the region
+     * @param outputStream The output stream
+     * @return The bytes transferred
+     * @throws IOException
+     */
+    public long transfer(File file, long position, long length, OutputStream outputStream) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return transfer(channel, position, length, Channels.newChannel(outputStream));
+        }
+    }
+
+    /**
+     * Transfer a region of a file channel to a target channel using positioned transfers so the
+     * channel position is never modified. The target channel is not closed.
+     *
+     * @param channel  The file channel
+     * @param position The byte position of the region
+     * @param length   The length of the region
+     * @param target   The target channel
+     * @return The bytes transferred
+     * @throws IOException
+     */
+    public long transfer(FileChannel channel, long position, long length, WritableByteChannel target) throws IOException {
+        long end = position + length;
+        long pos = position;
+        long start = FileMetrics.getInstance().start();
+        try {
+            while (pos < end) {
+                long bytesTransferred = channel.transferTo(pos, Math.min(CHUNK_LENGTH, end - pos), target);
+                if (bytesTransferred <= 0)
+                    throw new EOFException("File was truncated during transfer");
+                pos += bytesTransferred;
+            }
+        } finally {
+            FileMetrics.getInstance().recordSend(start);
+            FileMetrics.getInstance().addBytesRead(pos - position);
+        }
+        return pos - position;
+    }
+
+    /**
+     * Send the byte ranges of a Range header as specified in RFC 7233. A single satisfiable range is
+     * sent as a 206 with Content-Range, multiple ranges as a multipart/byteranges body, and if none
+     * of the ranges is satisfiable a 416 is sent.
+     *
+     * @param file        The file
+     * @param rangeHeader The value of the Range header
+     * @param request     The request
+     * @param response    The response
+     * @throws IOException
+     */
+    public void sendRanges(File file, String rangeHeader, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long fileLength = file.length();
+        List<long[]> ranges = ByteRanges.getSatisfiableRanges(rangeHeader, fileLength);
+        if (ranges == null) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+            send(file, 0, fileLength, request, response);
+            return;
+        }
+        if (ranges.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + fileLength);
+            response.setContentLength(0);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        if (ranges.size() == 1) {
+            long[] range = ranges.get(0);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, ByteRanges.getContentRange(range, fileLength));
+            response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+            send(file, range[0], range[1] - range[0] + 1, request, response);
+            return;
+        }
+
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        List<byte[]> partHeaders = new ArrayList<>();
+        long contentLength = 0;
+        for (long[] range : ranges) {
+            byte[] partHeader = (CRLF + "--" + boundary + CRLF
+                    + HttpHeaders.CONTENT_TYPE + ": " + MediaType.APPLICATION_OCTET_STREAM_VALUE + CRLF
+                    + HttpHeaders.CONTENT_RANGE + ": " + ByteRanges.getContentRange(range, fileLength) + CRLF
+                    + CRLF).getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeader);
+            contentLength += partHeader.length + range[1] - range[0] + 1;
+        }
+        byte[] end = (CRLF + "--" + boundary + "--" + CRLF).getBytes(StandardCharsets.US_ASCII);
+        contentLength += end.length;
+
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        request.setAttribute(AccessLog.BYTES_OUT_ATTRIBUTE, contentLength);
+        if (isAsync(request)) {
+            List<AsyncFileTransfer.Segment> segments = new ArrayList<>();
+            for (int i = 0; i < ranges.size(); i++) {
+                long[] range = ranges.get(i);
+                segments.add(new AsyncFileTransfer.Segment(partHeaders.get(i), range[0], range[1] - range[0] + 1));
+            }
+            segments.add(new AsyncFileTransfer.Segment(end, 0, 0));
+            AsyncFileTransfer.getInstance().send(file, segments, request, response);
+            return;
+        }
+        ServletOutputStream outputStream = response.getOutputStream();
+        FileMetrics.getInstance().transferStarted(FileMetrics.Direction.DOWNLOAD);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel target = QosInterceptor.throttle(request, Channels.newChannel(outputStream));
+            for (int i = 0; i < ranges.size(); i++) {
+                long[] range = ranges.get(i);
+                outputStream.write(partHeaders.get(i));
+                transfer(channel, range[0], range[1] - range[0] + 1, target);
+            }
+        } finally {
+            FileMetrics.getInstance().transferEnded(FileMetrics.Direction.DOWNLOAD);
+        }
+        outputStream.write(end);
+    }
+
+    /**
+     * Check the If-Range precondition of a request, see ByteRanges.isRangeValid.
+     *
+     * @param file    The file
+     * @param request The request
+     * @return True if the Range header should be honored
+     */
+    public boolean isRangeValid(File file, HttpServletRequest request) {
+        return ByteRanges.isRangeValid(file, request.getHeader(HttpHeaders.IF_RANGE));
+    }
+
+    private boolean isSendfileSupported(HttpServletRequest request) {
+        return Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR));
+    }
+
+    /**
+     * Counts the bytes sent after compression for the access log
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
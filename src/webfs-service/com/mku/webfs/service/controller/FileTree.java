@@ -0,0 +1,246 @@
+package com.mku.webfs.service.controller;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.metrics.FileMetrics;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Recursive operations on directory trees. The trees are walked in parallel with fork/join tasks,
+ * one task per directory and per file, and the outcome is aggregated in a {@link Result}.
+ * Symbolic links are never followed.
+ */
+public class FileTree {
+    private static final int PARALLELISM = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    private final ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+
+    private static FileTree instance;
+
+    public static synchronized FileTree getInstance() {
+        if (instance == null)
+            instance = new FileTree();
+        return instance;
+    }
+
+    /**
+     * Aggregated outcome of a tree operation
+     */
+    public static class Result {
+        private final LongAdder files = new LongAdder();
+        private final LongAdder directories = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+
+        public long getFiles() {
+            return files.sum();
+        }
+
+        public long getDirectories() {
+            return directories.sum();
+        }
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        public List<String> getErrors() {
+            return new ArrayList<>(errors);
+        }
+
+        private void addError(Path path, Exception ex) {
+            errors.add(FileSystem.getInstance().getRelativePath(path.toFile()) + ": " + ex);
+        }
+    }
+
+    /**
+     * Copy a directory tree.
+     *
+     * @param source The source directory
+     * @param dest   The destination directory, it is created if it does not exist
+     * @return The result
+     * @throws IOException
+     */
+    public Result copy(File source, File dest) throws IOException {
+        if (isSubPath(source, dest))
+            throw new IOException("Cannot copy a directory into itself");
+        Result result = new Result();
+        pool.invoke(new CopyTask(source.toPath(), dest.toPath(), true, result));
+        return result;
+    }
+
+    /**
+     * Move a directory tree. This is a single rename when the file system allows it, otherwise the
+     * tree is copied and the source is deleted only if the copy succeeded.
+     *
+     * @param source The source directory
+     * @param dest   The destination directory, it must not exist
+     * @return The result
+     * @throws IOException
+     */
+    public Result move(File source, File dest) throws IOException {
+        if (dest.exists())
+            throw new IOException("Destination already exists");
+        if (isSubPath(source, dest))
+            throw new IOException("Cannot move a directory into itself");
+        Result result = new Result();
+        try {
+            Files.move(source.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            result.directories.increment();
+            return result;
+        } catch (AtomicMoveNotSupportedException ex) {
+            // different file stores
+        }
+        pool.invoke(new CopyTask(source.toPath(), dest.toPath(), true, result));
+        if (result.errors.isEmpty())
+            pool.invoke(new DeleteTask(source.toPath(), true, new Result()));
+        return result;
+    }
+
+    /**
+     * Delete a directory tree, the root and the service data directory are never deleted.
+     *
+     * @param dir The directory
+     * @return The result
+     * @throws IOException
+     */
+    public Result delete(File dir) throws IOException {
+        if (isSubPath(dir, FileSystem.getInstance().getRoot()))
+            throw new IOException("Cannot delete the root directory");
+        Result result = new Result();
+        pool.invoke(new DeleteTask(dir.toPath(), true, result));
+        return result;
+    }
+
+    private boolean isSubPath(File parent, File file) throws IOException {
+        Path parentPath = parent.getCanonicalFile().toPath();
+        Path path = file.getCanonicalFile().toPath();
+        return path.startsWith(parentPath);
+    }
+
+    private static class CopyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path source;
+        private final Path dest;
+        private final boolean directory;
+        private final Result result;
+
+        CopyTask(Path source, Path dest, boolean directory, Result result) {
+            this.source = source;
+            this.dest = dest;
+            this.directory = directory;
+            this.result = result;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if (!directory) {
+                    FileSystem.getInstance().copy(source.toFile(), dest.toFile());
+                    result.files.increment();
+                    result.bytes.add(Files.size(dest));
+                    return;
+                }
+                if (!Files.isDirectory(dest, LinkOption.NOFOLLOW_LINKS))
+                    Files.createDirectory(dest);
+                result.directories.increment();
+                List<CopyTask> tasks = new ArrayList<>();
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(source)) {
+                    for (Path child : stream) {
+                        BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class,
+                                LinkOption.NOFOLLOW_LINKS);
+                        if (attrs.isSymbolicLink() || attrs.isOther() || FileSystem.getInstance().isMetaDir(child.toFile()))
+                            continue;
+                        tasks.add(new CopyTask(child, dest.resolve(child.getFileName()), attrs.isDirectory(), result));
+                    }
+                }
+                invokeAll(tasks);
+            } catch (Exception ex) {
+                result.addError(source, ex);
+            }
+        }
+    }
+
+    private static class DeleteTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path path;
+        private final boolean directory;
+        private final Result result;
+
+        DeleteTask(Path path, boolean directory, Result result) {
+            this.path = path;
+            this.directory = directory;
+            this.result = result;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if (directory) {
+                    List<DeleteTask> tasks = new ArrayList<>();
+                    try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+                        for (Path child : stream) {
+                            if (FileSystem.getInstance().isMetaDir(child.toFile()))
+                                continue;
+                            BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class,
+                                    LinkOption.NOFOLLOW_LINKS);
+                            tasks.add(new DeleteTask(child, attrs.isDirectory(), result));
+                        }
+                    }
+                    invokeAll(tasks);
+                    long start = FileMetrics.getInstance().start();
+                    Files.delete(path);
+                    FileMetrics.getInstance().recordDisk(FileMetrics.DiskOperation.DELETE, start);
+                    result.directories.increment();
+                } else {
+                    long size = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).size();
+                    Checksums.getInstance().remove(path.toFile());
+                    long start = FileMetrics.getInstance().start();
+                    Files.delete(path);
+                    FileMetrics.getInstance().recordDisk(FileMetrics.DiskOperation.DELETE, start);
+                    result.files.increment();
+                    result.bytes.add(size);
+                }
+            } catch (Exception ex) {
+                result.addError(path, ex);
+            }
+        }
+    }
+}
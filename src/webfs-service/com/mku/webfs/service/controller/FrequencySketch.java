@@ -0,0 +1,116 @@
+package com.mku.webfs.service.controller;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Approximate access frequency of cache keys with 4-bit counters (count-min sketch). The counters
+ * are halved periodically so the frequencies reflect recent accesses, which is what TinyLFU
+ * admission needs to compare a new entry with an eviction victim. Reads don't lock and an access is
+ * dropped if another thread is recording one, which only makes the estimate a little lower under load.
+ */
+class FrequencySketch {
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+            0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final long[] table;
+    private final int counterMask;
+    private final int sampleSize;
+    private int size;
+
+    /**
+     * @param maxEntries The max number of entries of the cache
+     */
+    FrequencySketch(int maxEntries) {
+        int length = Integer.highestOneBit(Math.max(maxEntries, 64) - 1) << 1;
+        // 16 counters per long, 4 counters per entry
+        table = new long[Math.max(length / 4, 1)];
+        counterMask = table.length * 16 - 1;
+        sampleSize = 10 * Math.max(maxEntries, 64);
+    }
+
+    /**
+     * Get the estimated frequency of a key.
+     *
+     * @param key The key
+     * @return The frequency, 0 to 15
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = 15;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = indexOf(hash, i);
+            frequency = Math.min(frequency, (int) ((table[index >>> 4] >>> ((index & 15) << 2)) & 15));
+        }
+        return frequency;
+    }
+
+    /**
+     * Record an access of a key.
+     *
+     * @param key The key
+     */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        if (!lock.tryLock())
+            return;
+        try {
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int index = indexOf(hash, i);
+                int slot = index >>> 4;
+                int shift = (index & 15) << 2;
+                if (((table[slot] >>> shift) & 15) != 15) {
+                    table[slot] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++size >= sampleSize)
+                reset();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++)
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        size /= 2;
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & counterMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -0,0 +1,419 @@
+package com.mku.webfs.service.controller;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache of file info and directory listings. Lookups don't lock, each entry keeps the time
+ * it was last used and the victim is the least recently used of a sample of entries (sampled LRU),
+ * a new entry is only admitted if it is accessed more often than the entry it would evict (TinyLFU)
+ * so a scan of many directories does not flush the entries that are used all the time. Entries are
+ * invalidated by the write operations of the service and by a WatchService on the cached directories
+ * for changes made outside of the service.
+ */
+public class MetadataCache {
+    private static final String INFO_PREFIX = "I:";
+    private static final String LIST_PREFIX = "L:";
+    // approximate heap used by a node besides its path
+    private static final int NODE_WEIGHT = 160;
+    // entries compared to find an eviction victim
+    private static final int SAMPLE_SIZE = 8;
+
+    private volatile boolean enabled = true;
+    private volatile int maxEntries = 10000;
+    private volatile long maxBytes = 64 * 1024 * 1024;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile FrequencySketch sketch = new FrequencySketch(maxEntries);
+    private final AtomicLong bytes = new AtomicLong();
+    // incremented on every invalidation, an entry read before an invalidation is not cached
+    private final AtomicLong version = new AtomicLong();
+
+    // only evictions lock, the samples continue where the previous eviction stopped
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private Iterator<Map.Entry<String, Entry>> evictionHand = Collections.emptyIterator();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    private volatile WatchService watchService;
+    private final Map<Path, WatchKey> watchKeys = new ConcurrentHashMap<>();
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private static MetadataCache instance;
+
+    public static synchronized MetadataCache getInstance() {
+        if (instance == null)
+            instance = new MetadataCache();
+        return instance;
+    }
+
+    /**
+     * Notified when a file is invalidated by the service or the watcher.
+     */
+    public interface Listener {
+        void invalidated(File file, boolean recursive);
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long weight;
+        // not volatile, a stale time only makes a sample less accurate
+        private long lastAccess = System.nanoTime();
+
+        private Entry(Object value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Set the limits of the cache, the cache is cleared.
+     *
+     * @param enabled    False to disable caching
+     * @param maxEntries The max number of entries
+     * @param maxBytes   The max estimated heap used by the entries
+     */
+    public synchronized void setLimits(boolean enabled, int maxEntries, long maxBytes) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        sketch = new FrequencySketch(maxEntries);
+        clear();
+    }
+
+    /**
+     * Add a listener for other caches that need to be invalidated with the metadata.
+     *
+     * @param listener The listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Get the info of a file.
+     *
+     * @param file The file
+     * @return The node
+     * @throws IOException
+     */
+    public FileResponse getInfo(File file) throws IOException {
+        String key = INFO_PREFIX + file.getPath();
+        FileResponse response = (FileResponse) get(key);
+        if (response != null)
+            return response;
+        long readVersion = getVersion();
+        response = FileSystem.getInstance().getResponse(file);
+        put(key, response, NODE_WEIGHT + 2L * key.length(), file.getParentFile(), readVersion);
+        return response;
+    }
+
+    /**
+     * Get the listing of a directory.
+     *
+     * @param dir The directory
+     * @return The entries, the list is not modifiable
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    public List<FileResponse> getList(File dir) throws IOException {
+        String key = LIST_PREFIX + dir.getPath();
+        List<FileResponse> list = (List<FileResponse>) get(key);
+        if (list != null)
+            return list;
+        long readVersion = getVersion();
+        list = Collections.unmodifiableList(FileSystem.getInstance().list(dir));
+        long weight = NODE_WEIGHT + 2L * key.length();
+        for (FileResponse response : list)
+            weight += NODE_WEIGHT + 4L * response.getName().length() + 2L * key.length();
+        put(key, list, weight, dir, readVersion);
+        return list;
+    }
+
+    /**
+     * Invalidate the entries of a file that has been created, modified or deleted and the listing of
+     * its parent. If the file is a directory that has been moved or deleted use recursive to also
+     * invalidate the entries under it.
+     *
+     * @param file      The file
+     * @param recursive True to invalidate the entries under the file
+     */
+    public void invalidate(File file, boolean recursive) {
+        version.incrementAndGet();
+        invalidations.increment();
+        for (Listener listener : listeners)
+            listener.invalidated(file, recursive);
+        if (entries.isEmpty())
+            return;
+        String path = file.getPath();
+        remove(INFO_PREFIX + path);
+        remove(LIST_PREFIX + path);
+        File parent = file.getParentFile();
+        if (parent != null) {
+            // the parent was modified too
+            remove(LIST_PREFIX + parent.getPath());
+            remove(INFO_PREFIX + parent.getPath());
+            File grandParent = parent.getParentFile();
+            if (grandParent != null)
+                remove(LIST_PREFIX + grandParent.getPath());
+        }
+        if (recursive) {
+            String prefix = path + File.separator;
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                if (entry.getKey().startsWith(prefix, INFO_PREFIX.length()))
+                    remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public synchronized void clear() {
+        version.incrementAndGet();
+        for (Map.Entry<String, Entry> entry : entries.entrySet())
+            remove(entry.getKey(), entry.getValue());
+        // changes in these directories will no longer be reported
+        for (Map.Entry<Path, WatchKey> watched : watchKeys.entrySet()) {
+            if (!watchKeys.remove(watched.getKey(), watched.getValue()))
+                continue;
+            watchedDirs.remove(watched.getValue());
+            watched.getValue().cancel();
+            for (Listener listener : listeners)
+                listener.invalidated(watched.getKey().toFile(), true);
+        }
+    }
+
+    /**
+     * Get the statistics of the cache.
+     *
+     * @return The statistics
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("entries", entries.size());
+        stats.put("maxEntries", maxEntries);
+        stats.put("bytes", bytes.get());
+        stats.put("maxBytes", maxBytes);
+        stats.put("watchedDirs", watchKeys.size());
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        long requests = hits.sum() + misses.sum();
+        stats.put("hitRatio", requests > 0 ? (double) hits.sum() / requests : 0);
+        stats.put("evictions", evictions.sum());
+        stats.put("rejections", rejections.sum());
+        stats.put("invalidations", invalidations.sum());
+        return stats;
+    }
+
+    private long getVersion() {
+        return version.get();
+    }
+
+    private Object get(String key) {
+        if (!enabled)
+            return null;
+        sketch.increment(key);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        entry.lastAccess = System.nanoTime();
+        hits.increment();
+        return entry.value;
+    }
+
+    private void put(String key, Object value, long weight, File dir, long readVersion) {
+        if (!enabled || readVersion != version.get() || weight > maxBytes)
+            return;
+        // only cache what the watcher can invalidate
+        if (!watch(dir))
+            return;
+        int frequency = sketch.frequency(key);
+        while ((entries.size() >= maxEntries || bytes.get() + weight > maxBytes) && !entries.isEmpty()) {
+            if (!evict(frequency)) {
+                rejections.increment();
+                return;
+            }
+        }
+        Entry entry = new Entry(value, weight);
+        Entry previous = entries.put(key, entry);
+        if (previous != null)
+            bytes.addAndGet(-previous.weight);
+        bytes.addAndGet(weight);
+        // invalidated while it was added, the invalidation might not have seen it
+        if (readVersion != version.get())
+            remove(key, entry);
+    }
+
+    /**
+     * Evict the least recently used entry of a sample if it is not accessed more often than the new entry.
+     *
+     * @param frequency The frequency of the new entry
+     * @return False if the new entry is rejected
+     */
+    private boolean evict(int frequency) {
+        evictionLock.lock();
+        try {
+            Map.Entry<String, Entry> victim = null;
+            for (int i = 0; i < SAMPLE_SIZE; i++) {
+                if (!evictionHand.hasNext()) {
+                    evictionHand = entries.entrySet().iterator();
+                    if (!evictionHand.hasNext())
+                        break;
+                }
+                Map.Entry<String, Entry> candidate = evictionHand.next();
+                if (victim == null || candidate.getValue().lastAccess - victim.getValue().lastAccess < 0)
+                    victim = candidate;
+            }
+            if (victim == null)
+                return true;
+            if (sketch.frequency(victim.getKey()) > frequency)
+                return false;
+            if (remove(victim.getKey(), victim.getValue()))
+                evictions.increment();
+            return true;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null)
+            bytes.addAndGet(-entry.weight);
+    }
+
+    private boolean remove(String key, Entry entry) {
+        if (!entries.remove(key, entry))
+            return false;
+        bytes.addAndGet(-entry.weight);
+        return true;
+    }
+
+    /**
+     * Watch a directory for changes made outside of the service, the changes are sent to the listeners
+     * until the cache is cleared. Directories that are already watched are found without locking.
+     *
+     * @param dir The directory
+     * @return False if the directory can't be watched
+     */
+    public boolean watch(File dir) {
+        if (dir == null)
+            return false;
+        Path path = dir.toPath();
+        if (watchKeys.containsKey(path))
+            return true;
+        try {
+            WatchService service = getWatchService();
+            // every cached entry keeps its directory watched, start over if there are too many
+            if (watchKeys.size() >= maxEntries)
+                clear();
+            // registering a directory again returns the same key
+            WatchKey key = path.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watchedDirs.put(key, path);
+            watchKeys.putIfAbsent(path, key);
+            if (!key.isValid()) {
+                // canceled by a clear while it was registered
+                watchKeys.remove(path, key);
+                watchedDirs.remove(key);
+                return false;
+            }
+            return true;
+        } catch (IOException ex) {
+            // out of watches or the directory was removed
+            return false;
+        }
+    }
+
+    private WatchService getWatchService() throws IOException {
+        WatchService service = watchService;
+        if (service != null)
+            return service;
+        synchronized (this) {
+            if (watchService == null) {
+                watchService = FileSystems.getDefault().newWatchService();
+                Thread thread = new Thread(this::processEvents, "webfs-cache-watcher");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            return watchService;
+        }
+    }
+
+    private void processEvents() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                return;
+            }
+            Path dir = watchedDirs.get(key);
+            if (dir == null)
+                continue;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    invalidate(dir.toFile(), true);
+                    continue;
+                }
+                Path child = dir.resolve((Path) event.context());
+                invalidate(child.toFile(), watchKeys.containsKey(child));
+            }
+            if (!key.reset()) {
+                // the directory is gone
+                watchKeys.remove(dir, key);
+                watchedDirs.remove(key);
+                invalidate(dir.toFile(), true);
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.mku.webfs.service.controller;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves request paths to files under the root without canonicalizing the whole path for every
+ * request. Paths are normalized with java.nio.file.Path and checked against the root by component, the
+ * real root is resolved once and the directories whose real path has been verified to be under the
+ * root are cached so only the last segment needs to be checked for links.
+ */
+public class PathResolver {
+    private static final int MAX_DIRS = 4096;
+    // directories changed outside of the service and not watched are verified again after this
+    private static final long DIR_TTL_NANOS = 10_000_000_000L;
+
+    private volatile Path root;
+    private volatile Path realRoot;
+    private volatile String metaDirName;
+    private final ConcurrentHashMap<Path, Long> verifiedDirs = new ConcurrentHashMap<>();
+
+    private static PathResolver instance;
+
+    public static synchronized PathResolver getInstance() {
+        if (instance == null) {
+            instance = new PathResolver();
+            MetadataCache.getInstance().addListener(instance::invalidate);
+        }
+        return instance;
+    }
+
+    /**
+     * Set the root, files outside of the root are never resolved.
+     *
+     * @param root        The root directory
+     * @param metaDirName The name of the reserved directory under the root
+     */
+    public synchronized void setRoot(File root, String metaDirName) {
+        this.root = root.toPath().toAbsolutePath().normalize();
+        this.realRoot = null;
+        this.metaDirName = metaDirName;
+        verifiedDirs.clear();
+    }
+
+    /**
+     * Resolve a path relative to the root, segments are separated with '/'.
+     *
+     * @param path The path, it should already be validated with FileSystem.validateFilePath
+     * @return The file
+     */
+    public File resolve(String path) {
+        Path file = root;
+        int start = 0;
+        int length = path.length();
+        while (start <= length) {
+            int end = path.indexOf('/', start);
+            if (end < 0)
+                end = length;
+            if (end > start && !(end - start == 1 && path.charAt(start) == '.')) {
+                String part = path.substring(start, end);
+                if (part.equals(".."))
+                    throw new RuntimeException("Backwards traversing (..) is not supported");
+                if (file == root && part.equals(metaDirName))
+                    throw new RuntimeException("Path is reserved");
+                file = file.resolve(part);
+            }
+            start = end + 1;
+        }
+        verify(file);
+        return file.toFile();
+    }
+
+    /**
+     * Get the path of a file relative to the root, segments are separated with '/'.
+     *
+     * @param file The file under the root
+     * @return The path starting with '/', empty for the root
+     */
+    public String getRelativePath(File file) {
+        Path path = root.relativize(file.toPath().toAbsolutePath().normalize());
+        StringBuilder sb = new StringBuilder();
+        for (Path part : path) {
+            if (part.toString().length() > 0)
+                sb.append('/').append(part);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Check that a file is under the root and it is not reserved, links are followed.
+     *
+     * @param file The file
+     */
+    public void verify(Path file) {
+        Path path = file.toAbsolutePath().normalize();
+        if (!path.startsWith(root))
+            throw new RuntimeException("Could not validate file path");
+        if (path.equals(root))
+            return;
+        if (path.getName(root.getNameCount()).toString().equals(metaDirName))
+            throw new RuntimeException("Path is reserved");
+        verifyDir(path.getParent());
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException ex) {
+            return;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        if (attrs.isSymbolicLink())
+            verifyRealPath(path);
+    }
+
+    /**
+     * Forget the verified directories at or under a file that has been moved or deleted.
+     *
+     * @param file      The file
+     * @param recursive True to also forget the directories under the file
+     */
+    public void invalidate(File file, boolean recursive) {
+        Path path = file.toPath().toAbsolutePath().normalize();
+        verifiedDirs.remove(path);
+        if (recursive)
+            verifiedDirs.keySet().removeIf(dir -> dir.startsWith(path));
+    }
+
+    private void verifyDir(Path dir) {
+        if (dir.equals(root))
+            return;
+        Long verified = verifiedDirs.get(dir);
+        if (verified != null && System.nanoTime() - verified < DIR_TTL_NANOS)
+            return;
+        try {
+            verifyRealPath(dir);
+        } catch (RuntimeException ex) {
+            if (!(ex.getCause() instanceof NoSuchFileException))
+                throw ex;
+            // not created yet, its existing ancestors must be under the root
+            verifyDir(dir.getParent());
+            return;
+        }
+        if (verifiedDirs.size() >= MAX_DIRS)
+            verifiedDirs.clear();
+        verifiedDirs.put(dir, System.nanoTime());
+    }
+
+    private void verifyRealPath(Path path) {
+        Path realPath;
+        try {
+            realPath = path.toRealPath();
+        } catch (IOException ex) {
+            // also a link to a file that does not exist, writing to it would create a file outside the root
+            throw new RuntimeException(ex);
+        }
+        if (!realPath.startsWith(getRealRoot()))
+            throw new RuntimeException("Could not validate file path");
+    }
+
+    private Path getRealRoot() {
+        Path path = realRoot;
+        if (path == null) {
+            synchronized (this) {
+                try {
+                    realRoot = path = root.toRealPath();
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        }
+        return path;
+    }
+}
@@ -0,0 +1,78 @@
+package com.mku.webfs.service.controller;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+/**
+ * The weak rolling checksum of rsync. For a block x[0..L-1] of unsigned bytes
+ * s1 = sum(x[i]) and s2 = sum((L - i) * x[i]), both modulo 2^16, and the checksum is s1 | s2 << 16.
+ * The window can be moved by one byte in constant time so a client can look for the blocks of a
+ * signature at every offset of its file.
+ */
+public class RollingChecksum {
+    private int s1;
+    private int s2;
+    private int length;
+
+    /**
+     * Compute the checksum of a block, the window is the block.
+     *
+     * @param buffer The data
+     * @param offset The offset of the block
+     * @param length The length of the block
+     */
+    public void update(byte[] buffer, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            s1 += buffer[i] & 0xff;
+            s2 += s1;
+        }
+        this.length += length;
+    }
+
+    /**
+     * Move the window one byte forward.
+     *
+     * @param out The byte leaving the window
+     * @param in  The byte entering the window
+     */
+    public void roll(byte out, byte in) {
+        s1 += (in & 0xff) - (out & 0xff);
+        s2 += s1 - length * (out & 0xff);
+    }
+
+    public int getValue() {
+        return (s1 & 0xffff) | (s2 << 16);
+    }
+
+    public void reset() {
+        s1 = 0;
+        s2 = 0;
+        length = 0;
+    }
+
+    public static int of(byte[] buffer, int offset, int length) {
+        RollingChecksum checksum = new RollingChecksum();
+        checksum.update(buffer, offset, length);
+        return checksum.getValue();
+    }
+}
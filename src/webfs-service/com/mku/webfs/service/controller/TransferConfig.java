@@ -0,0 +1,73 @@
+package com.mku.webfs.service.controller;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+import javax.annotation.PostConstruct;
+import java.util.Set;
+
+/**
+ * Transfer mode and compression configuration
+ */
+@Configuration
+public class TransferConfig {
+    @Value("${app.transfer.mode:BLOCKING}")
+    private FileTransfer.Mode mode;
+
+    @Value("${app.transfer.async-timeout:0}")
+    private long asyncTimeout;
+
+    @Value("${app.compression.enabled:true}")
+    private boolean compressionEnabled;
+
+    @Value("${app.compression.gzip-level:6}")
+    private int gzipLevel;
+
+    @Value("${app.compression.zstd-level:3}")
+    private int zstdLevel;
+
+    @Value("${app.compression.min-length:1024}")
+    private long compressionMinLength;
+
+    // empty for the default list of compressed formats
+    @Value("${app.compression.skip-extensions:}")
+    private Set<String> skipExtensions;
+
+    private final ObjectMapper objectMapper;
+
+    public TransferConfig(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @PostConstruct
+    public void init() {
+        FileTransfer.getInstance().setMode(mode);
+        AsyncFileTransfer.getInstance().configure(objectMapper, asyncTimeout * 1000);
+        Compression.getInstance().configure(compressionEnabled, gzipLevel, zstdLevel, compressionMinLength,
+                skipExtensions.isEmpty() ? null : skipExtensions);
+    }
+}
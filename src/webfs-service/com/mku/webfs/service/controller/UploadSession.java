@@ -0,0 +1,210 @@
+package com.mku.webfs.service.controller;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * A resumable upload of a single file. Chunks are written in place into a data file under the
+ * service directory and the byte ranges received are kept as a set of merged intervals. The state
+ * is persisted after each chunk is synced to disk so a restart never reports data that is not there.
+ */
+public class UploadSession {
+    private static final String PATH = "path";
+    private static final String LENGTH = "length";
+    private static final String USER = "user";
+    private static final String RANGES = "ranges";
+
+    private final String id;
+    private final String path;
+    private final long length;
+    private final String user;
+    private final File dataFile;
+    private final File stateFile;
+
+    /**
+     * Received ranges, start to exclusive end, never overlapping or adjacent.
+     */
+    private final TreeMap<Long, Long> ranges = new TreeMap<>();
+
+    UploadSession(String id, String path, long length, String user, File dir) {
+        this.id = id;
+        this.path = path;
+        this.length = length;
+        this.user = user;
+        this.dataFile = new File(dir, id + ".data");
+        this.stateFile = new File(dir, id + ".state");
+    }
+
+    /**
+     * Load a session from its state file.
+     *
+     * @param id  The session id
+     * @param dir The sessions directory
+     * @return The session or null if it does not exist
+     * @throws IOException
+     */
+    static UploadSession load(String id, File dir) throws IOException {
+        File stateFile = new File(dir, id + ".state");
+        if (!stateFile.exists())
+            return null;
+        Properties properties = new Properties();
+        try (InputStream stream = new FileInputStream(stateFile)) {
+            properties.load(stream);
+        }
+        UploadSession session = new UploadSession(id, properties.getProperty(PATH),
+                Long.parseLong(properties.getProperty(LENGTH)), properties.getProperty(USER), dir);
+        String value = properties.getProperty(RANGES, "");
+        for (String range : value.split(",")) {
+            if (range.length() == 0)
+                continue;
+            String[] parts = range.split("-");
+            session.ranges.put(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+        }
+        return session;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    File getDataFile() {
+        return dataFile;
+    }
+
+    File getStateFile() {
+        return stateFile;
+    }
+
+    /**
+     * Get the received ranges.
+     *
+     * @return The ranges as start and exclusive end pairs
+     */
+    public synchronized List<long[]> getRanges() {
+        List<long[]> list = new ArrayList<>();
+        for (Map.Entry<Long, Long> entry : ranges.entrySet())
+            list.add(new long[]{entry.getKey(), entry.getValue()});
+        return list;
+    }
+
+    /**
+     * Get the number of bytes received.
+     *
+     * @return The bytes received
+     */
+    public synchronized long getReceived() {
+        long received = 0;
+        for (Map.Entry<Long, Long> entry : ranges.entrySet())
+            received += entry.getValue() - entry.getKey();
+        return received;
+    }
+
+    /**
+     * Check if all the bytes have been received.
+     *
+     * @return True if complete
+     */
+    public synchronized boolean isComplete() {
+        if (length == 0)
+            return true;
+        Long end = ranges.get(0L);
+        return end != null && end == length;
+    }
+
+    /**
+     * Mark a range as received and persist the state.
+     *
+     * @param start The start of the range
+     * @param end   The exclusive end of the range
+     * @throws IOException
+     */
+    synchronized void addRange(long start, long end) throws IOException {
+        if (start >= end)
+            return;
+        Map.Entry<Long, Long> floor = ranges.floorEntry(start);
+        if (floor != null && floor.getValue() >= start) {
+            start = floor.getKey();
+            end = Math.max(end, floor.getValue());
+        }
+        Map.Entry<Long, Long> next;
+        while ((next = ranges.ceilingEntry(start)) != null && next.getKey() <= end) {
+            end = Math.max(end, next.getValue());
+            ranges.remove(next.getKey());
+        }
+        ranges.put(start, end);
+        save();
+    }
+
+    /**
+     * Persist the state, the state file is replaced atomically.
+     *
+     * @throws IOException
+     */
+    synchronized void save() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(PATH, path);
+        properties.setProperty(LENGTH, String.valueOf(length));
+        if (user != null)
+            properties.setProperty(USER, user);
+        StringBuilder value = new StringBuilder();
+        for (Map.Entry<Long, Long> entry : ranges.entrySet()) {
+            if (value.length() > 0)
+                value.append(",");
+            value.append(entry.getKey()).append("-").append(entry.getValue());
+        }
+        properties.setProperty(RANGES, value.toString());
+
+        File tmpFile = new File(stateFile.getParentFile(), id + ".state.tmp");
+        try (FileOutputStream stream = new FileOutputStream(tmpFile)) {
+            properties.store(stream, null);
+            stream.getFD().sync();
+        }
+        Files.move(tmpFile.toPath(), stateFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+}
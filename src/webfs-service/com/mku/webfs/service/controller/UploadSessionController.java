@@ -0,0 +1,146 @@
+package com.mku.webfs.service.controller;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.qos.QosInterceptor;
+import com.mku.webfs.service.security.Security;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+@RestController
+@CrossOrigin(origins = "${app.cors.allowed-origins}")
+@RequestMapping("/api/session")
+/**
+ * Provides endpoints for resumable uploads. A session is created for the target file, the chunks
+ * are uploaded in any order and over as many connections as needed, and the session is committed
+ * once all the bytes have been received.
+ */
+public class UploadSessionController {
+
+    /**
+     * Create an upload session<br>
+     * example:
+     * curl -X POST "http://localhost:8080/api/session/create?path=/dir/file.dat&length=1048576"
+     *
+     * @param path   The path to the file
+     * @param length The total length of the file
+     * @return
+     * @throws IOException
+     */
+    @PostMapping("/create")
+    public UploadSessionResponse create(HttpServletRequest request, String path, long length) throws IOException {
+        Security.checkWrite(request);
+		path = FileSystem.getInstance().validateFilePath(path);
+        File file = FileSystem.getInstance().getFile(path);
+        UploadSession session = UploadSessions.getInstance().create(file, length, request.getRemoteUser());
+        return new UploadSessionResponse(session);
+    }
+
+    /**
+     * Get the ranges received for an upload session<br>
+     * example:
+     * curl -X GET "http://localhost:8080/api/session/info?id=0123456789abcdef0123456789abcdef"
+     *
+     * @param id The session id
+     * @return
+     * @throws IOException
+     */
+    @GetMapping("/info")
+    public UploadSessionResponse info(HttpServletRequest request, String id) throws IOException {
+        Security.checkWrite(request);
+        UploadSession session = UploadSessions.getInstance().get(id, request.getRemoteUser());
+        return new UploadSessionResponse(session);
+    }
+
+    /**
+     * Upload a chunk of an upload session with the raw request body, chunks can be uploaded concurrently<br>
+     * example:
+     * curl -T "D:/tmp/testdata/chunk.dat" "http://localhost:8080/api/session/upload?id=0123456789abcdef0123456789abcdef&position=0"
+     *
+     * @param id       The session id
+     * @param position The byte position of the chunk
+     * @return
+     * @throws IOException
+     */
+    @RequestMapping(path = "/upload", method = {RequestMethod.PUT, RequestMethod.POST},
+            consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public UploadSessionResponse upload(HttpServletRequest request, HttpServletResponse response, String id, long position) throws IOException {
+        Security.checkWrite(request);
+        UploadSession session = UploadSessions.getInstance().get(id, request.getRemoteUser());
+        if (request.getContentLengthLong() > session.getLength() - position)
+            throw new IOException("Chunk exceeds the file length");
+        if (FileTransfer.getInstance().isAsync(request)) {
+            FileChannel channel = UploadSessions.getInstance().open(session, position);
+            AsyncFileTransfer.getInstance().receive(session.getDataFile(), channel, position, session.getLength() - position,
+                    request, response, bytesWritten -> {
+                        UploadSessions.getInstance().sync(session, channel, position, bytesWritten);
+                        return ResponseEntity.ok(new UploadSessionResponse(session));
+                    });
+            return null;
+        }
+        UploadSessions.getInstance().write(session, QosInterceptor.throttle(request, request.getInputStream()), position);
+        return new UploadSessionResponse(session);
+    }
+
+    /**
+     * Commit an upload session, the file is moved atomically to its path<br>
+     * example:
+     * curl -X POST "http://localhost:8080/api/session/commit?id=0123456789abcdef0123456789abcdef"
+     *
+     * @param id The session id
+     * @return
+     * @throws IOException
+     */
+    @PostMapping("/commit")
+    public FileResponse commit(HttpServletRequest request, String id) throws IOException {
+        Security.checkWrite(request);
+        UploadSession session = UploadSessions.getInstance().get(id, request.getRemoteUser());
+        File file = UploadSessions.getInstance().commit(session);
+        return new FileResponse(file);
+    }
+
+    /**
+     * Abort an upload session<br>
+     * example:
+     * curl -X DELETE "http://localhost:8080/api/session/delete?id=0123456789abcdef0123456789abcdef"
+     *
+     * @param id The session id
+     * @return
+     * @throws IOException
+     */
+    @DeleteMapping("/delete")
+    public UploadSessionResponse delete(HttpServletRequest request, String id) throws IOException {
+        Security.checkWrite(request);
+        UploadSession session = UploadSessions.getInstance().get(id, request.getRemoteUser());
+        UploadSessions.getInstance().delete(session);
+        return new UploadSessionResponse(session);
+    }
+}
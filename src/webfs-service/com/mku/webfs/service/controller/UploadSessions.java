@@ -0,0 +1,262 @@
+package com.mku.webfs.service.controller;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.metrics.FileMetrics;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Manages the resumable upload sessions. Chunks of a session can be written concurrently, each
+ * chunk is written in place with positioned writes and the completed file is moved atomically
+ * to its final path.
+ */
+public class UploadSessions {
+    private static final String UPLOADS_DIR_NAME = "uploads";
+    private static final Pattern idPattern = Pattern.compile("^[0-9a-f]{32}$");
+
+    /**
+     * Sessions that have not been touched for this long are removed.
+     */
+    private static final long SESSION_TIMEOUT = 24 * 60 * 60 * 1000L;
+
+    private final ConcurrentHashMap<String, UploadSession> sessions = new ConcurrentHashMap<>();
+
+    private static UploadSessions instance;
+
+    public static UploadSessions getInstance() {
+        if (instance == null)
+            instance = new UploadSessions();
+        return instance;
+    }
+
+    /**
+     * Create a new session.
+     *
+     * @param rFile  The target file
+     * @param length The total length of the file
+     * @param user   The user that owns the session
+     * @return The session
+     * @throws IOException
+     */
+    public UploadSession create(File rFile, long length, String user) throws IOException {
+        if (length < 0)
+            throw new IOException("Invalid length");
+        File parent = rFile.getParentFile();
+        if (parent == null || !parent.exists() || !parent.isDirectory())
+            throw new IOException("Parent does not exist");
+        removeExpired();
+        File dir = getDir();
+        String id = UUID.randomUUID().toString().replace("-", "");
+        String path = FileSystem.getInstance().getRelativePath(rFile);
+        UploadSession session = new UploadSession(id, path, length, user, dir);
+        try (RandomAccessFile raf = new RandomAccessFile(session.getDataFile(), "rw")) {
+            raf.setLength(length);
+        }
+        session.save();
+        sessions.put(id, session);
+        return session;
+    }
+
+    /**
+     * Get a session, sessions are loaded from disk if the service was restarted.
+     *
+     * @param id   The session id
+     * @param user The user requesting the session
+     * @return The session
+     * @throws IOException
+     */
+    public UploadSession get(String id, String user) throws IOException {
+        if (id == null || !idPattern.matcher(id).matches())
+            throw new IOException("Invalid session id");
+        UploadSession session = sessions.get(id);
+        if (session == null) {
+            session = UploadSession.load(id, getDir());
+            if (session == null)
+                throw new IOException("Session does not exist");
+            UploadSession existing = sessions.putIfAbsent(id, session);
+            if (existing != null)
+                session = existing;
+        }
+        if (session.getUser() != null && !session.getUser().equals(user))
+            throw new SecurityException("Session belongs to another user");
+        return session;
+    }
+
+    /**
+     * Write a chunk of a session. The range is recorded only after the data is synced to disk.
+     * A chunk that doesn't fit in the file fails before the bytes past the end are written, the
+     * request may have no Content-Length.
+     *
+     * @param session     The session
+     * @param inputStream The chunk data
+     * @param position    The byte position of the chunk
+     * @return The bytes written
+     * @throws IOException
+     */
+    public long write(UploadSession session, InputStream inputStream, long position) throws IOException {
+        long bytesWritten;
+        FileMetrics.getInstance().transferStarted(FileMetrics.Direction.UPLOAD);
+        try (FileChannel channel = open(session, position)) {
+            bytesWritten = FileSystem.getInstance().write(channel, limit(inputStream, session.getLength() - position), position);
+            sync(session, channel, position, bytesWritten);
+        } finally {
+            FileMetrics.getInstance().transferEnded(FileMetrics.Direction.UPLOAD);
+            inputStream.close();
+        }
+        return bytesWritten;
+    }
+
+    /**
+     * Limit a stream to the bytes that fit in the file, reading past the limit fails.
+     */
+    private static InputStream limit(InputStream inputStream, long maxLength) {
+        return new FilterInputStream(inputStream) {
+            private long remaining = maxLength;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) > 0 ? b[0] & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining == 0) {
+                    if (super.read() >= 0)
+                        throw new IOException("Chunk exceeds the file length");
+                    return -1;
+                }
+                int bytesRead = super.read(b, off, (int) Math.min(len, remaining));
+                if (bytesRead > 0)
+                    remaining -= bytesRead;
+                return bytesRead;
+            }
+        };
+    }
+
+    /**
+     * Open the data file of a session to write a chunk.
+     *
+     * @param session  The session
+     * @param position The byte position of the chunk
+     * @return The channel
+     * @throws IOException
+     */
+    public FileChannel open(UploadSession session, long position) throws IOException {
+        if (position < 0 || position > session.getLength())
+            throw new IOException("Invalid position");
+        return FileSystem.getInstance().openForWrite(session.getDataFile(), false);
+    }
+
+    /**
+     * Sync a written chunk to disk and record its range.
+     *
+     * @param session      The session
+     * @param channel      The channel of the data file
+     * @param position     The byte position of the chunk
+     * @param bytesWritten The bytes written
+     * @throws IOException
+     */
+    public void sync(UploadSession session, FileChannel channel, long position, long bytesWritten) throws IOException {
+        long start = FileMetrics.getInstance().start();
+        channel.force(false);
+        FileMetrics.getInstance().recordDisk(FileMetrics.DiskOperation.SYNC, start);
+        session.addRange(position, position + bytesWritten);
+    }
+
+    /**
+     * Complete a session, the data file replaces the target file atomically.
+     *
+     * @param session The session
+     * @return The target file
+     * @throws IOException
+     */
+    public File commit(UploadSession session) throws IOException {
+        synchronized (session) {
+            if (!session.isComplete())
+                throw new IOException("Upload is not complete");
+            File rFile = FileSystem.getInstance().getFile(session.getPath());
+            File parent = rFile.getParentFile();
+            if (parent == null || !parent.exists() || !parent.isDirectory())
+                throw new IOException("Parent does not exist");
+            Checksums.getInstance().remove(rFile);
+            Files.move(session.getDataFile().toPath(), rFile.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            if (BlobStore.getInstance().isEnabled())
+                BlobStore.getInstance().add(rFile);
+            MetadataCache.getInstance().invalidate(rFile, false);
+            remove(session);
+            return rFile;
+        }
+    }
+
+    /**
+     * Abort a session and delete its data.
+     *
+     * @param session The session
+     */
+    public void delete(UploadSession session) {
+        synchronized (session) {
+            session.getDataFile().delete();
+            remove(session);
+        }
+    }
+
+    private void remove(UploadSession session) {
+        session.getStateFile().delete();
+        sessions.remove(session.getId());
+    }
+
+    private void removeExpired() throws IOException {
+        File[] files = getDir().listFiles();
+        if (files == null)
+            return;
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            if (file.getName().endsWith(".state") && now - file.lastModified() > SESSION_TIMEOUT) {
+                String id = file.getName().substring(0, file.getName().length() - ".state".length());
+                sessions.remove(id);
+                new File(file.getParentFile(), id + ".data").delete();
+                file.delete();
+            }
+        }
+    }
+
+    private File getDir() throws IOException {
+        File dir = new File(FileSystem.getInstance().getMetaDir(), UPLOADS_DIR_NAME);
+        if (!dir.exists() && !dir.mkdirs())
+            throw new IOException("Could not create the uploads directory");
+        return dir;
+    }
+}
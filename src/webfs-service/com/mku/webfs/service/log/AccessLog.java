@@ -0,0 +1,228 @@
+package com.mku.webfs.service.log;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Access log of the requests. Request threads add the records to a lock-free ring buffer and a background
+ * thread writes them in batches as JSON lines, so logging does not contend on a shared stream.
+ */
+public class AccessLog {
+    /**
+     * Request attribute with the bytes sent for responses written by the service
+     */
+    public static final String BYTES_OUT_ATTRIBUTE = AccessLog.class.getName() + ".bytesOut";
+
+    private static final int BATCH_SIZE = 512;
+    private static final long IDLE_NANOS = 1_000_000;
+    private static final long BLOCK_NANOS = 50_000;
+
+    /**
+     * OFF: nothing is logged, ERROR: only failed requests, INFO: all requests, DEBUG: with the query string
+     */
+    public enum Level {
+        OFF, ERROR, INFO, DEBUG
+    }
+
+    /**
+     * What to do with a record when the buffer is full. DROP: discard it, BLOCK: wait for the writer.
+     */
+    public enum Overflow {
+        DROP, BLOCK
+    }
+
+    private volatile Level level = Level.INFO;
+    private volatile Overflow overflow = Overflow.DROP;
+    private volatile Worker worker;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+
+    private static AccessLog instance;
+
+    public static synchronized AccessLog getInstance() {
+        if (instance == null)
+            instance = new AccessLog();
+        return instance;
+    }
+
+    /**
+     * Configure the log, the records buffered so far are written before the new writer starts.
+     *
+     * @param level      The level
+     * @param overflow   The overflow policy
+     * @param bufferSize The max number of buffered records
+     * @param file       The file to append to, null or empty for the standard output
+     * @throws IOException
+     */
+    public synchronized void configure(Level level, Overflow overflow, int bufferSize, String file) throws IOException {
+        Worker previous = worker;
+        this.level = level;
+        this.overflow = overflow;
+        worker = null;
+        if (level != Level.OFF) {
+            boolean toFile = file != null && !file.isEmpty();
+            Writer writer = toFile
+                    ? new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)
+                    : new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8);
+            worker = new Worker(new RingBuffer<>(bufferSize), writer, toFile);
+        }
+        if (previous != null)
+            previous.stop();
+        if (worker != null)
+            worker.start();
+    }
+
+    /**
+     * Stop the writer after the buffered records are written.
+     */
+    public synchronized void close() {
+        if (worker != null)
+            worker.stop();
+        worker = null;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Check if a request with a status is logged.
+     *
+     * @param status The HTTP status
+     * @return True if it is logged
+     */
+    public boolean isEnabled(int status) {
+        Level level = this.level;
+        return worker != null && level != Level.OFF && (level != Level.ERROR || status >= 400);
+    }
+
+    public boolean isDebug() {
+        return level == Level.DEBUG;
+    }
+
+    /**
+     * Add a record, it does not take locks. If the buffer is full the record is dropped or the
+     * call waits depending on the overflow policy.
+     *
+     * @param record The record
+     */
+    public void log(AccessRecord record) {
+        Worker worker = this.worker;
+        if (worker == null)
+            return;
+        while (!worker.buffer.offer(record)) {
+            if (overflow == Overflow.DROP || !worker.running) {
+                dropped.increment();
+                return;
+            }
+            LockSupport.parkNanos(BLOCK_NANOS);
+        }
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    private class Worker implements Runnable {
+        private final RingBuffer<AccessRecord> buffer;
+        private final Writer writer;
+        private final boolean closeWriter;
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        private Worker(RingBuffer<AccessRecord> buffer, Writer writer, boolean closeWriter) {
+            this.buffer = buffer;
+            this.writer = writer;
+            this.closeWriter = closeWriter;
+            this.thread = new Thread(this, "webfs-access-log");
+            this.thread.setDaemon(true);
+        }
+
+        private void start() {
+            thread.start();
+        }
+
+        private void stop() {
+            running = false;
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            StringBuilder sb = new StringBuilder(64 * 1024);
+            while (true) {
+                // read the flag before draining so the records added before stop are written
+                boolean stopping = !running;
+                int count = 0;
+                AccessRecord record;
+                while (count < BATCH_SIZE && (record = buffer.poll()) != null) {
+                    record.appendTo(sb);
+                    count++;
+                }
+                if (count > 0) {
+                    write(sb);
+                    written.add(count);
+                    sb.setLength(0);
+                } else if (stopping) {
+                    break;
+                } else {
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+            }
+            try {
+                if (closeWriter)
+                    writer.close();
+                else
+                    writer.flush();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void write(StringBuilder sb) {
+            try {
+                writer.append(sb);
+                writer.flush();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+}
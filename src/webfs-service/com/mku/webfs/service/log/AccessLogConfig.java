@@ -0,0 +1,66 @@
+package com.mku.webfs.service.log;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+
+/**
+ * Access log configuration
+ */
+@Configuration
+public class AccessLogConfig implements WebMvcConfigurer {
+    @Value("${app.log.access.level:INFO}")
+    private AccessLog.Level level;
+
+    @Value("${app.log.access.overflow:DROP}")
+    private AccessLog.Overflow overflow;
+
+    @Value("${app.log.access.buffer-size:8192}")
+    private int bufferSize;
+
+    @Value("${app.log.access.file:}")
+    private String file;
+
+    @PostConstruct
+    public void init() throws IOException {
+        AccessLog.getInstance().configure(level, overflow, bufferSize, file);
+    }
+
+    @PreDestroy
+    public void close() {
+        AccessLog.getInstance().close();
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new AccessLogInterceptor()).addPathPatterns("/api/**");
+    }
+}
@@ -0,0 +1,114 @@
+package com.mku.webfs.service.log;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Locale;
+
+/**
+ * Creates an access log record for every API request after it completes.
+ */
+public class AccessLogInterceptor implements HandlerInterceptor {
+    private static final String START_ATTRIBUTE = AccessLogInterceptor.class.getName() + ".start";
+    private static final String API_PREFIX = "/api/";
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (ex == null && request.isAsyncStarted()) {
+            // the transfer continues with non-blocking I/O, log it when it ends, the user is
+            // not available after the security filters return
+            String user = request.getRemoteUser();
+            request.getAsyncContext().addListener(new AsyncListener() {
+                @Override
+                public void onComplete(AsyncEvent event) {
+                    log(request, response, null, user);
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                }
+            });
+            return;
+        }
+        log(request, response, ex, request.getRemoteUser());
+    }
+
+    private void log(HttpServletRequest request, HttpServletResponse response, Exception ex, String user) {
+        int status = response.getStatus();
+        if (ex != null && status < 400)
+            status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+        AccessLog accessLog = AccessLog.getInstance();
+        if (!accessLog.isEnabled(status))
+            return;
+        Object start = request.getAttribute(START_ATTRIBUTE);
+        long latency = start != null ? System.nanoTime() - (Long) start : 0;
+        String path = request.getParameter("path");
+        if (path == null)
+            path = request.getParameter("id");
+        accessLog.log(new AccessRecord(System.currentTimeMillis(), getOperation(request), path,
+                user, status, Math.max(request.getContentLengthLong(), 0),
+                getBytesOut(request, response), latency, accessLog.isDebug() ? request.getQueryString() : null));
+    }
+
+    // ie: /api/session/upload is SESSION UPLOAD
+    private static String getOperation(HttpServletRequest request) {
+        String path = request.getServletPath();
+        if (path.startsWith(API_PREFIX))
+            path = path.substring(API_PREFIX.length());
+        return path.replace('/', ' ').toUpperCase(Locale.ROOT);
+    }
+
+    private static long getBytesOut(HttpServletRequest request, HttpServletResponse response) {
+        Object bytesOut = request.getAttribute(AccessLog.BYTES_OUT_ATTRIBUTE);
+        if (bytesOut != null)
+            return (Long) bytesOut;
+        String contentLength = response.getHeader("Content-Length");
+        if (contentLength == null)
+            return 0;
+        try {
+            return Long.parseLong(contentLength);
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+}
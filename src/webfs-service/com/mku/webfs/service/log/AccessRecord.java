@@ -0,0 +1,126 @@
+package com.mku.webfs.service.log;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+/**
+ * An access log record, it is created on the request thread and formatted by the writer.
+ */
+public class AccessRecord {
+    private final long time;
+    private final String operation;
+    private final String path;
+    private final String user;
+    private final int status;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final long latencyNanos;
+    private final String query;
+
+    public AccessRecord(long time, String operation, String path, String user, int status,
+                        long bytesIn, long bytesOut, long latencyNanos, String query) {
+        this.time = time;
+        this.operation = operation;
+        this.path = path;
+        this.user = user;
+        this.status = status;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.latencyNanos = latencyNanos;
+        this.query = query;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * Append the record as a JSON line.
+     *
+     * @param sb The builder
+     */
+    void appendTo(StringBuilder sb) {
+        sb.append("{\"time\":").append(time);
+        appendString(sb, "op", operation);
+        appendString(sb, "path", path);
+        appendString(sb, "user", user);
+        sb.append(",\"status\":").append(status);
+        sb.append(",\"bytesIn\":").append(bytesIn);
+        sb.append(",\"bytesOut\":").append(bytesOut);
+        sb.append(",\"latencyUs\":").append(latencyNanos / 1000);
+        if (query != null)
+            appendString(sb, "query", query);
+        sb.append("}\n");
+    }
+
+    private static void appendString(StringBuilder sb, String name, String value) {
+        sb.append(",\"").append(name).append("\":");
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < 0x20)
+                sb.append(String.format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        sb.append('"');
+    }
+}
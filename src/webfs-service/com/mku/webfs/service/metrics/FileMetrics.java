@@ -0,0 +1,190 @@
+package com.mku.webfs.service.metrics;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Metrics of the file operations, registered in the global registry that Spring Boot binds to the
+ * actuator registries (ie: /actuator/prometheus). The request latency per endpoint is recorded by
+ * Spring Boot as http.server.requests.
+ */
+public class FileMetrics {
+    /**
+     * The disk operations timed separately in webfs.disk.io
+     */
+    public enum DiskOperation {
+        WRITE, SYNC, COPY, LIST, STAT, DELETE, CHECKSUM, READ
+    }
+
+    /**
+     * The direction of a transfer
+     */
+    public enum Direction {
+        UPLOAD, DOWNLOAD
+    }
+
+    private final MeterRegistry registry;
+    private final Map<DiskOperation, Timer> diskTimers = new EnumMap<>(DiskOperation.class);
+    private final Map<Direction, AtomicInteger> activeTransfers = new EnumMap<>(Direction.class);
+    private final Timer sendTimer;
+    private final Map<String, Counter> errors = new ConcurrentHashMap<>();
+    private final Counter bytesRead;
+    private final Counter bytesWritten;
+    private final Map<Direction, Timer> throttleTimers = new EnumMap<>(Direction.class);
+    private final Counter rejectedRequests;
+
+    private static FileMetrics instance;
+
+    public static synchronized FileMetrics getInstance() {
+        if (instance == null)
+            instance = new FileMetrics(Metrics.globalRegistry);
+        return instance;
+    }
+
+    private FileMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        for (DiskOperation operation : DiskOperation.values()) {
+            diskTimers.put(operation, Timer.builder("webfs.disk.io")
+                    .description("Time spent in disk operations")
+                    .tag("operation", operation.name().toLowerCase())
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+        for (Direction direction : Direction.values()) {
+            activeTransfers.put(direction, registry.gauge("webfs.transfers.active",
+                    Tags.of("direction", direction.name().toLowerCase()), new AtomicInteger()));
+            throttleTimers.put(direction, Timer.builder("webfs.qos.throttled")
+                    .description("Time transfers were delayed by bandwidth limits")
+                    .tag("direction", direction.name().toLowerCase())
+                    .register(registry));
+        }
+        sendTimer = Timer.builder("webfs.transfers.send")
+                .description("Time spent sending file regions, reading the file and writing to the client")
+                .publishPercentileHistogram()
+                .register(registry);
+        bytesRead = Counter.builder("webfs.bytes.read")
+                .description("Bytes read from files")
+                .baseUnit("bytes")
+                .register(registry);
+        bytesWritten = Counter.builder("webfs.bytes.written")
+                .description("Bytes written to files")
+                .baseUnit("bytes")
+                .register(registry);
+        rejectedRequests = Counter.builder("webfs.qos.rejected")
+                .description("Requests rejected by request rate limits")
+                .register(registry);
+    }
+
+    /**
+     * Get the start time of an operation for recordDisk.
+     *
+     * @return The time
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the time of a disk operation.
+     *
+     * @param operation The operation
+     * @param start     The time returned by start
+     */
+    public void recordDisk(DiskOperation operation, long start) {
+        diskTimers.get(operation).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record the total time of many disk calls of an operation.
+     *
+     * @param operation The operation
+     * @param nanos     The time in nanoseconds
+     */
+    public void recordDiskNanos(DiskOperation operation, long nanos) {
+        diskTimers.get(operation).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record the time of a file region sent with transferTo, the time spent on the disk and on the
+     * network can't be told apart so it's not a disk operation.
+     *
+     * @param start The time returned by start
+     */
+    public void recordSend(long start) {
+        sendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    public void addBytesRead(long bytes) {
+        bytesRead.increment(bytes);
+    }
+
+    public void addBytesWritten(long bytes) {
+        bytesWritten.increment(bytes);
+    }
+
+    public void transferStarted(Direction direction) {
+        activeTransfers.get(direction).incrementAndGet();
+    }
+
+    public void transferEnded(Direction direction) {
+        activeTransfers.get(direction).decrementAndGet();
+    }
+
+    /**
+     * Record the delay of a throttled transfer.
+     *
+     * @param direction The direction of the transfer
+     * @param nanos     The delay in nanoseconds
+     */
+    public void throttled(Direction direction, long nanos) {
+        throttleTimers.get(direction).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void rejected() {
+        rejectedRequests.increment();
+    }
+
+    /**
+     * Count an error of a request.
+     *
+     * @param ex The exception
+     */
+    public void error(Throwable ex) {
+        errors.computeIfAbsent(ex.getClass().getSimpleName(), name -> Counter.builder("webfs.errors")
+                .description("Failed requests by exception type")
+                .tag("exception", name)
+                .register(registry)).increment();
+    }
+}
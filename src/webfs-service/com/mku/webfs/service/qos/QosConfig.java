@@ -0,0 +1,57 @@
+package com.mku.webfs.service.qos;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Bandwidth and request rate limits configuration
+ */
+@Configuration
+public class QosConfig implements WebMvcConfigurer {
+    @Value("${app.qos.total-bytes-per-second:0}")
+    private long totalBytesPerSecond;
+
+    @Value("${app.qos.bytes-per-second:0}")
+    private long bytesPerSecond;
+
+    @Value("${app.qos.requests-per-second:0}")
+    private double requestsPerSecond;
+
+    @PostConstruct
+    public void init() {
+        QosManager.getInstance().configure(totalBytesPerSecond, bytesPerSecond, requestsPerSecond);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // after the access log so rejected requests are logged
+        registry.addInterceptor(new QosInterceptor()).addPathPatterns("/api/**").order(1);
+    }
+}
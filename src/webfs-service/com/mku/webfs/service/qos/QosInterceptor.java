@@ -0,0 +1,98 @@
+package com.mku.webfs.service.qos;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.metrics.FileMetrics;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rejects requests over the request rate of the user with 429 and passes the bandwidth throttle
+ * of the user to the transfers of the request.
+ */
+public class QosInterceptor implements HandlerInterceptor {
+    /**
+     * Request attribute with the throttle of the transfers of the request
+     */
+    public static final String THROTTLE_ATTRIBUTE = QosInterceptor.class.getName() + ".throttle";
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        String user = request.getRemoteUser();
+        if (user == null)
+            return true;
+        QosManager.Limits limits = QosManager.getInstance().getLimits(user);
+        long wait = limits.tryRequest();
+        if (wait > 0) {
+            FileMetrics.getInstance().rejected();
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, (wait + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1))));
+            return false;
+        }
+        if (limits.getThrottle() != null)
+            request.setAttribute(THROTTLE_ATTRIBUTE, limits.getThrottle());
+        return true;
+    }
+
+    /**
+     * Get the throttle of the transfers of a request.
+     *
+     * @param request The request
+     * @return The throttle or null if the bandwidth is not limited
+     */
+    public static Throttle getThrottle(HttpServletRequest request) {
+        return (Throttle) request.getAttribute(THROTTLE_ATTRIBUTE);
+    }
+
+    /**
+     * Throttle an upload stream of a request.
+     *
+     * @param request     The request
+     * @param inputStream The stream
+     * @return The throttled stream or the same stream if the bandwidth is not limited
+     */
+    public static InputStream throttle(HttpServletRequest request, InputStream inputStream) {
+        Throttle throttle = getThrottle(request);
+        return throttle != null ? throttle.wrap(inputStream) : inputStream;
+    }
+
+    /**
+     * Throttle a download channel of a request.
+     *
+     * @param request The request
+     * @param channel The channel
+     * @return The throttled channel or the same channel if the bandwidth is not limited
+     */
+    public static WritableByteChannel throttle(HttpServletRequest request, WritableByteChannel channel) {
+        Throttle throttle = getThrottle(request);
+        return throttle != null ? throttle.wrap(channel) : channel;
+    }
+}
@@ -0,0 +1,134 @@
+package com.mku.webfs.service.qos;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.security.AuthUsers;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per user bandwidth and request rate limits. The limits of a user are set with AuthUsers.setLimits,
+ * users without limits get the service defaults. A bandwidth limit for all users can also be set,
+ * transfers of all users then share it.
+ */
+public class QosManager {
+    private final ConcurrentHashMap<String, Limits> limits = new ConcurrentHashMap<>();
+    private volatile long defaultBytesPerSecond;
+    private volatile double defaultRequestsPerSecond;
+    private volatile TokenBucket totalBucket;
+
+    private static QosManager instance;
+
+    public static synchronized QosManager getInstance() {
+        if (instance == null)
+            instance = new QosManager();
+        return instance;
+    }
+
+    /**
+     * The limits of a user
+     */
+    public static class Limits {
+        private final AuthUsers.User user;
+        private final long bytesPerSecond;
+        private final double requestsPerSecond;
+        private final TokenBucket totalBucket;
+        private final TokenBucket requestBucket;
+        private final Throttle throttle;
+
+        private Limits(AuthUsers.User user, long bytesPerSecond, double requestsPerSecond, TokenBucket totalBucket) {
+            this.user = user;
+            this.bytesPerSecond = bytesPerSecond;
+            this.requestsPerSecond = requestsPerSecond;
+            this.totalBucket = totalBucket;
+            // a second of requests can be made at once
+            this.requestBucket = requestsPerSecond > 0 ? new TokenBucket(requestsPerSecond, Math.max(requestsPerSecond, 1)) : null;
+            TokenBucket userBucket = bytesPerSecond > 0 ? createBandwidthBucket(bytesPerSecond) : null;
+            this.throttle = userBucket != null || totalBucket != null ? new Throttle(userBucket, totalBucket) : null;
+        }
+
+        private boolean matches(AuthUsers.User user, long bytesPerSecond, double requestsPerSecond, TokenBucket totalBucket) {
+            return this.user == user && this.bytesPerSecond == bytesPerSecond
+                    && this.requestsPerSecond == requestsPerSecond && this.totalBucket == totalBucket;
+        }
+
+        /**
+         * Count a request.
+         *
+         * @return 0 if the request is allowed, else the nanoseconds until the next request is allowed
+         */
+        public long tryRequest() {
+            return requestBucket != null ? requestBucket.tryAcquire(1) : 0;
+        }
+
+        /**
+         * @return The throttle of the transfers or null if the bandwidth is not limited
+         */
+        public Throttle getThrottle() {
+            return throttle;
+        }
+    }
+
+    /**
+     * Set the service limits, limits of 0 are disabled.
+     *
+     * @param totalBytesPerSecond      The bytes per second of all users
+     * @param defaultBytesPerSecond    The bytes per second of users without limits
+     * @param defaultRequestsPerSecond The requests per second of users without limits
+     */
+    public void configure(long totalBytesPerSecond, long defaultBytesPerSecond, double defaultRequestsPerSecond) {
+        this.totalBucket = totalBytesPerSecond > 0 ? createBandwidthBucket(totalBytesPerSecond) : null;
+        this.defaultBytesPerSecond = defaultBytesPerSecond;
+        this.defaultRequestsPerSecond = defaultRequestsPerSecond;
+        limits.clear();
+    }
+
+    /**
+     * Get the limits of a user, they are created again if the limits of the user have changed.
+     *
+     * @param name The user name
+     * @return The limits
+     */
+    public Limits getLimits(String name) {
+        AuthUsers.User user = AuthUsers.getUser(name);
+        long bytesPerSecond = defaultBytesPerSecond;
+        double requestsPerSecond = defaultRequestsPerSecond;
+        if (user != null && user.getBytesPerSecond() >= 0)
+            bytesPerSecond = user.getBytesPerSecond();
+        if (user != null && user.getRequestsPerSecond() >= 0)
+            requestsPerSecond = user.getRequestsPerSecond();
+        TokenBucket total = totalBucket;
+        Limits current = limits.get(name);
+        if (current != null && current.matches(user, bytesPerSecond, requestsPerSecond, total))
+            return current;
+        Limits created = new Limits(user, bytesPerSecond, requestsPerSecond, total);
+        limits.put(name, created);
+        return created;
+    }
+
+    private static TokenBucket createBandwidthBucket(long bytesPerSecond) {
+        // a quarter of a second can be sent at once but at least a chunk
+        return new TokenBucket(bytesPerSecond, Math.max(bytesPerSecond / 4.0, Throttle.CHUNK_LENGTH));
+    }
+}
@@ -0,0 +1,153 @@
+package com.mku.webfs.service.qos;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.metrics.FileMetrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bandwidth limit of the transfers of a user, the bytes are taken from the user bucket and from the
+ * bucket shared by all users in chunks so the streams of all users are interleaved.
+ */
+public class Throttle {
+    static final int CHUNK_LENGTH = 64 * 1024;
+
+    private final TokenBucket userBucket;
+    private final TokenBucket totalBucket;
+
+    /**
+     * @param userBucket  The bytes per second of the user, null for no limit
+     * @param totalBucket The bytes per second of all users, null for no limit
+     */
+    Throttle(TokenBucket userBucket, TokenBucket totalBucket) {
+        this.userBucket = userBucket;
+        this.totalBucket = totalBucket;
+    }
+
+    /**
+     * Wait until the bytes can be transferred.
+     *
+     * @param bytes     The bytes
+     * @param direction The direction of the transfer
+     * @throws InterruptedIOException If the thread is interrupted
+     */
+    public void acquire(long bytes, FileMetrics.Direction direction) throws InterruptedIOException {
+        long wait = reserve(bytes, direction);
+        if (wait <= 0)
+            return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Transfer was interrupted");
+        }
+    }
+
+    /**
+     * Take the bytes without waiting, used by non-blocking transfers that resume later.
+     *
+     * @param bytes     The bytes
+     * @param direction The direction of the transfer
+     * @return The nanoseconds to wait before transferring the bytes
+     */
+    public long reserve(long bytes, FileMetrics.Direction direction) {
+        long wait = 0;
+        if (userBucket != null)
+            wait = userBucket.reserve(bytes);
+        if (totalBucket != null)
+            wait = Math.max(wait, totalBucket.reserve(bytes));
+        if (wait > 0)
+            FileMetrics.getInstance().throttled(direction, wait);
+        return wait;
+    }
+
+    /**
+     * Throttle the reads of an upload.
+     *
+     * @param inputStream The stream
+     * @return The throttled stream
+     */
+    public InputStream wrap(InputStream inputStream) {
+        return new FilterInputStream(inputStream) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0)
+                    acquire(1, FileMetrics.Direction.UPLOAD);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int bytesRead = super.read(b, off, Math.min(len, CHUNK_LENGTH));
+                if (bytesRead > 0)
+                    acquire(bytesRead, FileMetrics.Direction.UPLOAD);
+                return bytesRead;
+            }
+        };
+    }
+
+    /**
+     * Throttle the writes of a download.
+     *
+     * @param channel The channel
+     * @return The throttled channel
+     */
+    public WritableByteChannel wrap(WritableByteChannel channel) {
+        return new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                int length = Math.min(src.remaining(), CHUNK_LENGTH);
+                acquire(length, FileMetrics.Direction.DOWNLOAD);
+                int limit = src.limit();
+                src.limit(src.position() + length);
+                try {
+                    int bytesWritten = 0;
+                    while (src.hasRemaining())
+                        bytesWritten += channel.write(src);
+                    return bytesWritten;
+                } finally {
+                    src.limit(limit);
+                }
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,86 @@
+package com.mku.webfs.service.qos;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket implemented as a virtual schedule (GCRA). Each token moves the theoretical
+ * arrival time forward by the emission interval, a caller waits for the part of the schedule that
+ * exceeds the burst. Callers that reserve are served in the order they reserved, so concurrent streams
+ * that reserve small chunks share the rate fairly.
+ */
+public class TokenBucket {
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final double intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong theoreticalArrival = new AtomicLong(System.nanoTime());
+
+    /**
+     * @param rate  The tokens per second
+     * @param burst The tokens that can be taken at once without waiting
+     */
+    public TokenBucket(double rate, double burst) {
+        this.intervalNanos = NANOS_PER_SECOND / rate;
+        this.burstNanos = (long) (burst * intervalNanos);
+    }
+
+    /**
+     * Take tokens, waiting is left to the caller.
+     *
+     * @param tokens The tokens
+     * @return The nanoseconds to wait before using the tokens
+     */
+    public long reserve(long tokens) {
+        long cost = (long) (tokens * intervalNanos);
+        while (true) {
+            long now = System.nanoTime();
+            long current = theoreticalArrival.get();
+            long next = Math.max(current, now) + cost;
+            if (theoreticalArrival.compareAndSet(current, next))
+                return Math.max(next - burstNanos - now, 0);
+        }
+    }
+
+    /**
+     * Take tokens only if they are available now.
+     *
+     * @param tokens The tokens
+     * @return 0 if the tokens were taken, else the nanoseconds until they are available
+     */
+    public long tryAcquire(long tokens) {
+        long cost = (long) (tokens * intervalNanos);
+        while (true) {
+            long now = System.nanoTime();
+            long current = theoreticalArrival.get();
+            long next = Math.max(current, now) + cost;
+            long wait = next - burstNanos - now;
+            if (wait > 0)
+                return wait;
+            if (theoreticalArrival.compareAndSet(current, next))
+                return 0;
+        }
+    }
+}
@@ -24,17 +24,24 @@ SOFTWARE.
 */
 
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class AuthUsers {
-    private static HashMap<String,User> users = new HashMap<>();
+    private static ConcurrentHashMap<String,User> users = new ConcurrentHashMap<>();
+    // incremented on every change so cached authentications can be invalidated
+    private static final AtomicLong version = new AtomicLong();
 
     /**
-     * User credentials and roles
+     * User credentials, roles and transfer limits
      */
     public static class User {
         private String name;
         private String password;
         private String role;
+        // -1 to use the service defaults, 0 for no limit
+        private volatile long bytesPerSecond = -1;
+        private volatile double requestsPerSecond = -1;
         public String getName() {
             return name;
         }
@@ -47,6 +54,14 @@ public class AuthUsers {
             return role;
         }
 
+        public long getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        public double getRequestsPerSecond() {
+            return requestsPerSecond;
+        }
+
         public User(String name, String password, String role) {
             this.name = name;
             this.password = password;
@@ -62,9 +77,24 @@ public class AuthUsers {
      * @throws Exception
      */
     public static void addUser(String user, String password, String role) throws Exception {
-        if(users.containsKey(user))
+        if(users.putIfAbsent(user, new User(user, password, role)) != null)
             throw new Exception("User already exists, user removeUser() first");
-        users.put(user, new User(user, password, role));
+        version.incrementAndGet();
+    }
+
+    /**
+     * Set the transfer limits of a user
+     * @param user The user name
+     * @param bytesPerSecond The upload and download bytes per second, 0 for no limit, -1 for the service default
+     * @param requestsPerSecond The requests per second, 0 for no limit, -1 for the service default
+     * @throws Exception
+     */
+    public static void setLimits(String user, long bytesPerSecond, double requestsPerSecond) throws Exception {
+        User authUser = users.get(user);
+        if(authUser == null)
+            throw new Exception("User does not exist");
+        authUser.bytesPerSecond = bytesPerSecond;
+        authUser.requestsPerSecond = requestsPerSecond;
     }
 
     /**
@@ -73,8 +103,9 @@ public class AuthUsers {
      * @throws Exception
      */
     public static void removeUser(String user) throws Exception {
-        if(users.containsKey(user))
+        if(users.remove(user) == null)
             throw new Exception("User does not exist");
+        version.incrementAndGet();
     }
 
     /**
@@ -82,6 +113,24 @@ public class AuthUsers {
      */
     public static void removeAllUsers() {
         users.clear();
+        version.incrementAndGet();
+    }
+
+    /**
+     * Get a user
+     * @param user The user name
+     * @return The user or null if it does not exist
+     */
+    public static User getUser(String user) {
+        return users.get(user);
+    }
+
+    /**
+     * Get the version of the users, it changes every time a user is added or removed
+     * @return The version
+     */
+    public static long getVersion() {
+        return version.get();
     }
 
     /**
@@ -0,0 +1,73 @@
+package com.mku.webfs.service.security;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Users of AuthUsers for the authentication provider, the password hashes are computed once per user.
+ */
+public class AuthUsersDetailsService implements UserDetailsService {
+    private final PasswordEncoder passwordEncoder;
+    private final ConcurrentHashMap<String, EncodedUser> encodedUsers = new ConcurrentHashMap<>();
+
+    private static class EncodedUser {
+        private final AuthUsers.User user;
+        private final String encodedPassword;
+
+        private EncodedUser(AuthUsers.User user, String encodedPassword) {
+            this.user = user;
+            this.encodedPassword = encodedPassword;
+        }
+    }
+
+    public AuthUsersDetailsService(PasswordEncoder passwordEncoder) {
+        this.passwordEncoder = passwordEncoder;
+    }
+
+    @Override
+    public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
+        AuthUsers.User user = AuthUsers.getUser(username);
+        if (user == null) {
+            encodedUsers.remove(username);
+            throw new UsernameNotFoundException("User not found");
+        }
+        EncodedUser encodedUser = encodedUsers.get(username);
+        // a user removed and added again is a new object
+        if (encodedUser == null || encodedUser.user != user) {
+            encodedUser = new EncodedUser(user, passwordEncoder.encode(user.getPassword()));
+            encodedUsers.put(username, encodedUser);
+        }
+        return User.withUsername(user.getName())
+                .password(encodedUser.encodedPassword)
+                .roles(user.getRole())
+                .build();
+    }
+}
@@ -0,0 +1,126 @@
+package com.mku.webfs.service.security;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches successful authentications so HTTP Basic requests with the same credentials do not run the
+ * password hash (BCrypt) every time. Entries are keyed by an HMAC of the user name and password with a
+ * random key of the process so the credentials are not kept in memory, they expire after the TTL and
+ * they are all invalidated when the users of AuthUsers change. Failed authentications are not cached.
+ */
+public class CachingAuthenticationProvider implements AuthenticationProvider {
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final int MAX_ENTRIES = 10000;
+
+    private final AuthenticationProvider delegate;
+    private final long ttlMillis;
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private static class Entry {
+        private final Authentication authentication;
+        private final long expires;
+        private final long version;
+
+        private Entry(Authentication authentication, long expires, long version) {
+            this.authentication = authentication;
+            this.expires = expires;
+            this.version = version;
+        }
+    }
+
+    /**
+     * @param delegate  The provider that verifies the credentials
+     * @param ttlMillis The time an authentication is cached, 0 to disable caching
+     */
+    public CachingAuthenticationProvider(AuthenticationProvider delegate, long ttlMillis) {
+        this.delegate = delegate;
+        this.ttlMillis = ttlMillis;
+        byte[] keyBytes = new byte[32];
+        new SecureRandom().nextBytes(keyBytes);
+        this.key = new SecretKeySpec(keyBytes, HMAC_ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException ex) {
+                throw new RuntimeException(ex);
+            }
+        });
+    }
+
+    @Override
+    public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        if (ttlMillis <= 0 || authentication.getCredentials() == null)
+            return delegate.authenticate(authentication);
+        String cacheKey = getKey(authentication.getName(), authentication.getCredentials().toString());
+        long version = AuthUsers.getVersion();
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(cacheKey);
+        if (entry != null && entry.version == version && entry.expires > now)
+            return entry.authentication;
+
+        Authentication result = delegate.authenticate(authentication);
+        if (result != null && result.isAuthenticated()) {
+            if (entries.size() >= MAX_ENTRIES)
+                evict(now, version);
+            entries.put(cacheKey, new Entry(result, now + ttlMillis, version));
+        }
+        return result;
+    }
+
+    @Override
+    public boolean supports(Class<?> authentication) {
+        return UsernamePasswordAuthenticationToken.class.isAssignableFrom(authentication)
+                && delegate.supports(authentication);
+    }
+
+    private void evict(long now, long version) {
+        entries.values().removeIf(entry -> entry.version != version || entry.expires <= now);
+        if (entries.size() >= MAX_ENTRIES)
+            entries.clear();
+    }
+
+    private String getKey(String name, String password) {
+        Mac mac = macs.get();
+        mac.update(name.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        return Base64.getEncoder().encodeToString(mac.doFinal(password.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,55 @@
+package com.mku.webfs.service.security;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import java.util.function.Predicate;
+
+/**
+ * The roles of the users and the permissions they grant, shared by the web stacks.
+ */
+public class Roles {
+    public static final String READ = "READ";
+    public static final String WRITE = "WRITE";
+    public static final String READ_WRITE = "READ_WRITE";
+
+    /**
+     * Check the read permission of a user
+     * @param isUserInRole Checks if the user has a role
+     * @throws SecurityException If the user can't read
+     */
+    public static void checkRead(Predicate<String> isUserInRole) {
+        if(!isUserInRole.test(READ) && !isUserInRole.test(READ_WRITE))
+            throw new SecurityException("Read permission not allowed");
+    }
+
+    /**
+     * Check the write permission of a user
+     * @param isUserInRole Checks if the user has a role
+     * @throws SecurityException If the user can't write
+     */
+    public static void checkWrite(Predicate<String> isUserInRole) {
+        if(!isUserInRole.test(WRITE) && !isUserInRole.test(READ_WRITE))
+            throw new SecurityException("Write permission not allowed");
+    }
+}
@@ -27,6 +27,8 @@ import com.mku.webfs.service.controller.FileSystem;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpMethod;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
@@ -35,7 +37,6 @@ import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
 
 import javax.servlet.http.HttpServletRequest;
-import java.util.HashMap;
 
 @EnableWebSecurity
 public class Security {
@@ -50,16 +51,18 @@ public class Security {
     @Value("${app.path}")
     private String path;
 
+    // seconds a verified user and password is cached, 0 to verify the password on every request
+    @Value("${app.auth.cache-ttl:300}")
+    private long authCacheTtl;
+
     private AuthEntryPoint authenticationEntryPoint;
 
     public static void checkRead(HttpServletRequest request) {
-        if(!request.isUserInRole("READ") && !request.isUserInRole("READ_WRITE"))
-            throw new SecurityException("Read permission not allowed");
+        Roles.checkRead(request::isUserInRole);
     }
 
     public static void checkWrite(HttpServletRequest request) {
-        if(!request.isUserInRole("WRITE") && !request.isUserInRole("READ_WRITE"))
-            throw new SecurityException("Write permission not allowed");
+        Roles.checkWrite(request::isUserInRole);
     }
 
     @Autowired
@@ -72,6 +75,9 @@ public class Security {
         http.csrf().disable();
 
         http.authorizeRequests()
+                // actuator operations that modify the service (blob gc, cache clears) need write permission
+                .antMatchers(HttpMethod.GET, "/actuator/**").authenticated()
+                .antMatchers("/actuator/**").hasAnyRole(Roles.WRITE, Roles.READ_WRITE)
                 .antMatchers("/**")
                 .authenticated()
                 .and()
@@ -85,20 +91,15 @@ public class Security {
         FileSystem.getInstance().setPath(path);
 
         // add the primary user if it hasn't been already supplied
-        HashMap<String, AuthUsers.User> users = AuthUsers.getUsers();
-        if(!users.containsKey(username)) {
+        if(AuthUsers.getUser(username) == null)
             AuthUsers.addUser(username, password, role);
-            users = AuthUsers.getUsers();
-        }
 
-        for(String name : users.keySet()) {
-            AuthUsers.User user = users.get(name);
-            auth.inMemoryAuthentication()
-                    .passwordEncoder(new BCryptPasswordEncoder())
-                    .withUser(user.getName())
-                    .password(new BCryptPasswordEncoder().encode(user.getPassword()))
-                    .roles(user.getRole());
-        }
+        // users are read from AuthUsers on every authentication so they can be added or removed at runtime
+        BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
+        DaoAuthenticationProvider provider = new DaoAuthenticationProvider();
+        provider.setPasswordEncoder(passwordEncoder);
+        provider.setUserDetailsService(new AuthUsersDetailsService(passwordEncoder));
+        auth.authenticationProvider(new CachingAuthenticationProvider(provider, authCacheTtl * 1000));
     }
 
     @EnableWebSecurity
@@ -0,0 +1,97 @@
+package com.mku.webfs.webflux;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.log.AccessLog;
+import com.mku.webfs.service.log.AccessRecord;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.security.Principal;
+import java.util.Locale;
+
+/**
+ * The AccessLogInterceptor of the servlet service on WebFlux, creates an access log record for every
+ * API request after its response is sent.
+ */
+public class FluxAccessLogFilter implements WebFilter, Ordered {
+    private static final String API_PREFIX = "/api/";
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (!isApi(exchange))
+            return chain.filter(exchange);
+        long start = System.nanoTime();
+        return exchange.getPrincipal()
+                .map(Principal::getName)
+                .defaultIfEmpty("")
+                .flatMap(user -> chain.filter(exchange)
+                        .doOnSuccess(ignored -> log(exchange, null, user, start))
+                        .doOnError(ex -> log(exchange, ex, user, start)));
+    }
+
+    @Override
+    public int getOrder() {
+        // after the security filters so the user is known
+        return 0;
+    }
+
+    static boolean isApi(ServerWebExchange exchange) {
+        return exchange.getRequest().getPath().pathWithinApplication().value().startsWith(API_PREFIX);
+    }
+
+    private void log(ServerWebExchange exchange, Throwable ex, String user, long start) {
+        ServerHttpRequest request = exchange.getRequest();
+        ServerHttpResponse response = exchange.getResponse();
+        HttpStatus httpStatus = response.getStatusCode();
+        int status = httpStatus != null ? httpStatus.value() : HttpStatus.OK.value();
+        if (ex != null && status < 400)
+            status = HttpStatus.INTERNAL_SERVER_ERROR.value();
+        AccessLog accessLog = AccessLog.getInstance();
+        if (!accessLog.isEnabled(status))
+            return;
+        String path = request.getQueryParams().getFirst("path");
+        if (path == null)
+            path = request.getQueryParams().getFirst("id");
+        String query = request.getURI().getRawQuery();
+        accessLog.log(new AccessRecord(System.currentTimeMillis(), getOperation(request), path,
+                user.isEmpty() ? null : user, status, Math.max(request.getHeaders().getContentLength(), 0),
+                Math.max(response.getHeaders().getContentLength(), 0), System.nanoTime() - start,
+                accessLog.isDebug() ? query : null));
+    }
+
+    // ie: /api/setLength is SETLENGTH
+    private static String getOperation(ServerHttpRequest request) {
+        String path = request.getPath().pathWithinApplication().value();
+        if (path.startsWith(API_PREFIX))
+            path = path.substring(API_PREFIX.length());
+        return path.replace('/', ' ').toUpperCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,395 @@
+package com.mku.webfs.webflux;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.controller.BlobStore;
+import com.mku.webfs.service.controller.ByteRanges;
+import com.mku.webfs.service.controller.ChecksumResponse;
+import com.mku.webfs.service.controller.Checksums;
+import com.mku.webfs.service.controller.FileOperations;
+import com.mku.webfs.service.controller.FileResponse;
+import com.mku.webfs.service.controller.MetadataCache;
+import com.mku.webfs.service.metrics.FileMetrics;
+import com.mku.webfs.service.security.Roles;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.ZeroCopyHttpOutputMessage;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.function.Predicate;
+
+@RestController
+@CrossOrigin(origins = "${app.cors.allowed-origins}")
+@RequestMapping("/api")
+/**
+ * The endpoints of FileController on WebFlux. File system calls block so they run on the bounded
+ * elastic scheduler, downloads are sent as zero-copy file regions and uploads are written as the
+ * buffers arrive with backpressure, the next buffer is requested only after the previous is written.
+ */
+public class FluxFileController {
+    private static final String CURSOR_HEADER = "X-WebFS-Cursor";
+    private static final int BUFF_LENGTH = 64 * 1024;
+    private static final String CRLF = "\r\n";
+
+    /**
+     * Get details about a file<br>
+     * example:
+     * curl -X GET "http://localhost:8080/api/info?path=/dir1/file.dat"
+     */
+    @GetMapping("/info")
+    public Mono<FileResponse> info(Authentication authentication, String path) {
+        return blocking(() -> {
+            Roles.checkRead(roles(authentication));
+            return FileOperations.getInstance().info(path);
+        });
+    }
+
+    /**
+     * List files and directories under a directory<br>
+     * example:
+     * curl -X GET "http://localhost:8080/api/list?path=/dir1/dir2"
+     */
+    @GetMapping("/list")
+    public Mono<List<FileResponse>> list(Authentication authentication, String path) {
+        return blocking(() -> {
+            Roles.checkRead(roles(authentication));
+            return FileOperations.getInstance().list(path);
+        });
+    }
+
+    /**
+     * List a page of files and directories under a directory sorted by name, if there are more entries
+     * the header X-WebFS-Cursor contains the cursor of the next page.<br>
+     * example:
+     * curl -X GET "http://localhost:8080/api/list?path=/dir1/dir2&limit=1000"
+     */
+    @GetMapping(path = "/list", params = "limit")
+    public Mono<ResponseEntity<List<FileResponse>>> listPage(Authentication authentication, String path, int limit, String cursor) {
+        return blocking(() -> {
+            Roles.checkRead(roles(authentication));
+            FileOperations.Page page = FileOperations.getInstance().listPage(path, limit, cursor);
+            ResponseEntity.BodyBuilder builder = ResponseEntity.ok();
+            if (page.getCursor() != null)
+                builder.header(CURSOR_HEADER, page.getCursor());
+            return builder.body(page.getEntries());
+        });
+    }
+
+    /**
+     * Create a directory<br>
+     * example:
+     * curl -X POST "http://localhost:8080/api/mkdir?path=/dir/newdir"
+     */
+    @PostMapping("/mkdir")
+    public Mono<FileResponse> mkdir(Authentication authentication, String path) {
+        return blocking(() -> {
+            Roles.checkWrite(roles(authentication));
+            return FileOperations.getInstance().mkdir(path);
+        });
+    }
+
+    /**
+     * Create a file<br>
+     * example:
+     * curl -X POST "http://localhost:8080/api/create?path=/dir/file.dat"
+     */
+    @PostMapping("/create")
+    public Mono<FileResponse> create(Authentication authentication, String path) {
+        return blocking(() -> {
+            Roles.checkWrite(roles(authentication));
+            return FileOperations.getInstance().create(path);
+        });
+    }
+
+    /**
+     * Upload a file<br>
+     * example:
+     * curl -X POST -F "file=@D:/tmp/testdata/data.dat" "http://localhost:8080/api/upload?path=/dir/file.dat&position=0"
+     */
+    @PostMapping(path = "/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public Mono<ResponseEntity<FileResponse>> upload(Authentication authentication, ServerWebExchange exchange,
+                                                     @RequestPart("file") FilePart file, String path, Long position) {
+        return upload(authentication, FluxQosFilter.throttle(exchange, file.content(), FileMetrics.Direction.UPLOAD), path, position);
+    }
+
+    /**
+     * Upload a file with the raw request body<br>
+     * example:
+     * curl -T "D:/tmp/testdata/data.dat" "http://localhost:8080/api/upload?path=/dir/file.dat&position=0"
+     */
+    @RequestMapping(path = "/upload", method = {RequestMethod.PUT, RequestMethod.POST},
+            consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public Mono<ResponseEntity<FileResponse>> uploadStream(Authentication authentication, ServerWebExchange exchange,
+                                                           String path, Long position) {
+        return upload(authentication, FluxQosFilter.throttle(exchange, exchange.getRequest().getBody(), FileMetrics.Direction.UPLOAD),
+                path, position);
+    }
+
+    /**
+     * Get a file, byte ranges can be requested with a Range header (RFC 7233)<br>
+     * example:
+     * curl -X GET "http://localhost:8080/api/get?path=/dir/file.dat"
+     * curl -X GET "http://localhost:8080/api/get?path=/dir/file.dat" -H "Range: bytes=0-65535"
+     */
+    @GetMapping(path = "/get")
+    public Mono<Void> get(Authentication authentication, ServerWebExchange exchange, String path, Long position) {
+        return blocking(() -> {
+            Roles.checkRead(roles(authentication));
+            return FileOperations.getInstance().getDownloadFile(path);
+        }).flatMap(file -> send(file, exchange, position));
+    }
+
+    /**
+     * Get the checksum of a file computed on the server: sha256, crc32c or xxhash64<br>
+     * example:
+     * curl -X GET "http://localhost:8080/api/checksum?path=/dir/file.dat&algorithm=sha256"
+     */
+    @GetMapping("/checksum")
+    public Mono<ChecksumResponse> checksum(Authentication authentication, String path, String algorithm) {
+        return blocking(() -> {
+            Roles.checkRead(roles(authentication));
+            File file = FileOperations.getInstance().getDownloadFile(path);
+            return Checksums.getInstance().getChecksum(file, Checksums.Algorithm.fromName(algorithm));
+        });
+    }
+
+    /**
+     * Copy a file to the destination directory, directories are copied with recursive=true<br>
+     * example:
+     * curl -X POST "http://localhost:8080/api/copy?path=/dir1&destDir=/dir2&recursive=true"
+     */
+    @PostMapping("/copy")
+    public Mono<FileResponse> copy(Authentication authentication, String path, String destDir, String filename, boolean recursive) {
+        return blocking(() -> {
+            Roles.checkRead(roles(authentication));
+            Roles.checkWrite(roles(authentication));
+            return FileOperations.getInstance().copy(path, destDir, filename, recursive);
+        });
+    }
+
+    /**
+     * Move a file to the destination directory, directories are moved with recursive=true<br>
+     * example:
+     * curl -X PUT "http://localhost:8080/api/move?path=/dir1&destDir=/dir2&recursive=true"
+     */
+    @PutMapping("/move")
+    public Mono<FileResponse> move(Authentication authentication, String path, String destDir, String filename, boolean recursive) {
+        return blocking(() -> {
+            Roles.checkRead(roles(authentication));
+            Roles.checkWrite(roles(authentication));
+            return FileOperations.getInstance().move(path, destDir, filename, recursive);
+        });
+    }
+
+    /**
+     * Rename a file or directory<br>
+     * example:
+     * curl -X PUT "http://localhost:8080/api/rename?path=/dir/file.dat&filename=newfile.dat"
+     */
+    @PutMapping("/rename")
+    public Mono<FileResponse> rename(Authentication authentication, String path, String filename) {
+        return blocking(() -> {
+            Roles.checkWrite(roles(authentication));
+            return FileOperations.getInstance().rename(path, filename);
+        });
+    }
+
+    /**
+     * Delete a file or directory, non-empty directories are deleted with recursive=true<br>
+     * example:
+     * curl -X DELETE "http://localhost:8080/api/delete?path=/dir&recursive=true"
+     */
+    @DeleteMapping("/delete")
+    public Mono<FileResponse> delete(Authentication authentication, String path, boolean recursive) {
+        return blocking(() -> {
+            Roles.checkWrite(roles(authentication));
+            return FileOperations.getInstance().delete(path, recursive);
+        });
+    }
+
+    /**
+     * Set the file length<br>
+     * example:
+     * curl -X PUT "http://localhost:8080/api/setLength?path=/dir/file.dat&length=1204"
+     */
+    @PutMapping("/setLength")
+    public Mono<FileResponse> setLength(Authentication authentication, String path, long length) {
+        return blocking(() -> {
+            Roles.checkWrite(roles(authentication));
+            return FileOperations.getInstance().setLength(path, length);
+        });
+    }
+
+    private Mono<ResponseEntity<FileResponse>> upload(Authentication authentication, Flux<DataBuffer> body, String path, Long position) {
+        long start = position != null ? position : 0;
+        return blocking(() -> {
+            Roles.checkWrite(roles(authentication));
+            File file = FileOperations.getInstance().getUploadFile(path, start);
+            // a file that shares its contents with other files is copied before it's modified
+            BlobStore.getInstance().detach(file, start != 0);
+            return file;
+        }).flatMap(file -> write(file, body, start))
+                .map(file -> new ResponseEntity<>(new FileResponse(file), start > 0 ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK));
+    }
+
+    /**
+     * Write the buffers into the file starting at a position, writing at position 0 replaces the contents.
+     * The file must not be linked to a blob, see BlobStore.detach.
+     */
+    private Mono<File> write(File file, Flux<DataBuffer> body, long position) {
+        OpenOption[] options = position == 0
+                ? new OpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING}
+                : new OpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.WRITE};
+        return Mono.using(() -> AsynchronousFileChannel.open(file.toPath(), options),
+                channel -> DataBufferUtils.write(body, channel, position)
+                        .doOnNext(buffer -> FileMetrics.getInstance().addBytesWritten(buffer.readableByteCount()))
+                        .doOnNext(DataBufferUtils::release)
+                        .then(Mono.just(file)),
+                channel -> {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                })
+                .doOnSubscribe(subscription -> FileMetrics.getInstance().transferStarted(FileMetrics.Direction.UPLOAD))
+                .doFinally(signal -> {
+                    FileMetrics.getInstance().transferEnded(FileMetrics.Direction.UPLOAD);
+                    MetadataCache.getInstance().invalidate(file, false);
+                });
+    }
+
+    private Mono<Void> send(File file, ServerWebExchange exchange, Long position) {
+        ServerHttpRequest request = exchange.getRequest();
+        ServerHttpResponse response = exchange.getResponse();
+        long fileLength = file.length();
+        HttpHeaders headers = response.getHeaders();
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        String range = request.getHeaders().getFirst(HttpHeaders.RANGE);
+        if (range != null && ByteRanges.isRangeValid(file, request.getHeaders().getFirst(HttpHeaders.IF_RANGE))) {
+            List<long[]> ranges = ByteRanges.getSatisfiableRanges(range, fileLength);
+            if (ranges != null && ranges.isEmpty()) {
+                response.setStatusCode(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+                headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + fileLength);
+                headers.setContentLength(0);
+                return response.setComplete();
+            } else if (ranges != null && ranges.size() == 1) {
+                long[] byteRange = ranges.get(0);
+                response.setStatusCode(HttpStatus.PARTIAL_CONTENT);
+                headers.set(HttpHeaders.CONTENT_RANGE, ByteRanges.getContentRange(byteRange, fileLength));
+                headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+                return send(file, byteRange[0], byteRange[1] - byteRange[0] + 1, exchange);
+            } else if (ranges != null) {
+                response.setStatusCode(HttpStatus.PARTIAL_CONTENT);
+                return sendMultipart(file, ranges, exchange);
+            }
+        }
+        long start = position != null && range == null ? position : 0;
+        if (start < 0 || start > fileLength)
+            return Mono.error(new IOException("Invalid position"));
+        response.setStatusCode(start > 0 ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK);
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        return send(file, start, fileLength - start, exchange);
+    }
+
+    /**
+     * Send a region of a file, Netty sends it with sendfile if the connection is not encrypted and
+     * the bandwidth of the user is not limited.
+     */
+    private Mono<Void> send(File file, long position, long length, ServerWebExchange exchange) {
+        ServerHttpResponse response = exchange.getResponse();
+        response.getHeaders().setContentLength(length);
+        if (length == 0)
+            return response.setComplete();
+        FileMetrics.getInstance().addBytesRead(length);
+        if (response instanceof ZeroCopyHttpOutputMessage && FluxQosFilter.getThrottle(exchange) == null)
+            return ((ZeroCopyHttpOutputMessage) response).writeWith(file.toPath(), position, length);
+        return response.writeWith(FluxQosFilter.throttle(exchange, read(file, position, length, response.bufferFactory()),
+                FileMetrics.Direction.DOWNLOAD));
+    }
+
+    private Mono<Void> sendMultipart(File file, List<long[]> ranges, ServerWebExchange exchange) {
+        ServerHttpResponse response = exchange.getResponse();
+        long fileLength = file.length();
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        DataBufferFactory bufferFactory = response.bufferFactory();
+        List<Flux<DataBuffer>> parts = new ArrayList<>();
+        long contentLength = 0;
+        for (long[] range : ranges) {
+            byte[] partHeader = (CRLF + "--" + boundary + CRLF
+                    + HttpHeaders.CONTENT_TYPE + ": " + MediaType.APPLICATION_OCTET_STREAM_VALUE + CRLF
+                    + HttpHeaders.CONTENT_RANGE + ": " + ByteRanges.getContentRange(range, fileLength) + CRLF
+                    + CRLF).getBytes(StandardCharsets.US_ASCII);
+            long length = range[1] - range[0] + 1;
+            parts.add(Flux.defer(() -> Flux.just(bufferFactory.wrap(partHeader))));
+            parts.add(read(file, range[0], length, bufferFactory));
+            contentLength += partHeader.length + length;
+            FileMetrics.getInstance().addBytesRead(length);
+        }
+        byte[] end = (CRLF + "--" + boundary + "--" + CRLF).getBytes(StandardCharsets.US_ASCII);
+        parts.add(Flux.defer(() -> Flux.just(bufferFactory.wrap(end))));
+        contentLength += end.length;
+
+        response.getHeaders().set(HttpHeaders.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+        response.getHeaders().setContentLength(contentLength);
+        return response.writeWith(FluxQosFilter.throttle(exchange, Flux.concat(parts), FileMetrics.Direction.DOWNLOAD));
+    }
+
+    private Flux<DataBuffer> read(File file, long position, long length, DataBufferFactory bufferFactory) {
+        Flux<DataBuffer> buffers = DataBufferUtils.readAsynchronousFileChannel(
+                () -> AsynchronousFileChannel.open(file.toPath(), StandardOpenOption.READ), position, bufferFactory, BUFF_LENGTH);
+        return DataBufferUtils.takeUntilByteCount(buffers, length);
+    }
+
+    private static <T> Mono<T> blocking(Callable<T> callable) {
+        return Mono.fromCallable(callable).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private static Predicate<String> roles(Authentication authentication) {
+        return role -> authentication.getAuthorities().stream()
+                .anyMatch(authority -> ("ROLE_" + role).equals(authority.getAuthority()));
+    }
+}
@@ -0,0 +1,113 @@
+package com.mku.webfs.webflux;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.metrics.FileMetrics;
+import com.mku.webfs.service.qos.QosManager;
+import com.mku.webfs.service.qos.Throttle;
+import org.springframework.core.Ordered;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.security.Principal;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The QosInterceptor of the servlet service on WebFlux: rejects requests over the request rate of the
+ * user with 429 and passes the bandwidth throttle of the user to the transfers of the exchange. Throttled
+ * transfers wait with a timer instead of sleeping so no thread is held.
+ */
+public class FluxQosFilter implements WebFilter, Ordered {
+    /**
+     * Exchange attribute with the throttle of the transfers of the exchange
+     */
+    public static final String THROTTLE_ATTRIBUTE = FluxQosFilter.class.getName() + ".throttle";
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (!FluxAccessLogFilter.isApi(exchange))
+            return chain.filter(exchange);
+        return exchange.getPrincipal()
+                .map(Principal::getName)
+                .defaultIfEmpty("")
+                .flatMap(user -> {
+                    if (user.isEmpty())
+                        return chain.filter(exchange);
+                    QosManager.Limits limits = QosManager.getInstance().getLimits(user);
+                    long wait = limits.tryRequest();
+                    if (wait > 0) {
+                        FileMetrics.getInstance().rejected();
+                        ServerHttpResponse response = exchange.getResponse();
+                        response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+                        response.getHeaders().set(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, (wait + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1))));
+                        return response.setComplete();
+                    }
+                    if (limits.getThrottle() != null)
+                        exchange.getAttributes().put(THROTTLE_ATTRIBUTE, limits.getThrottle());
+                    return chain.filter(exchange);
+                });
+    }
+
+    @Override
+    public int getOrder() {
+        // after the security filters and the access log so rejected requests are logged
+        return 1;
+    }
+
+    /**
+     * Get the throttle of the transfers of an exchange.
+     *
+     * @param exchange The exchange
+     * @return The throttle or null if the bandwidth is not limited
+     */
+    public static Throttle getThrottle(ServerWebExchange exchange) {
+        return exchange.getAttribute(THROTTLE_ATTRIBUTE);
+    }
+
+    /**
+     * Throttle the buffers of a transfer of an exchange, each buffer is delayed until its bytes are allowed.
+     *
+     * @param exchange  The exchange
+     * @param buffers   The buffers
+     * @param direction The direction of the transfer
+     * @return The throttled buffers or the same buffers if the bandwidth is not limited
+     */
+    public static Flux<DataBuffer> throttle(ServerWebExchange exchange, Flux<DataBuffer> buffers, FileMetrics.Direction direction) {
+        Throttle throttle = getThrottle(exchange);
+        if (throttle == null)
+            return buffers;
+        return buffers.delayUntil(buffer -> {
+            long wait = throttle.reserve(buffer.readableByteCount(), direction);
+            return wait > 0 ? Mono.delay(Duration.ofNanos(wait)) : Mono.empty();
+        });
+    }
+}
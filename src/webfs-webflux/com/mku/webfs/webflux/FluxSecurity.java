@@ -0,0 +1,103 @@
+package com.mku.webfs.webflux;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.controller.FileSystem;
+import com.mku.webfs.service.security.AuthUsers;
+import com.mku.webfs.service.security.AuthUsersDetailsService;
+import com.mku.webfs.service.security.CachingAuthenticationProvider;
+import com.mku.webfs.service.security.Roles;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.authentication.ReactiveAuthenticationManager;
+import org.springframework.security.authentication.ReactiveAuthenticationManagerAdapter;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.authentication.HttpStatusServerEntryPoint;
+
+/**
+ * Basic auth with the users of AuthUsers, the same as the servlet service.
+ */
+@EnableWebFluxSecurity
+public class FluxSecurity {
+    @Value("${app.username}")
+    private String username;
+    @Value("${app.password}")
+    private String password;
+
+    @Value("${app.role}")
+    private String role;
+
+    @Value("${app.path}")
+    private String path;
+
+    // seconds a verified user and password is cached, 0 to verify the password on every request
+    @Value("${app.auth.cache-ttl:300}")
+    private long authCacheTtl;
+
+    @Bean
+    public SecurityWebFilterChain filterChain(ServerHttpSecurity http, ReactiveAuthenticationManager authenticationManager) {
+        HttpStatusServerEntryPoint entryPoint = new HttpStatusServerEntryPoint(HttpStatus.UNAUTHORIZED);
+        return http.csrf().disable()
+                .authorizeExchange()
+                // browser preflight, CORS is handled by the controller
+                .pathMatchers(HttpMethod.OPTIONS).permitAll()
+                // actuator operations that modify the service (cache clears) need write permission
+                .pathMatchers(HttpMethod.GET, "/actuator/**").authenticated()
+                .pathMatchers("/actuator/**").hasAnyRole(Roles.WRITE, Roles.READ_WRITE)
+                .anyExchange().authenticated()
+                .and()
+                .httpBasic()
+                .authenticationManager(authenticationManager)
+                .authenticationEntryPoint(entryPoint)
+                .and()
+                .exceptionHandling()
+                .authenticationEntryPoint(entryPoint)
+                .and()
+                .build();
+    }
+
+    @Bean
+    public ReactiveAuthenticationManager authenticationManager() throws Exception {
+        FileSystem.getInstance().setPath(path);
+
+        // add the primary user if it hasn't been already supplied
+        if (AuthUsers.getUser(username) == null)
+            AuthUsers.addUser(username, password, role);
+
+        // BCrypt blocks so the adapter verifies on a separate scheduler, verified passwords are cached
+        BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
+        DaoAuthenticationProvider provider = new DaoAuthenticationProvider();
+        provider.setPasswordEncoder(passwordEncoder);
+        provider.setUserDetailsService(new AuthUsersDetailsService(passwordEncoder));
+        return new ReactiveAuthenticationManagerAdapter(new ProviderManager(
+                new CachingAuthenticationProvider(provider, authCacheTtl * 1000)));
+    }
+}
@@ -0,0 +1,62 @@
+package com.mku.webfs.webflux;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.controller.MetadataCacheConfig;
+import com.mku.webfs.service.controller.MetadataCacheEndpoint;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Import;
+
+/**
+ * The service on WebFlux and Netty, it has the same /api contract as the servlet service and
+ * shares its file system, path validation, metadata cache and users so both can be run
+ * under the same load and compared.
+ */
+@SpringBootApplication
+@Import({MetadataCacheConfig.class, MetadataCacheEndpoint.class})
+public class WebFSFluxApplication {
+    private static ConfigurableApplicationContext ctx;
+
+    public static void main(String[] args) {
+        start(args);
+    }
+
+    public static void start(String[] args) {
+        ctx = SpringApplication.run(WebFSFluxApplication.class, args);
+    }
+
+    public static void stop() {
+        SpringApplication.exit(ctx);
+    }
+
+    /**
+     * Get the port the server is listening to, useful if it was started with server.port=0
+     */
+    public static int getPort() {
+        return ((WebServerApplicationContext) ctx).getWebServer().getPort();
+    }
+}
@@ -0,0 +1,92 @@
+package com.mku.webfs.service.test;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.log.AccessLog;
+import com.mku.webfs.service.log.AccessRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Records from many request threads through the access log ring buffer
+ */
+public class AccessLogTests {
+    private static final int THREADS = 8;
+    private static final int RECORDS = 20000;
+    private File file;
+
+    @AfterEach
+    public void tearDown() {
+        AccessLog.getInstance().close();
+        file.delete();
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        file = File.createTempFile("webfs_access", ".log");
+        AccessLog.getInstance().configure(AccessLog.Level.INFO, AccessLog.Overflow.BLOCK, 64, file.getPath());
+        long dropped = AccessLog.getInstance().getDropped();
+        log();
+        AccessLog.getInstance().close();
+        List<String> lines = Files.readAllLines(file.toPath());
+        assertEquals(THREADS * RECORDS, lines.size());
+        assertEquals(dropped, AccessLog.getInstance().getDropped());
+        assertTrue(lines.get(0).startsWith("{\"time\":"));
+    }
+
+    @Test
+    public void testDrop() throws Exception {
+        file = File.createTempFile("webfs_access", ".log");
+        AccessLog.getInstance().configure(AccessLog.Level.INFO, AccessLog.Overflow.DROP, 64, file.getPath());
+        long dropped = AccessLog.getInstance().getDropped();
+        log();
+        AccessLog.getInstance().close();
+        List<String> lines = Files.readAllLines(file.toPath());
+        assertEquals(THREADS * RECORDS, lines.size() + AccessLog.getInstance().getDropped() - dropped);
+    }
+
+    private static void log() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int id = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < RECORDS; i++)
+                    AccessLog.getInstance().log(new AccessRecord(System.currentTimeMillis(), "GET",
+                            "/dir/\"file_" + id + "_" + i + "\".dat", "user", 200, 0, 1024, 1000, null));
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+    }
+}
@@ -0,0 +1,135 @@
+package com.mku.webfs.service.test;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.WebFSApplication;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Transfers with app.transfer.mode=ASYNC on a server with 2 request threads, clients that stop
+ * reading must not block the other requests.
+ */
+public class AsyncTransferTests {
+    private static final int SLOW_CLIENTS = 4;
+    private static final long LARGE_FILE_LENGTH = 64L * 1024 * 1024;
+
+    private static File root;
+    private static String host;
+    private static String auth;
+    private static HttpClient httpClient;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        root = WebFSTestHelper.createRoot("webfs_async");
+        try (RandomAccessFile file = new RandomAccessFile(new File(root, "large.dat"), "rw")) {
+            file.setLength(LARGE_FILE_LENGTH);
+        }
+        host = WebFSTestHelper.startLocalServer(root,
+                "--app.transfer.mode=ASYNC", "--server.tomcat.threads.max=2", "--server.tomcat.threads.min-spare=2");
+        auth = WebFSTestHelper.getBasicAuth();
+        httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        WebFSTestHelper.stopServer();
+        WebFSTestHelper.deleteRoot(root);
+    }
+
+    @Test
+    public void testUploadDownload() throws Exception {
+        byte[] data = WebFSTestHelper.getRandArray(3 * 1024 * 1024 + 17);
+        HttpResponse<String> upload = httpClient.send(request("/api/upload?path=/data.dat")
+                .header("Content-Type", "application/octet-stream")
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(data)).build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, upload.statusCode());
+        assertTrue(upload.body().contains("\"length\":" + data.length), upload.body());
+
+        // ranges are always streamed by the service, sendfile can't be used
+        HttpResponse<byte[]> range = httpClient.send(request("/api/get?path=/data.dat")
+                .header("Range", "bytes=1000-1999").GET().build(), HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(206, range.statusCode());
+        assertArrayEquals(Arrays.copyOfRange(data, 1000, 2000), range.body());
+
+        HttpResponse<String> ranges = httpClient.send(request("/api/get?path=/data.dat")
+                .header("Range", "bytes=0-9,100-109").GET().build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.ISO_8859_1));
+        assertEquals(206, ranges.statusCode());
+        assertTrue(ranges.body().contains(new String(data, 100, 10, StandardCharsets.ISO_8859_1)));
+        assertTrue(ranges.body().endsWith("--\r\n"));
+    }
+
+    @Test
+    public void testSlowClients() throws Exception {
+        // clients that request the whole file in 2 ranges and never read the body
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < SLOW_CLIENTS; i++) {
+                Socket socket = new Socket("127.0.0.1", WebFSApplication.getPort());
+                socket.setReceiveBufferSize(4096);
+                OutputStream outputStream = socket.getOutputStream();
+                outputStream.write(("GET /api/get?path=/large.dat HTTP/1.1\r\n"
+                        + "Host: 127.0.0.1\r\n"
+                        + "Authorization: " + auth + "\r\n"
+                        + "Range: bytes=0-" + (LARGE_FILE_LENGTH / 2 - 1) + "," + LARGE_FILE_LENGTH / 2 + "-\r\n"
+                        + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                outputStream.flush();
+                InputStream inputStream = socket.getInputStream();
+                byte[] status = new byte[12];
+                assertEquals(status.length, inputStream.readNBytes(status, 0, status.length));
+                assertEquals("HTTP/1.1 206", new String(status, StandardCharsets.US_ASCII));
+                sockets.add(socket);
+            }
+
+            HttpResponse<String> list = httpClient.send(request("/api/list?path=/").timeout(Duration.ofSeconds(10))
+                    .GET().build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, list.statusCode());
+        } finally {
+            for (Socket socket : sockets)
+                socket.close();
+        }
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create(host + path)).header("Authorization", auth);
+    }
+}
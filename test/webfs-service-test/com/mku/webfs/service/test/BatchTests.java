@@ -0,0 +1,95 @@
+package com.mku.webfs.service.test;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Preconditions of the operations of a batch request
+ */
+public class BatchTests {
+    private static File root;
+    private static String host;
+    private static String auth;
+    private static HttpClient httpClient;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        root = WebFSTestHelper.createRoot("webfs_batch");
+        host = WebFSTestHelper.startLocalServer(root);
+        auth = WebFSTestHelper.getBasicAuth();
+        httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        WebFSTestHelper.stopServer();
+        WebFSTestHelper.deleteRoot(root);
+    }
+
+    @Test
+    public void testIfMatch() throws Exception {
+        WebFSTestHelper.write("/a.dat", new byte[10]);
+        WebFSTestHelper.write("/b.dat", new byte[20]);
+        String etag = batch(null, "[{\"op\":\"info\",\"path\":\"/a.dat\"}]").getJSONObject(0)
+                .getJSONObject("result").getString("etag");
+
+        // each operation is checked against its own precondition
+        JSONArray results = batch(null, "[{\"op\":\"setLength\",\"path\":\"/a.dat\",\"length\":5,\"ifMatch\":"
+                + JSONObject.quote(etag) + "},{\"op\":\"setLength\",\"path\":\"/b.dat\",\"length\":5,\"ifMatch\":"
+                + JSONObject.quote("\"stale\"") + "}]");
+        assertTrue(results.getJSONObject(0).isNull("error"), results.toString());
+        assertFalse(results.getJSONObject(1).isNull("error"), results.toString());
+        assertEquals(5, new File(root, "a.dat").length());
+        assertEquals(20, new File(root, "b.dat").length());
+
+        // the header of the batch request doesn't apply to the operations
+        results = batch("\"stale\"", "[{\"op\":\"setLength\",\"path\":\"/b.dat\",\"length\":5}]");
+        assertTrue(results.getJSONObject(0).isNull("error"), results.toString());
+        assertEquals(5, new File(root, "b.dat").length());
+    }
+
+    private JSONArray batch(String ifMatch, String operations) throws Exception {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(host + "/api/batch"))
+                .header("Authorization", auth).header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(operations));
+        if (ifMatch != null)
+            builder.header("If-Match", ifMatch);
+        HttpResponse<String> response = httpClient.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode(), response.body());
+        return new JSONArray(response.body());
+    }
+}
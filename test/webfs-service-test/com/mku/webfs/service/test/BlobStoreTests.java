@@ -0,0 +1,124 @@
+package com.mku.webfs.service.test;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.controller.BlobStore;
+import com.mku.webfs.service.controller.FileOperations;
+import com.mku.webfs.service.controller.FileSystem;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Deduplication of uploads and copies, copy on write of shared files and garbage collection of blobs
+ */
+public class BlobStoreTests {
+    private static File root;
+    private static byte[] data;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        root = WebFSTestHelper.createRoot("webfs_blobs");
+        BlobStore.getInstance().configure(true, 0);
+        data = new byte[256 * 1024];
+        new Random(1).nextBytes(data);
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        WebFSTestHelper.deleteRoot(root);
+    }
+
+    @Test
+    public void testDedupe() throws Exception {
+        File file1 = FileSystem.getInstance().write("/dup1.dat", new ByteArrayInputStream(data), 0);
+        File file2 = FileSystem.getInstance().write("/dup2.dat", new ByteArrayInputStream(data), 0);
+        assertEquals(getInode(file1), getInode(file2));
+        // the blob and the 2 files
+        assertEquals(3, getLinkCount(file1));
+
+        FileOperations.getInstance().copy("/dup1.dat", "/", "dup3.dat", false);
+        File file3 = FileSystem.getInstance().getFile("/dup3.dat");
+        assertEquals(getInode(file1), getInode(file3));
+        assertArrayEquals(data, Files.readAllBytes(file3.toPath()));
+    }
+
+    @Test
+    public void testCopyOnWrite() throws Exception {
+        File file1 = FileSystem.getInstance().write("/cow1.dat", new ByteArrayInputStream(data), 0);
+        FileOperations.getInstance().copy("/cow1.dat", "/", "cow2.dat", false);
+        File file2 = FileSystem.getInstance().getFile("/cow2.dat");
+
+        FileSystem.getInstance().write(file2, new ByteArrayInputStream(new byte[]{1, 2, 3}), 10);
+        assertNotEquals(getInode(file1), getInode(file2));
+        assertArrayEquals(data, Files.readAllBytes(file1.toPath()));
+        assertEquals(data.length, file2.length());
+        assertEquals(1, Files.readAllBytes(file2.toPath())[10]);
+
+        FileOperations.getInstance().copy("/cow1.dat", "/", "cow3.dat", false);
+        FileOperations.getInstance().setLength("/cow3.dat", 100);
+        assertEquals(data.length, file1.length());
+    }
+
+    @Test
+    public void testGc() throws Exception {
+        byte[] unique = new byte[1024];
+        new Random(2).nextBytes(unique);
+        File file = FileSystem.getInstance().write("/gc.dat", new ByteArrayInputStream(unique), 0);
+        assertEquals(2, getLinkCount(file));
+        BlobStore.getInstance().gc();
+        assertTrue(file.exists());
+        assertEquals(2, getLinkCount(file));
+
+        FileOperations.getInstance().delete("/gc.dat", false);
+        long collected = BlobStore.getInstance().gc();
+        assertTrue(collected >= 1);
+        try (Stream<Path> stream = Files.walk(FileSystem.getInstance().getMetaDir().toPath())) {
+            assertTrue(stream.filter(Files::isRegularFile).allMatch(path -> {
+                try {
+                    return getLinkCount(path.toFile()) > 1;
+                } catch (Exception ex) {
+                    return false;
+                }
+            }));
+        }
+    }
+
+    private static Object getInode(File file) throws Exception {
+        return Files.getAttribute(file.toPath(), "unix:ino");
+    }
+
+    private static int getLinkCount(File file) throws Exception {
+        return (Integer) Files.getAttribute(file.toPath(), "unix:nlink");
+    }
+}
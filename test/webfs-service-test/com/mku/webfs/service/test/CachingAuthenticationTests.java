@@ -0,0 +1,154 @@
+package com.mku.webfs.service.test;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.security.AuthUsers;
+import com.mku.webfs.service.security.AuthUsersDetailsService;
+import com.mku.webfs.service.security.CachingAuthenticationProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Cached authentications, only verified credentials are cached and they are dropped when the users
+ * change or the TTL expires
+ */
+public class CachingAuthenticationTests {
+    private static final String USER = "cached_user";
+    private static final String OTHER_USER = "cached_other";
+
+    private CountingProvider delegate;
+
+    /**
+     * Counts the authentications that are not served from the cache
+     */
+    private static class CountingProvider implements AuthenticationProvider {
+        private final DaoAuthenticationProvider provider = new DaoAuthenticationProvider();
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private CountingProvider() {
+            // the lowest cost, the tests only count the calls
+            BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder(4);
+            provider.setPasswordEncoder(passwordEncoder);
+            provider.setUserDetailsService(new AuthUsersDetailsService(passwordEncoder));
+        }
+
+        @Override
+        public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+            calls.incrementAndGet();
+            return provider.authenticate(authentication);
+        }
+
+        @Override
+        public boolean supports(Class<?> authentication) {
+            return provider.supports(authentication);
+        }
+    }
+
+    @BeforeEach
+    public void setup() throws Exception {
+        AuthUsers.addUser(USER, "password", "READ");
+        delegate = new CountingProvider();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        for (String user : new String[]{USER, OTHER_USER}) {
+            try {
+                AuthUsers.removeUser(user);
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void testCached() {
+        CachingAuthenticationProvider provider = new CachingAuthenticationProvider(delegate, 60_000);
+        Authentication first = provider.authenticate(token(USER, "password"));
+        assertTrue(first.isAuthenticated());
+        assertSame(first, provider.authenticate(token(USER, "password")));
+        assertEquals(1, delegate.calls.get());
+    }
+
+    @Test
+    public void testWrongPassword() {
+        CachingAuthenticationProvider provider = new CachingAuthenticationProvider(delegate, 60_000);
+        provider.authenticate(token(USER, "password"));
+        // the wrong password is verified every time even if the user is cached
+        for (int i = 0; i < 3; i++)
+            assertThrows(BadCredentialsException.class, () -> provider.authenticate(token(USER, "wrong")));
+        assertEquals(4, delegate.calls.get());
+        assertThrows(BadCredentialsException.class, () -> provider.authenticate(token(OTHER_USER, "password")));
+    }
+
+    @Test
+    public void testUsersChanged() throws Exception {
+        CachingAuthenticationProvider provider = new CachingAuthenticationProvider(delegate, 60_000);
+        provider.authenticate(token(USER, "password"));
+
+        // any change of the users invalidates the cache
+        AuthUsers.addUser(OTHER_USER, "password", "READ");
+        provider.authenticate(token(USER, "password"));
+        assertEquals(2, delegate.calls.get());
+
+        // password changed
+        AuthUsers.removeUser(USER);
+        AuthUsers.addUser(USER, "changed", "READ");
+        assertThrows(BadCredentialsException.class, () -> provider.authenticate(token(USER, "password")));
+        assertTrue(provider.authenticate(token(USER, "changed")).isAuthenticated());
+
+        // removed
+        AuthUsers.removeUser(USER);
+        assertThrows(BadCredentialsException.class, () -> provider.authenticate(token(USER, "changed")));
+    }
+
+    @Test
+    public void testExpired() throws Exception {
+        CachingAuthenticationProvider provider = new CachingAuthenticationProvider(delegate, 100);
+        provider.authenticate(token(USER, "password"));
+        Thread.sleep(200);
+        provider.authenticate(token(USER, "password"));
+        assertEquals(2, delegate.calls.get());
+
+        CachingAuthenticationProvider disabled = new CachingAuthenticationProvider(delegate, 0);
+        disabled.authenticate(token(USER, "password"));
+        disabled.authenticate(token(USER, "password"));
+        assertEquals(4, delegate.calls.get());
+    }
+
+    private static UsernamePasswordAuthenticationToken token(String user, String password) {
+        return new UsernamePasswordAuthenticationToken(user, password);
+    }
+}
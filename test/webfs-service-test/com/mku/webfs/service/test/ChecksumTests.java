@@ -0,0 +1,176 @@
+package com.mku.webfs.service.test;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.controller.ChecksumResponse;
+import com.mku.webfs.service.controller.Checksums;
+import com.mku.webfs.service.controller.DeltaSync;
+import com.mku.webfs.service.controller.FileOperations;
+import com.mku.webfs.service.controller.FileSystem;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Server side checksums, tree hashing of large files and reuse of stored checksums
+ */
+public class ChecksumTests {
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static File root;
+    private static byte[] data;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        root = WebFSTestHelper.createRoot("webfs_checksum");
+        Checksums.getInstance().configure(CHUNK_SIZE, 4);
+        data = new byte[CHUNK_SIZE * 3 + 1000];
+        new Random(1).nextBytes(data);
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        WebFSTestHelper.deleteRoot(root);
+    }
+
+    @Test
+    public void testAlgorithms() throws Exception {
+        File file = WebFSTestHelper.write("/abc.txt", "abc".getBytes());
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                Checksums.getInstance().getChecksum(file, Checksums.Algorithm.SHA256).getDigest());
+        assertEquals("364b3fb7", Checksums.getInstance().getChecksum(file, Checksums.Algorithm.CRC32C).getDigest());
+        assertEquals("44bc2cf5ad770999", Checksums.getInstance().getChecksum(file, Checksums.Algorithm.XXHASH64).getDigest());
+        assertEquals(Checksums.Algorithm.SHA256, Checksums.Algorithm.fromName("SHA-256"));
+        assertThrows(IOException.class, () -> Checksums.Algorithm.fromName("md5"));
+    }
+
+    @Test
+    public void testTree() throws Exception {
+        File file = WebFSTestHelper.write("/tree.dat", data);
+        ChecksumResponse response = Checksums.getInstance().getChecksum(file, Checksums.Algorithm.SHA256);
+        assertEquals(CHUNK_SIZE, response.getChunkSize());
+
+        MessageDigest tree = MessageDigest.getInstance("SHA-256");
+        for (int pos = 0; pos < data.length; pos += CHUNK_SIZE) {
+            MessageDigest chunk = MessageDigest.getInstance("SHA-256");
+            chunk.update(data, pos, Math.min(CHUNK_SIZE, data.length - pos));
+            tree.update(chunk.digest());
+        }
+        assertEquals(toHex(tree.digest()), response.getDigest());
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        File file = WebFSTestHelper.write("/cache.dat", data);
+        // a checksum of a file modified just now is not reused
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(System.currentTimeMillis() - 60000));
+        ChecksumResponse response = Checksums.getInstance().getChecksum(file, Checksums.Algorithm.XXHASH64);
+        assertFalse(response.isCached());
+        ChecksumResponse cached = Checksums.getInstance().getChecksum(file, Checksums.Algorithm.XXHASH64);
+        assertTrue(cached.isCached());
+        assertEquals(response.getDigest(), cached.getDigest());
+
+        FileSystem.getInstance().write(file, new ByteArrayInputStream(new byte[]{1, 2, 3}), 10);
+        ChecksumResponse modified = Checksums.getInstance().getChecksum(file, Checksums.Algorithm.XXHASH64);
+        assertFalse(modified.isCached());
+        assertNotEquals(response.getDigest(), modified.getDigest());
+    }
+
+    @Test
+    public void testSidecars() throws Exception {
+        Checksums.getInstance().setExtendedAttributes(false);
+        try {
+            File deleted = WebFSTestHelper.write("/sidecar_deleted.dat", data);
+            Files.setLastModifiedTime(deleted.toPath(), FileTime.fromMillis(System.currentTimeMillis() - 60000));
+            Checksums.getInstance().getChecksum(deleted, Checksums.Algorithm.SHA256);
+            assertTrue(Checksums.getInstance().getChecksum(deleted, Checksums.Algorithm.SHA256).isCached());
+            assertEquals(1, countSidecars());
+            FileOperations.getInstance().delete("/sidecar_deleted.dat", false);
+            assertEquals(0, countSidecars());
+
+            // the sidecar follows the renamed file, the one of the replaced file is removed
+            File replaced = WebFSTestHelper.write("/sidecar_replaced.dat", "replaced".getBytes());
+            File renamed = WebFSTestHelper.write("/sidecar_renamed.dat", "renamed".getBytes());
+            Checksums.getInstance().getChecksum(replaced, Checksums.Algorithm.CRC32C);
+            Checksums.getInstance().getChecksum(renamed, Checksums.Algorithm.CRC32C);
+            assertEquals(2, countSidecars());
+            FileOperations.getInstance().rename("/sidecar_renamed.dat", "sidecar_replaced.dat");
+            assertEquals(1, countSidecars());
+
+            // the temp file of a patch is verified without storing its checksum
+            byte[] target = "patched".getBytes();
+            String checksum = Checksums.getInstance().getChecksum(
+                    WebFSTestHelper.write("/sidecar_expected.dat", target), Checksums.Algorithm.SHA256).getDigest();
+            FileOperations.getInstance().delete("/sidecar_expected.dat", false);
+            assertEquals(1, countSidecars());
+            DeltaSync.getInstance().patch(replaced, new ByteArrayInputStream(createDelta(target)), checksum);
+            assertArrayEquals(target, Files.readAllBytes(replaced.toPath()));
+            assertEquals(0, countSidecars());
+        } finally {
+            Checksums.getInstance().setExtendedAttributes(true);
+        }
+    }
+
+    private static long countSidecars() throws IOException {
+        Path dir = FileSystem.getInstance().getMetaDir().toPath().resolve("checksums");
+        if (!Files.isDirectory(dir))
+            return 0;
+        try (Stream<Path> stream = Files.walk(dir)) {
+            return stream.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private static byte[] createDelta(byte[] target) throws IOException {
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(delta);
+        output.write("WFSD".getBytes());
+        output.writeInt(DeltaSync.VERSION);
+        output.writeLong(target.length);
+        output.writeByte(DeltaSync.OP_DATA);
+        output.writeInt(target.length);
+        output.write(target);
+        output.writeByte(DeltaSync.OP_END);
+        return delta.toByteArray();
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes)
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+}
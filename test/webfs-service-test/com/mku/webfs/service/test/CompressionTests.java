@@ -0,0 +1,121 @@
+package com.mku.webfs.service.test;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.controller.Compression;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Content coding negotiation, incompressible content detection and encode/decode round trips
+ */
+public class CompressionTests {
+    private static File root;
+    private static File text;
+    private static File random;
+    private static File archive;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        root = Files.createTempDirectory("webfs_compression").toFile();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++)
+            sb.append("{\"id\":").append(i).append(",\"name\":\"entry ").append(i).append("\"}\n");
+        text = new File(root, "log.json");
+        Files.write(text.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        byte[] data = new byte[64 * 1024];
+        new Random(1).nextBytes(data);
+        random = new File(root, "data.bin");
+        Files.write(random.toPath(), data);
+        archive = new File(root, "log.zip");
+        Files.write(archive.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        Compression.getInstance().configure(true, 6, 3, 1024, null);
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        text.delete();
+        random.delete();
+        archive.delete();
+        root.delete();
+    }
+
+    @Test
+    public void testNegotiate() {
+        Compression compression = Compression.getInstance();
+        assertEquals(Compression.Codec.GZIP, compression.getAcceptedCodec("gzip, deflate"));
+        assertEquals(Compression.Codec.ZSTD, compression.getAcceptedCodec("gzip, zstd"));
+        assertEquals(Compression.Codec.GZIP, compression.getAcceptedCodec("zstd;q=0.5, gzip;q=0.8"));
+        assertEquals(Compression.Codec.GZIP, compression.getAcceptedCodec("zstd;q=0, *"));
+        assertNull(compression.getAcceptedCodec("identity"));
+        assertNull(compression.getAcceptedCodec("gzip;q=0, br"));
+        assertNull(compression.getAcceptedCodec("*;q=0"));
+    }
+
+    @Test
+    public void testCompressible() throws IOException {
+        Compression compression = Compression.getInstance();
+        assertEquals(Compression.Codec.GZIP, compression.negotiate("gzip", text, 0, text.length()));
+        // sampled from the requested position
+        assertEquals(Compression.Codec.GZIP, compression.negotiate("gzip", text, 5000, text.length() - 5000));
+        assertNull(compression.negotiate("gzip", random, 0, random.length()));
+        assertNull(compression.negotiate("gzip", archive, 0, archive.length()));
+        assertNull(compression.negotiate("gzip", text, 0, 100));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] data = Files.readAllBytes(text.toPath());
+        for (Compression.Codec codec : Compression.Codec.values()) {
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            try (OutputStream outputStream = Compression.getInstance().encode(codec, encoded)) {
+                outputStream.write(data);
+            }
+            assertTrue(encoded.size() < data.length / 4, codec + " ratio");
+            try (InputStream inputStream = Compression.getInstance().decode(codec.getName(),
+                    new ByteArrayInputStream(encoded.toByteArray()))) {
+                assertArrayEquals(data, inputStream.readAllBytes(), codec.getName());
+            }
+        }
+        assertTrue(Compression.getInstance().isIdentity("identity"));
+        ResponseStatusException ex = assertThrows(ResponseStatusException.class,
+                () -> Compression.getInstance().decode("br", new ByteArrayInputStream(data)));
+        assertEquals(HttpStatus.UNSUPPORTED_MEDIA_TYPE, ex.getStatus());
+    }
+}
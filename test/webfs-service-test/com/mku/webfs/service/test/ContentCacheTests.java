@@ -0,0 +1,143 @@
+package com.mku.webfs.service.test;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.controller.ContentCache;
+import com.mku.webfs.service.controller.MetadataCache;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Contents of small hot files held in memory, admission and invalidation
+ */
+public class ContentCacheTests {
+    private static final int MAX_FILE_SIZE = 1024;
+    private static File root;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        root = WebFSTestHelper.createRoot("webfs_content");
+        ContentCache.getInstance().configure(true, MAX_FILE_SIZE, 4 * MAX_FILE_SIZE);
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        WebFSTestHelper.deleteRoot(root);
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        File file = WebFSTestHelper.write("/hit.conf", "version=1".getBytes());
+        // read into the cache on the second download
+        assertNull(get(file));
+        assertEquals("version=1", toString(get(file)));
+        long hits = getStat("hits");
+        assertEquals("version=1", toString(get(file)));
+        assertEquals(hits + 1, getStat("hits"));
+
+        File large = WebFSTestHelper.write("/large.dat", new byte[MAX_FILE_SIZE + 1]);
+        get(large);
+        assertNull(get(large));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        File file = WebFSTestHelper.write("/conf.json", "{\"v\":1}".getBytes());
+        get(file);
+        assertEquals("{\"v\":1}", toString(get(file)));
+
+        // written by the service
+        WebFSTestHelper.write("/conf.json", "{\"v\":22}".getBytes());
+        assertEquals("{\"v\":22}", toString(get(file)));
+        waitForEvents();
+        get(file);
+
+        // written outside of the service, the watcher invalidates the contents
+        long invalidations = getStat("invalidations");
+        Files.write(file.toPath(), "{\"v\":33}".getBytes());
+        for (int i = 0; i < 100 && getStat("invalidations") == invalidations; i++)
+            Thread.sleep(100);
+        assertTrue(getStat("invalidations") > invalidations);
+        assertEquals("{\"v\":33}", toString(get(file)));
+    }
+
+    @Test
+    public void testAdmission() throws Exception {
+        ContentCache.getInstance().configure(true, MAX_FILE_SIZE, 2 * MAX_FILE_SIZE);
+        try {
+            File hot1 = WebFSTestHelper.write("/hot1.dat", new byte[MAX_FILE_SIZE]);
+            File hot2 = WebFSTestHelper.write("/hot2.dat", new byte[MAX_FILE_SIZE]);
+            waitForEvents();
+            for (int i = 0; i < 5; i++) {
+                get(hot1);
+                get(hot2);
+            }
+            // a file downloaded less often doesn't evict the hot files
+            File cold = WebFSTestHelper.write("/cold.dat", new byte[MAX_FILE_SIZE]);
+            waitForEvents();
+            for (int i = 0; i < 2; i++)
+                assertNull(get(cold));
+            assertNotNull(get(hot1));
+            assertNotNull(get(hot2));
+            assertEquals(2L * MAX_FILE_SIZE, getStat("bytes"));
+        } finally {
+            ContentCache.getInstance().configure(true, MAX_FILE_SIZE, 4 * MAX_FILE_SIZE);
+        }
+    }
+
+    private static ByteBuffer get(File file) throws IOException {
+        return ContentCache.getInstance().get(file, Files.readAttributes(file.toPath(), BasicFileAttributes.class));
+    }
+
+    private static long getStat(String name) {
+        return ((Number) ContentCache.getInstance().getStats().get(name)).longValue();
+    }
+
+    /**
+     * Wait until the watcher has reported the writes of the test, a late event invalidates the contents
+     * that are being cached.
+     */
+    private static void waitForEvents() throws InterruptedException {
+        long invalidations;
+        do {
+            invalidations = ((Number) MetadataCache.getInstance().getStats().get("invalidations")).longValue();
+            Thread.sleep(200);
+        } while (((Number) MetadataCache.getInstance().getStats().get("invalidations")).longValue() != invalidations);
+    }
+
+    private static String toString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes);
+    }
+}
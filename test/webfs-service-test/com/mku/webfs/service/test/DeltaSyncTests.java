@@ -0,0 +1,236 @@
+package com.mku.webfs.service.test;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.controller.Checksums;
+import com.mku.webfs.service.controller.DeltaSync;
+import com.mku.webfs.service.controller.FileSystem;
+import com.mku.webfs.service.controller.RollingChecksum;
+import net.jpountz.xxhash.XXHash64;
+import net.jpountz.xxhash.XXHashFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Block signatures and patches, the delta is generated here like a client would
+ */
+public class DeltaSyncTests {
+    private static final int BLOCK_SIZE = 4096;
+    private static File root;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        root = WebFSTestHelper.createRoot("webfs_delta");
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        WebFSTestHelper.deleteRoot(root);
+    }
+
+    @Test
+    public void testRollingChecksum() {
+        byte[] data = new byte[10000];
+        new Random(1).nextBytes(data);
+        RollingChecksum checksum = new RollingChecksum();
+        checksum.update(data, 0, 1000);
+        for (int i = 0; i < 5000; i++) {
+            checksum.roll(data[i], data[i + 1000]);
+            assertEquals(RollingChecksum.of(data, i + 1, 1000), checksum.getValue());
+        }
+    }
+
+    @Test
+    public void testPatch() throws Exception {
+        byte[] basis = new byte[BLOCK_SIZE * 100 + 123];
+        new Random(2).nextBytes(basis);
+        File file = FileSystem.getInstance().write("/image.dat", new ByteArrayInputStream(basis), 0);
+
+        // insert bytes so the following blocks move to unaligned offsets, change a block and append
+        ByteArrayOutputStream modified = new ByteArrayOutputStream();
+        modified.write(basis, 0, 5000);
+        modified.write("inserted".getBytes());
+        modified.write(basis, 5000, 50000);
+        byte[] changed = new byte[BLOCK_SIZE];
+        new Random(3).nextBytes(changed);
+        modified.write(changed);
+        modified.write(basis, 55000 + BLOCK_SIZE, basis.length - 55000 - BLOCK_SIZE);
+        modified.write("appended".getBytes());
+        byte[] target = modified.toByteArray();
+
+        ByteArrayOutputStream signature = new ByteArrayOutputStream();
+        DeltaSync.getInstance().writeSignature(file, file.length(), BLOCK_SIZE, signature);
+        assertEquals(DeltaSync.getInstance().getSignatureLength(file.length(), BLOCK_SIZE), signature.size());
+
+        int[] literalLength = new int[1];
+        byte[] delta = createDelta(signature.toByteArray(), target, literalLength);
+        assertTrue(literalLength[0] < BLOCK_SIZE * 4, "literal bytes " + literalLength[0]);
+
+        File expected = new File(root, "expected.dat");
+        Files.write(expected.toPath(), target);
+        String checksum = Checksums.getInstance().getChecksum(expected, Checksums.Algorithm.SHA256).getDigest();
+        DeltaSync.getInstance().patch(file, new ByteArrayInputStream(delta), checksum);
+        assertArrayEquals(target, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void testIncompleteDelta() throws Exception {
+        byte[] basis = new byte[BLOCK_SIZE * 4];
+        new Random(4).nextBytes(basis);
+        File file = FileSystem.getInstance().write("/keep.dat", new ByteArrayInputStream(basis), 0);
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(delta);
+        output.write("WFSD".getBytes());
+        output.writeInt(DeltaSync.VERSION);
+        output.writeLong(BLOCK_SIZE);
+        output.writeByte(DeltaSync.OP_COPY);
+        output.writeLong(0);
+        output.writeLong(BLOCK_SIZE);
+        // no END
+        assertThrows(IOException.class, () -> DeltaSync.getInstance().patch(file, new ByteArrayInputStream(delta.toByteArray()), null));
+        assertArrayEquals(basis, Files.readAllBytes(file.toPath()));
+
+        output.writeByte(DeltaSync.OP_END);
+        assertThrows(IOException.class, () -> DeltaSync.getInstance().patch(file, new ByteArrayInputStream(delta.toByteArray()), "00"));
+        assertArrayEquals(basis, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void testDeltaLength() throws Exception {
+        byte[] basis = new byte[BLOCK_SIZE * 4];
+        new Random(5).nextBytes(basis);
+        File file = FileSystem.getInstance().write("/bounded.dat", new ByteArrayInputStream(basis), 0);
+
+        // copies of the whole file repeated past the length of the new file
+        byte[] longer = createCopies(basis.length, 2, 3);
+        assertThrows(IOException.class, () -> DeltaSync.getInstance().patch(file, new ByteArrayInputStream(longer), null));
+        // shorter than the length of the new file
+        byte[] shorter = createCopies(basis.length, 2, 1);
+        assertThrows(IOException.class, () -> DeltaSync.getInstance().patch(file, new ByteArrayInputStream(shorter), null));
+        assertArrayEquals(basis, Files.readAllBytes(file.toPath()));
+        String[] tmpFiles = FileSystem.getInstance().getTempDir().list();
+        assertEquals(0, tmpFiles != null ? tmpFiles.length : 0);
+
+        byte[] exact = createCopies(basis.length, 2, 2);
+        DeltaSync.getInstance().patch(file, new ByteArrayInputStream(exact), null);
+        assertEquals(basis.length * 2L, file.length());
+    }
+
+    private static byte[] createCopies(int basisLength, int copiesLength, int copies) throws IOException {
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(delta);
+        output.write("WFSD".getBytes());
+        output.writeInt(DeltaSync.VERSION);
+        output.writeLong((long) basisLength * copiesLength);
+        for (int i = 0; i < copies; i++) {
+            output.writeByte(DeltaSync.OP_COPY);
+            output.writeLong(0);
+            output.writeLong(basisLength);
+        }
+        output.writeByte(DeltaSync.OP_END);
+        return delta.toByteArray();
+    }
+
+    /**
+     * Find the blocks of the signature in the target with the rolling checksum and write the delta.
+     */
+    private static byte[] createDelta(byte[] signature, byte[] target, int[] literalLength) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(signature));
+        input.skipBytes(8);
+        int blockSize = input.readInt();
+        long length = input.readLong();
+        input.readInt();
+        int blocks = (int) ((length + blockSize - 1) / blockSize);
+        Map<Integer, List<Integer>> weak = new HashMap<>();
+        long[] strong = new long[blocks];
+        for (int i = 0; i < blocks; i++) {
+            weak.computeIfAbsent(input.readInt(), k -> new ArrayList<>()).add(i);
+            strong[i] = input.readLong();
+        }
+        XXHash64 hash = XXHashFactory.fastestInstance().hash64();
+
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(delta);
+        output.write("WFSD".getBytes());
+        output.writeInt(DeltaSync.VERSION);
+        output.writeLong(target.length);
+        int literalStart = 0;
+        int pos = 0;
+        RollingChecksum checksum = new RollingChecksum();
+        boolean rolling = false;
+        while (pos + blockSize <= target.length) {
+            if (!rolling) {
+                checksum.reset();
+                checksum.update(target, pos, blockSize);
+                rolling = true;
+            }
+            Integer match = null;
+            for (int block : weak.getOrDefault(checksum.getValue(), Collections.emptyList())) {
+                if (block < blocks - 1 || length % blockSize == 0) {
+                    if (hash.hash(target, pos, blockSize, 0) == strong[block]) {
+                        match = block;
+                        break;
+                    }
+                }
+            }
+            if (match != null) {
+                writeData(output, target, literalStart, pos, literalLength);
+                output.writeByte(DeltaSync.OP_COPY);
+                output.writeLong((long) match * blockSize);
+                output.writeLong(blockSize);
+                pos += blockSize;
+                literalStart = pos;
+                rolling = false;
+            } else {
+                if (pos + blockSize < target.length)
+                    checksum.roll(target[pos], target[pos + blockSize]);
+                pos++;
+            }
+        }
+        writeData(output, target, literalStart, target.length, literalLength);
+        output.writeByte(DeltaSync.OP_END);
+        return delta.toByteArray();
+    }
+
+    private static void writeData(DataOutputStream output, byte[] target, int start, int end, int[] literalLength) throws IOException {
+        if (end <= start)
+            return;
+        output.writeByte(DeltaSync.OP_DATA);
+        output.writeInt(end - start);
+        output.write(target, start, end - start);
+        literalLength[0] += end - start;
+    }
+}
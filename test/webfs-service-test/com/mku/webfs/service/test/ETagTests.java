@@ -0,0 +1,129 @@
+package com.mku.webfs.service.test;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.controller.ByteRanges;
+import com.mku.webfs.service.controller.ETags;
+import com.mku.webfs.service.controller.FileOperations;
+import com.mku.webfs.service.controller.FileResponse;
+import com.mku.webfs.service.controller.FileSystem;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Entity tags of files and listings and the If-Match and If-Range preconditions
+ */
+public class ETagTests {
+    private static File root;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        root = WebFSTestHelper.createRoot("webfs_etag");
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        WebFSTestHelper.deleteRoot(root);
+    }
+
+    @Test
+    public void testFileETag() throws Exception {
+        File file = WebFSTestHelper.write("/file.dat", new byte[]{1, 2, 3});
+        String etag = ETags.getETag(file);
+        assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+        assertEquals(etag, ETags.getETag(file));
+        assertEquals(etag, new FileResponse(file).getEtag());
+
+        FileSystem.getInstance().write(file, new ByteArrayInputStream(new byte[]{4}), 1);
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(System.currentTimeMillis() + 1000));
+        assertNotEquals(etag, ETags.getETag(file));
+        assertNull(ETags.getETag(new File(root, "missing.dat")));
+    }
+
+    @Test
+    public void testContentCodingETag() throws Exception {
+        File file = WebFSTestHelper.write("/coded.json", "{\"a\":1}".getBytes());
+        BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        String identity = ETags.getETag(attrs, null);
+        String gzip = ETags.getETag(attrs, "gzip");
+        String zstd = ETags.getETag(attrs, "zstd");
+        assertEquals(ETags.getETag(attrs), identity);
+        assertNotEquals(identity, gzip);
+        assertNotEquals(gzip, zstd);
+        assertTrue(gzip.startsWith("\"") && gzip.endsWith("-gzip\""));
+
+        // ranges are sent as identity, the tag of an encoded body never validates them
+        assertTrue(ByteRanges.isRangeValid(file, identity));
+        assertFalse(ByteRanges.isRangeValid(file, gzip));
+    }
+
+    @Test
+    public void testIfMatch() throws Exception {
+        File file = WebFSTestHelper.write("/match.dat", new byte[]{1, 2, 3});
+        String etag = ETags.getETag(file);
+        ETags.checkIfMatch(null, file);
+        ETags.checkIfMatch(etag, file);
+        ETags.checkIfMatch("\"other\", " + etag, file);
+        ETags.checkIfMatch("*", file);
+        assertThrows(ResponseStatusException.class, () -> ETags.checkIfMatch("\"other\"", file));
+        assertThrows(ResponseStatusException.class, () -> ETags.checkIfMatch("W/" + etag, file));
+        assertThrows(ResponseStatusException.class, () -> ETags.checkIfMatch("*", new File(root, "missing.dat")));
+
+        assertTrue(ByteRanges.isRangeValid(file, etag));
+        assertFalse(ByteRanges.isRangeValid(file, "W/" + etag));
+        assertFalse(ByteRanges.isRangeValid(file, "\"other\""));
+    }
+
+    @Test
+    public void testListETag() throws Exception {
+        new File(root, "dir").mkdir();
+        File file = WebFSTestHelper.write("/dir/a.dat", new byte[]{1, 2, 3});
+        WebFSTestHelper.write("/dir/b.dat", new byte[]{1});
+        String etag = getListETag("/dir");
+        assertTrue(etag.startsWith("W/\""));
+        assertEquals(etag, getListETag("/dir"));
+
+        // writing a file in place doesn't change the directory but changes the tag
+        FileSystem.getInstance().write(file, new ByteArrayInputStream(new byte[]{4, 5, 6, 7}), 0);
+        assertNotEquals(etag, getListETag("/dir"));
+    }
+
+    private static String getListETag(String path) throws IOException {
+        FileResponse dir = new FileResponse(FileSystem.getInstance().getFile(path));
+        List<FileResponse> entries = FileOperations.getInstance().list(path);
+        return ETags.getETag(dir, entries);
+    }
+}
@@ -0,0 +1,111 @@
+package com.mku.webfs.service.test;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.controller.FileSystem;
+import com.mku.webfs.service.controller.FileTransfer;
+import com.mku.webfs.service.metrics.FileMetrics;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The meters of the file operations read back from a registry
+ */
+public class FileMetricsTests {
+    private static File root;
+    private static SimpleMeterRegistry registry;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        root = WebFSTestHelper.createRoot("webfs_metrics");
+        registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+        // the meters are created with the instance
+        FileMetrics.getInstance();
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        Metrics.removeRegistry(registry);
+        WebFSTestHelper.deleteRoot(root);
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        long writes = getDiskCount("write");
+        double bytesWritten = registry.get("webfs.bytes.written").counter().count();
+        FileSystem.getInstance().write("/write.dat", new ByteArrayInputStream(new byte[100_000]), 0);
+        assertTrue(getDiskCount("write") > writes);
+        assertEquals(bytesWritten + 100_000, registry.get("webfs.bytes.written").counter().count());
+    }
+
+    @Test
+    public void testSend() throws Exception {
+        File file = FileSystem.getInstance().write("/send.dat", new ByteArrayInputStream(new byte[200_000]), 0);
+        long sends = registry.get("webfs.transfers.send").timer().count();
+        long reads = getDiskCount("read");
+        double bytesRead = registry.get("webfs.bytes.read").counter().count();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertEquals(150_000, FileTransfer.getInstance().transfer(file, 50_000, 150_000, outputStream));
+        assertEquals(150_000, outputStream.size());
+
+        // transferTo includes the time of the target so it's not counted as a disk read
+        assertEquals(sends + 1, registry.get("webfs.transfers.send").timer().count());
+        assertEquals(reads, getDiskCount("read"));
+        assertEquals(bytesRead + 150_000, registry.get("webfs.bytes.read").counter().count());
+    }
+
+    @Test
+    public void testCounters() {
+        double rejected = registry.get("webfs.qos.rejected").counter().count();
+        FileMetrics.getInstance().rejected();
+        assertEquals(rejected + 1, registry.get("webfs.qos.rejected").counter().count());
+
+        FileMetrics.getInstance().error(new IOException("test"));
+        FileMetrics.getInstance().error(new IOException("test"));
+        assertEquals(2, registry.get("webfs.errors").tag("exception", "IOException").counter().count());
+
+        FileMetrics.getInstance().throttled(FileMetrics.Direction.UPLOAD, 1_000_000);
+        assertEquals(1, registry.get("webfs.qos.throttled").tag("direction", "upload").timer().count());
+
+        FileMetrics.getInstance().transferStarted(FileMetrics.Direction.DOWNLOAD);
+        double active = registry.get("webfs.transfers.active").tag("direction", "download").gauge().value();
+        FileMetrics.getInstance().transferEnded(FileMetrics.Direction.DOWNLOAD);
+        assertEquals(active - 1, registry.get("webfs.transfers.active").tag("direction", "download").gauge().value());
+    }
+
+    private static long getDiskCount(String operation) {
+        return registry.get("webfs.disk.io").tag("operation", operation).timer().count();
+    }
+}
@@ -0,0 +1,100 @@
+package com.mku.webfs.service.test;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.controller.FileOperations;
+import com.mku.webfs.service.controller.FileResponse;
+import com.mku.webfs.service.controller.FileSystem;
+import com.mku.webfs.service.controller.TreeResponse;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * File operations on the root and the service data directory
+ */
+public class FileOperationsTests {
+    private static File root;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        root = WebFSTestHelper.createRoot("webfs_operations");
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        WebFSTestHelper.deleteRoot(root);
+    }
+
+    @Test
+    public void testDeleteRoot() throws Exception {
+        File tmpDir = FileSystem.getInstance().getTempDir();
+        tmpDir.mkdirs();
+        FileOperations.getInstance().mkdir("/tree");
+        WebFSTestHelper.write("/tree/file.dat", new byte[]{1, 2, 3});
+
+        assertThrows(IOException.class, () -> FileOperations.getInstance().delete("/", true));
+        assertThrows(IOException.class, () -> FileOperations.getInstance().delete("/", false));
+        assertTrue(tmpDir.isDirectory());
+        assertTrue(new File(root, "tree/file.dat").exists());
+
+        TreeResponse response = (TreeResponse) FileOperations.getInstance().delete("/tree", true);
+        assertEquals(1, response.getFiles());
+        assertFalse(new File(root, "tree").exists());
+        assertTrue(tmpDir.isDirectory());
+    }
+
+    @Test
+    public void testListRootPages() throws Exception {
+        FileSystem.getInstance().getTempDir().mkdirs();
+        for (int i = 0; i < 5; i++)
+            WebFSTestHelper.write("/page" + i + ".dat", new byte[]{1});
+
+        List<String> names = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            FileOperations.Page page = FileOperations.getInstance().listPage("/", 2, cursor);
+            for (FileResponse response : page.getEntries())
+                names.add(response.getName());
+            cursor = page.getCursor();
+            pages++;
+            assertTrue(page.getEntries().size() == 2 || cursor == null);
+        } while (cursor != null);
+
+        assertFalse(names.contains(".webfs"));
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+            expected.add("page" + i + ".dat");
+        assertTrue(names.containsAll(expected));
+        assertTrue(pages >= 3);
+    }
+}
@@ -0,0 +1,117 @@
+package com.mku.webfs.service.test;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.controller.FileSystem;
+import com.mku.webfs.service.controller.FileTransfer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Transfers of file regions to sockets and streams and native copies, the throughput is measured
+ * by TransferBenchmark in webfs-bench
+ */
+public class FileTransferTests {
+    // larger than the 8 MB chunks of FileTransfer so a transfer takes more than one call
+    private static final int FILE_LENGTH = 9 * 1024 * 1024 + 17;
+    private static File root;
+    private static File file;
+    private static byte[] data;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        root = WebFSTestHelper.createRoot("webfs_transfer");
+        data = WebFSTestHelper.getRandArray(FILE_LENGTH);
+        file = WebFSTestHelper.write("/transfer.dat", data);
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        WebFSTestHelper.deleteRoot(root);
+    }
+
+    @Test
+    public void testTransferToSocket() throws Exception {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            Thread drain = new Thread(() -> {
+                try (SocketChannel client = server.accept()) {
+                    ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                    while (client.read(buffer) >= 0) {
+                        received.write(buffer.array(), 0, buffer.position());
+                        buffer.clear();
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            drain.start();
+
+            try (SocketChannel socket = SocketChannel.open(server.getLocalAddress());
+                 FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                assertEquals(FILE_LENGTH, FileTransfer.getInstance().transfer(channel, 0, FILE_LENGTH, socket));
+                assertEquals(1000, FileTransfer.getInstance().transfer(channel, 5000, 1000, socket));
+                // positioned transfers don't move the channel
+                assertEquals(0, channel.position());
+            }
+            drain.join();
+            byte[] bytes = received.toByteArray();
+            assertEquals(FILE_LENGTH + 1000, bytes.length);
+            assertArrayEquals(data, Arrays.copyOf(bytes, FILE_LENGTH));
+            assertArrayEquals(Arrays.copyOfRange(data, 5000, 6000), Arrays.copyOfRange(bytes, FILE_LENGTH, bytes.length));
+        }
+    }
+
+    @Test
+    public void testTransferToStream() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertEquals(FILE_LENGTH - 100, FileTransfer.getInstance().transfer(file, 100, FILE_LENGTH - 100, outputStream));
+        assertArrayEquals(Arrays.copyOfRange(data, 100, FILE_LENGTH), outputStream.toByteArray());
+    }
+
+    @Test
+    public void testCopy() throws Exception {
+        // a longer file is replaced, not overwritten in place
+        File dest = WebFSTestHelper.write("/copy.dat", WebFSTestHelper.getRandArray(FILE_LENGTH + 1000));
+        FileSystem.getInstance().copy(file, dest);
+        assertArrayEquals(data, Files.readAllBytes(dest.toPath()));
+    }
+}
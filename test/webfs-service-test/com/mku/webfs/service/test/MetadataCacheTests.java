@@ -0,0 +1,142 @@
+package com.mku.webfs.service.test;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.controller.FileResponse;
+import com.mku.webfs.service.controller.MetadataCache;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * File info and listings cache, eviction, admission and concurrent invalidation
+ */
+public class MetadataCacheTests {
+    private static final int MAX_ENTRIES = 16;
+    private static File root;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        root = WebFSTestHelper.createRoot("webfs_metadata");
+        MetadataCache.getInstance().setLimits(true, MAX_ENTRIES, 64 * 1024 * 1024);
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        WebFSTestHelper.deleteRoot(root);
+    }
+
+    @Test
+    public void testBounded() throws Exception {
+        File dir = mkdir("bounded");
+        for (int i = 0; i < 5 * MAX_ENTRIES; i++)
+            MetadataCache.getInstance().getInfo(WebFSTestHelper.write("/bounded/" + i + ".dat", new byte[i]));
+        assertTrue(getStat("entries") <= MAX_ENTRIES);
+        assertTrue(getStat("evictions") + getStat("rejections") > 0);
+        for (int i = 0; i < 5 * MAX_ENTRIES; i++)
+            assertEquals(i, MetadataCache.getInstance().getInfo(new File(dir, i + ".dat")).getLength());
+    }
+
+    @Test
+    public void testAdmission() throws Exception {
+        // start without the frequent entries of the other tests
+        MetadataCache.getInstance().setLimits(true, MAX_ENTRIES, 64 * 1024 * 1024);
+        mkdir("admission");
+        List<File> hot = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            hot.add(WebFSTestHelper.write("/admission/hot" + i + ".dat", new byte[i]));
+        for (int j = 0; j < 5; j++) {
+            for (File file : hot)
+                MetadataCache.getInstance().getInfo(file);
+        }
+        // a scan of files that are used once doesn't evict the hot files
+        for (int i = 0; i < 5 * MAX_ENTRIES; i++)
+            MetadataCache.getInstance().getInfo(WebFSTestHelper.write("/admission/cold" + i + ".dat", new byte[0]));
+        long hits = getStat("hits");
+        for (File file : hot)
+            MetadataCache.getInstance().getInfo(file);
+        assertEquals(hits + hot.size(), getStat("hits"));
+    }
+
+    @Test
+    public void testConcurrentInvalidate() throws Exception {
+        File dir = mkdir("concurrent");
+        int files = 8;
+        for (int i = 0; i < files; i++)
+            WebFSTestHelper.write("/concurrent/" + i + ".dat", new byte[0]);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                boolean writer = t % 4 == 0;
+                int seed = t;
+                futures.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 2000; i++) {
+                        int n = random.nextInt(files);
+                        if (writer)
+                            WebFSTestHelper.write("/concurrent/" + n + ".dat", new byte[random.nextInt(100)]);
+                        else if (random.nextBoolean())
+                            MetadataCache.getInstance().getInfo(new File(dir, n + ".dat"));
+                        else
+                            MetadataCache.getInstance().getList(dir);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            executor.shutdown();
+        }
+        // no stale entry is left after the writes
+        for (FileResponse response : MetadataCache.getInstance().getList(dir))
+            assertEquals(new File(dir, response.getName()).length(), response.getLength());
+        for (int i = 0; i < files; i++) {
+            File file = new File(dir, i + ".dat");
+            assertEquals(file.length(), MetadataCache.getInstance().getInfo(file).getLength());
+        }
+        assertTrue(getStat("entries") <= MAX_ENTRIES);
+    }
+
+    private static long getStat(String name) {
+        return ((Number) MetadataCache.getInstance().getStats().get(name)).longValue();
+    }
+
+    private static File mkdir(String name) {
+        File dir = new File(root, name);
+        dir.mkdir();
+        return dir;
+    }
+}
@@ -0,0 +1,110 @@
+package com.mku.webfs.service.test;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.controller.FileSystem;
+import org.apache.commons.text.StringEscapeUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Traversal protections of the path resolution, the cost is measured by PathBenchmark in webfs-bench
+ */
+public class PathResolverTests {
+    private static final Pattern pattern = Pattern.compile("^.+[\\:\\*\\?\\<\\>\\|]+$");
+    private static File root;
+    private static File outside;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        root = WebFSTestHelper.createRoot("webfs_resolver");
+        outside = new File(root.getPath() + "2");
+        outside.mkdir();
+        new File(root, "dir1/dir2").mkdirs();
+        WebFSTestHelper.createLocalFile(new File(root, "dir1/dir2/test.dat"), "test");
+        Files.createSymbolicLink(new File(root, "link").toPath(), outside.toPath());
+        Files.createSymbolicLink(new File(root, "dir1/dangling").toPath(), new File(outside, "missing").toPath());
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        WebFSTestHelper.deleteRoot(root);
+        outside.delete();
+    }
+
+    @Test
+    public void testResolve() {
+        File file = FileSystem.getInstance().getFile("/dir1/./dir2//test.dat");
+        assertEquals(new File(root, "dir1/dir2/test.dat").getAbsolutePath(), file.getPath());
+        assertEquals("/dir1/dir2/test.dat", FileSystem.getInstance().getRelativePath(file));
+        assertEquals(root.getAbsolutePath(), FileSystem.getInstance().getFile("/").getPath());
+        assertEquals("", FileSystem.getInstance().getRelativePath(FileSystem.getInstance().getFile("")));
+    }
+
+    @Test
+    public void testTraversal() {
+        assertThrows(RuntimeException.class, () -> FileSystem.getInstance().getFile("/dir1/../../test.dat"));
+        assertThrows(RuntimeException.class, () -> FileSystem.getInstance().getFile("/.webfs/uploads"));
+        // links pointing outside of the root
+        assertThrows(RuntimeException.class, () -> FileSystem.getInstance().getFile("/link"));
+        assertThrows(RuntimeException.class, () -> FileSystem.getInstance().getFile("/link/test.dat"));
+        assertThrows(RuntimeException.class, () -> FileSystem.getInstance().getFile("/dir1/dangling"));
+        // a sibling that starts with the root path
+        assertThrows(RuntimeException.class, () -> FileSystem.getInstance().validateFile(new File(outside, "test.dat")));
+        assertThrows(RuntimeException.class, () -> FileSystem.getInstance().validateFile(new File(root, "dir1/../../test.dat")));
+        assertThrows(RuntimeException.class, () -> FileSystem.getInstance().validateFile(new File(root, ".webfs/test.dat")));
+    }
+
+    @Test
+    public void testValidateFilePath() {
+        String[] paths = {"/dir1/test.dat", "/dir1/test.dat:", "/dir1/test?", "/dir1/a|", "a", ":", "",
+                "/dir1/a&b.dat", "/dir1/<a>", "/dir1/caf\u00e9.dat", "/dir1/\u4e2d\u6587.dat", "/dir1/a\n:"};
+        for (String path : paths) {
+            String expected;
+            try {
+                expected = legacyValidateFilePath(path);
+            } catch (RuntimeException ex) {
+                assertThrows(RuntimeException.class, () -> FileSystem.getInstance().validateFilePath(path));
+                continue;
+            }
+            assertEquals(expected, FileSystem.getInstance().validateFilePath(path));
+        }
+    }
+
+    // previous implementation: escape and regex
+    private static String legacyValidateFilePath(String path) {
+        path = StringEscapeUtils.escapeHtml4(path);
+        if (pattern.matcher(path).matches())
+            throw new RuntimeException("Invalid characters in file path found");
+        return path;
+    }
+}
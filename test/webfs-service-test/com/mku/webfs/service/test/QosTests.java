@@ -0,0 +1,140 @@
+package com.mku.webfs.service.test;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.metrics.FileMetrics;
+import com.mku.webfs.service.qos.QosManager;
+import com.mku.webfs.service.qos.Throttle;
+import com.mku.webfs.service.qos.TokenBucket;
+import com.mku.webfs.service.security.AuthUsers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Token buckets and the per user limits
+ */
+public class QosTests {
+    private static final String USER = "qos-user";
+    private static final int BUFFER_LENGTH = 32 * 1024;
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (AuthUsers.getUser(USER) != null)
+            AuthUsers.removeUser(USER);
+        QosManager.getInstance().configure(0, 0, 0);
+    }
+
+    @Test
+    public void testRequestRate() {
+        TokenBucket bucket = new TokenBucket(10, 5);
+        for (int i = 0; i < 5; i++)
+            assertEquals(0, bucket.tryAcquire(1));
+        long wait = bucket.tryAcquire(1);
+        assertTrue(wait > 0 && wait <= 100_000_000L, "wait: " + wait);
+    }
+
+    @Test
+    public void testBandwidth() throws Exception {
+        long bytesPerSecond = 1024 * 1024;
+        AuthUsers.addUser(USER, "password", "READ_WRITE");
+        AuthUsers.setLimits(USER, bytesPerSecond, 0);
+        Throttle throttle = QosManager.getInstance().getLimits(USER).getThrottle();
+        assertNotNull(throttle);
+
+        // the burst of a quarter second is taken at once, the rest is scheduled at the rate,
+        // the waits are checked without sleeping so the time the test takes doesn't matter
+        long burst = bytesPerSecond / 4;
+        long start = System.nanoTime();
+        long wait = 0;
+        for (long bytes = BUFFER_LENGTH; bytes <= bytesPerSecond; bytes += BUFFER_LENGTH) {
+            wait = throttle.reserve(BUFFER_LENGTH, FileMetrics.Direction.DOWNLOAD);
+            if (bytes <= burst)
+                assertEquals(0, wait, "bytes: " + bytes);
+        }
+        long elapsed = System.nanoTime() - start;
+        long expected = (bytesPerSecond - burst) * 1_000_000_000L / bytesPerSecond;
+        assertTrue(wait <= expected && wait >= expected - elapsed, "wait: " + wait + ", elapsed: " + elapsed);
+    }
+
+    @Test
+    public void testFairShare() throws Exception {
+        long bytesPerSecond = 1024 * 1024;
+        AuthUsers.addUser(USER, "password", "READ_WRITE");
+        AuthUsers.setLimits(USER, bytesPerSecond, 0);
+        Throttle throttle = QosManager.getInstance().getLimits(USER).getThrottle();
+
+        // after the burst is used concurrent streams of the user take turns so they finish together
+        throttle.acquire(bytesPerSecond / 4, FileMetrics.Direction.UPLOAD);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Long>> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            results.add(executor.submit(() -> {
+                long start = System.nanoTime();
+                drain(throttle.wrap(new ByteArrayInputStream(new byte[512 * 1024])));
+                return System.nanoTime() - start;
+            }));
+        }
+        long min = Long.MAX_VALUE;
+        for (Future<Long> result : results)
+            min = Math.min(min, result.get());
+        executor.shutdown();
+        // 2 MB at 1 MB/s, a stream served alone would finish in half a second, only the lower bound
+        // is checked since a loaded machine can only make the streams slower
+        assertTrue(min / 1e9 > 1.5, "min: " + min / 1e9);
+    }
+
+    @Test
+    public void testLimitsChanged() throws Exception {
+        QosManager.getInstance().configure(0, 0, 5);
+        AuthUsers.addUser(USER, "password", "READ_WRITE");
+        QosManager.Limits limits = QosManager.getInstance().getLimits(USER);
+        assertNull(limits.getThrottle());
+        assertSame(limits, QosManager.getInstance().getLimits(USER));
+
+        AuthUsers.setLimits(USER, -1, 0);
+        QosManager.Limits unlimited = QosManager.getInstance().getLimits(USER);
+        assertNotSame(limits, unlimited);
+        for (int i = 0; i < 100; i++)
+            assertEquals(0, unlimited.tryRequest());
+    }
+
+    private static long drain(InputStream inputStream) throws Exception {
+        byte[] buffer = new byte[BUFFER_LENGTH];
+        long total = 0;
+        int bytesRead;
+        while ((bytesRead = inputStream.read(buffer)) > 0)
+            total += bytesRead;
+        return total;
+    }
+}
@@ -0,0 +1,123 @@
+package com.mku.webfs.service.test;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.controller.FileSystem;
+import com.mku.webfs.service.controller.UploadSession;
+import com.mku.webfs.service.controller.UploadSessions;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Chunks of upload sessions sent without a Content-Length
+ */
+public class UploadSessionTests {
+    private static final int LENGTH = 256 * 1024;
+
+    private static File root;
+    private static String host;
+    private static String auth;
+    private static HttpClient httpClient;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        root = WebFSTestHelper.createRoot("webfs_sessions");
+        host = WebFSTestHelper.startLocalServer(root);
+        auth = WebFSTestHelper.getBasicAuth();
+        httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        WebFSTestHelper.stopServer();
+        WebFSTestHelper.deleteRoot(root);
+    }
+
+    @Test
+    public void testChunkedUpload() throws Exception {
+        byte[] data = WebFSTestHelper.getRandArray(LENGTH);
+        String id = createSession("/chunked.dat");
+        assertEquals(200, upload(id, 0, data).statusCode());
+        JSONObject commit = new JSONObject(httpClient.send(request("/api/session/commit?id=" + id)
+                .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString()).body());
+        assertEquals(LENGTH, commit.getLong("length"), commit.toString());
+        assertArrayEquals(data, Files.readAllBytes(new File(root, "chunked.dat").toPath()));
+    }
+
+    @Test
+    public void testChunkExceedsLength() throws Exception {
+        String id = createSession("/exceeds.dat");
+        HttpResponse<String> response = upload(id, 1024, WebFSTestHelper.getRandArray(LENGTH + 64 * 1024));
+        assertNotEquals(200, response.statusCode());
+        assertTrue(response.body().contains("Chunk exceeds the file length"), response.body());
+
+        // nothing past the end of the file was written and the chunk was not recorded
+        File dataFile = new File(FileSystem.getInstance().getMetaDir(), "uploads/" + id + ".data");
+        assertTrue(dataFile.length() <= LENGTH, "data file: " + dataFile.length());
+        JSONObject info = new JSONObject(httpClient.send(request("/api/session/info?id=" + id).GET().build(),
+                HttpResponse.BodyHandlers.ofString()).body());
+        assertEquals(0, info.getLong("received"), info.toString());
+    }
+
+    @Test
+    public void testReadLimit() throws Exception {
+        UploadSession session = UploadSessions.getInstance().create(new File(root, "limit.dat"), LENGTH, null);
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(new byte[LENGTH * 4]);
+        assertThrows(IOException.class, () -> UploadSessions.getInstance().write(session, inputStream, 1024));
+        // the stream is read up to the end of the file and one more byte to detect the overflow
+        assertEquals(LENGTH * 4 - (LENGTH - 1024) - 1, inputStream.available());
+    }
+
+    private String createSession(String path) throws Exception {
+        HttpResponse<String> response = httpClient.send(request("/api/session/create?path=" + path + "&length=" + LENGTH)
+                .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode(), response.body());
+        return new JSONObject(response.body()).getString("id");
+    }
+
+    // a body from a stream of unknown length is sent chunked
+    private HttpResponse<String> upload(String id, long position, byte[] data) throws Exception {
+        return httpClient.send(request("/api/session/upload?id=" + id + "&position=" + position)
+                .header("Content-Type", "application/octet-stream")
+                .PUT(HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(data))).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create(host + path)).header("Authorization", auth);
+    }
+}
@@ -0,0 +1,285 @@
+package com.mku.webfs.service.test;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Load test of the service over loopback with many concurrent clients running a mix of operations, it
+ * reports the throughput and the latency percentiles of each operation. The server runs on a temp
+ * directory so it can run on any machine, enable it with -Dwebfs.load=true<br>
+ * options:
+ * -Dwebfs.load.clients=16 concurrent clients
+ * -Dwebfs.load.duration=30 seconds measured after the warmup
+ * -Dwebfs.load.warmup=5 seconds
+ * -Dwebfs.load.mix=list:20,info:40,get:20,upload:10,copy:5,delete:5 weight of each operation
+ * -Dwebfs.load.fileSize=1048576 bytes of the files downloaded and uploaded
+ * -Dwebfs.load.files=100 files in the shared directory
+ */
+@EnabledIfSystemProperty(named = "webfs.load", matches = "true")
+public class WebFSLoadTests {
+    private static final String[] OPERATIONS = {"list", "info", "get", "upload", "copy", "delete"};
+    private static final int clients = Integer.getInteger("webfs.load.clients", 16);
+    private static final int duration = Integer.getInteger("webfs.load.duration", 30);
+    private static final int warmup = Integer.getInteger("webfs.load.warmup", 5);
+    private static final String mix = System.getProperty("webfs.load.mix",
+            "list:20,info:40,get:20,upload:10,copy:5,delete:5");
+    private static final int fileSize = Integer.getInteger("webfs.load.fileSize", 1024 * 1024);
+    private static final int files = Integer.getInteger("webfs.load.files", 100);
+
+    private static File root;
+    private static String host;
+    private static String auth;
+    private static HttpClient httpClient;
+    private static byte[] data;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        root = WebFSTestHelper.createRoot("webfs_load");
+        data = WebFSTestHelper.getRandArray(fileSize);
+        File dir = new File(root, "data");
+        dir.mkdir();
+        for (int i = 0; i < files; i++)
+            WebFSTestHelper.createLocalFile(new File(dir, "file_" + i + ".dat"), data);
+        for (int i = 0; i < clients; i++)
+            new File(root, "client_" + i).mkdir();
+
+        host = WebFSTestHelper.startLocalServer(root);
+        auth = WebFSTestHelper.getBasicAuth();
+        httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newFixedThreadPool(clients))
+                .build();
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        WebFSTestHelper.stopServer();
+        WebFSTestHelper.deleteRoot(root);
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        String[] schedule = getSchedule();
+        long start = System.nanoTime();
+        long measureStart = start + warmup * 1_000_000_000L;
+        long end = measureStart + duration * 1_000_000_000L;
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        List<Future<Client>> futures = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            Client client = new Client(i, schedule, measureStart, end);
+            futures.add(executor.submit(() -> {
+                client.run();
+                return client;
+            }));
+        }
+        Map<String, Stats> stats = new LinkedHashMap<>();
+        for (String operation : OPERATIONS)
+            stats.put(operation, new Stats());
+        for (Future<Client> future : futures) {
+            for (Map.Entry<String, Stats> entry : future.get().stats.entrySet())
+                stats.get(entry.getKey()).add(entry.getValue());
+        }
+        executor.shutdown();
+
+        Stats total = new Stats();
+        System.out.println("LOAD, clients: " + clients + ", duration: " + duration + "s, mix: " + mix
+                + ", fileSize: " + fileSize);
+        System.out.println(String.format("%-8s %10s %8s %10s %10s %10s %10s %10s",
+                "op", "count", "errors", "ops/s", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+        for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+            if (entry.getValue().count > 0)
+                print(entry.getKey(), entry.getValue());
+            total.add(entry.getValue());
+        }
+        print("total", total);
+        assertEquals(0, total.errors, "Requests failed");
+    }
+
+    private static void print(String operation, Stats stats) {
+        long[] latencies = stats.getSortedLatencies();
+        System.out.println(String.format("%-8s %10d %8d %10.1f %10.2f %10.2f %10.2f %10.2f",
+                operation, stats.count, stats.errors, (double) stats.count / duration,
+                percentile(latencies, 50), percentile(latencies, 95), percentile(latencies, 99),
+                percentile(latencies, 100)));
+    }
+
+    private static double percentile(long[] latencies, double percentile) {
+        if (latencies.length == 0)
+            return 0;
+        int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+        return latencies[Math.max(index, 0)] / 1_000_000.0;
+    }
+
+    // the operations repeated by the clients in proportion to their weights
+    private static String[] getSchedule() {
+        List<String> schedule = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split(":");
+            if (!Arrays.asList(OPERATIONS).contains(parts[0]))
+                throw new IllegalArgumentException("Unknown operation: " + parts[0]);
+            for (int i = 0; i < Integer.parseInt(parts[1]); i++)
+                schedule.add(parts[0]);
+        }
+        return schedule.toArray(new String[0]);
+    }
+
+    private static class Stats {
+        private long count;
+        private long errors;
+        private long[] latencies = new long[1024];
+
+        private void record(long latency, boolean success) {
+            if (count == latencies.length)
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            latencies[(int) count++] = latency;
+            if (!success)
+                errors++;
+        }
+
+        private void add(Stats stats) {
+            for (int i = 0; i < stats.count; i++)
+                record(stats.latencies[i], true);
+            errors += stats.errors;
+        }
+
+        private long[] getSortedLatencies() {
+            long[] sorted = Arrays.copyOf(latencies, (int) count);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+
+    private static class Client {
+        private final int id;
+        private final String[] schedule;
+        private final long measureStart;
+        private final long end;
+        private final Random random;
+        private final Map<String, Stats> stats = new LinkedHashMap<>();
+        // files created by this client that can be deleted
+        private final Deque<String> created = new ArrayDeque<>();
+        private int counter;
+
+        private Client(int id, String[] schedule, long measureStart, long end) {
+            this.id = id;
+            this.schedule = schedule;
+            this.measureStart = measureStart;
+            this.end = end;
+            this.random = new Random(id);
+        }
+
+        private void run() {
+            long time;
+            while ((time = System.nanoTime()) < end) {
+                String operation = schedule[random.nextInt(schedule.length)];
+                if (operation.equals("delete") && created.isEmpty())
+                    operation = "upload";
+                boolean success;
+                try {
+                    success = execute(operation);
+                } catch (Exception ex) {
+                    success = false;
+                }
+                long latency = System.nanoTime() - time;
+                if (time >= measureStart)
+                    stats.computeIfAbsent(operation, k -> new Stats()).record(latency, success);
+            }
+        }
+
+        private boolean execute(String operation) throws Exception {
+            String file = "/data/file_" + random.nextInt(files) + ".dat";
+            String dir = "/client_" + id;
+            switch (operation) {
+                case "list":
+                    return send(request("/api/list?path=" + encode("/data")).GET());
+                case "info":
+                    return send(request("/api/info?path=" + encode(file)).GET());
+                case "get":
+                    return send(request("/api/get?path=" + encode(file)).GET());
+                case "upload": {
+                    String path = dir + "/upload_" + counter++ + ".dat";
+                    boolean success = send(request("/api/upload?path=" + encode(path) + "&position=0")
+                            .header("Content-Type", "application/octet-stream")
+                            .PUT(HttpRequest.BodyPublishers.ofByteArray(data)));
+                    if (success)
+                        created.add(path);
+                    return success;
+                }
+                case "copy": {
+                    String filename = "copy_" + counter++ + ".dat";
+                    boolean success = send(request("/api/copy?path=" + encode(file) + "&destDir=" + encode(dir)
+                            + "&filename=" + encode(filename)).POST(HttpRequest.BodyPublishers.noBody()));
+                    if (success)
+                        created.add(dir + "/" + filename);
+                    return success;
+                }
+                case "delete":
+                    return send(request("/api/delete?path=" + encode(created.poll())).DELETE());
+                default:
+                    throw new IllegalArgumentException(operation);
+            }
+        }
+
+        private HttpRequest.Builder request(String uri) {
+            return HttpRequest.newBuilder(URI.create(host + uri))
+                    .timeout(Duration.ofSeconds(60))
+                    .header("Authorization", auth);
+        }
+
+        private boolean send(HttpRequest.Builder request) throws Exception {
+            HttpResponse<Void> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.discarding());
+            return response.statusCode() / 100 == 2;
+        }
+
+        private static String encode(String value) {
+            return URLEncoder.encode(value, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -24,19 +24,31 @@ SOFTWARE.
 */
 
 import com.mku.webfs.service.WebFSApplication;
+import com.mku.webfs.service.controller.BlobStore;
+import com.mku.webfs.service.controller.Checksums;
+import com.mku.webfs.service.controller.ContentCache;
 import com.mku.webfs.service.controller.FileSystem;
+import com.mku.webfs.service.controller.MetadataCache;
 import com.mku.webfs.service.security.AuthUsers;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Map;
 import java.util.Random;
+import java.util.stream.Stream;
 
 public class WebFSTestHelper {
     //    public static String HOST = "http://localhost:8080";
@@ -48,26 +60,126 @@ public class WebFSTestHelper {
     private static boolean serverStarted;
     private static final Random random = new Random(System.currentTimeMillis());
     private static Runtime rt = Runtime.getRuntime();
+    // the singletons changed by the tests, restored by deleteRoot
+    private static File previousRoot;
+    private static Map<String, Object> contentCacheStats;
+    private static Map<String, Object> metadataCacheStats;
+    private static boolean dedupEnabled;
+    private static long checksumChunkSize;
 
 
     public static void startServer(String dir) throws Exception {
+        startServer(dir, new String[0]);
+    }
+
+    /**
+     * Start the server with command line arguments that override the configuration file.
+     *
+     * @param dir  The root directory
+     * @param args The arguments, ie: --server.port=0
+     */
+    public static void startServer(String dir, String... args) throws Exception {
         if (serverStarted)
             throw new Exception("Another instance is running, use stopServer to stop");
         AuthUsers.addUser(user, password, role);
         serverStarted = true;
         try {
-            WebFSApplication.start(new String[0]);
+            WebFSApplication.start(args);
             FileSystem.getInstance().setPath(dir);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    public static String getUser() {
+        return user;
+    }
+
+    public static String getPassword() {
+        return password;
+    }
+
     public static void stopServer() {
         WebFSApplication.stop();
         serverStarted = false;
     }
 
+    /**
+     * Start the server on a random local port without TLS, with the test user.
+     *
+     * @param dir  The root directory
+     * @param args More arguments, ie: --app.transfer.mode=ASYNC
+     * @return The url of the server
+     */
+    public static String startLocalServer(File dir, String... args) throws Exception {
+        String[] defaults = {"--server.port=0", "--server.address=127.0.0.1",
+                "--server.ssl.enabled=false", "--app.path=" + dir.getPath(),
+                "--app.username=" + user, "--app.password=" + password,
+                "--app.role=" + role, "--app.cors.allowed-origins=https://localhost",
+                "--spring.main.allow-bean-definition-overriding=true"};
+        String[] allArgs = new String[defaults.length + args.length];
+        System.arraycopy(defaults, 0, allArgs, 0, defaults.length);
+        System.arraycopy(args, 0, allArgs, defaults.length, args.length);
+        startServer(dir.getPath(), allArgs);
+        return "http://127.0.0.1:" + WebFSApplication.getPort();
+    }
+
+    /**
+     * @return The Authorization header of the test user
+     */
+    public static String getBasicAuth() {
+        return "Basic " + Base64.getEncoder().encodeToString((user + ":" + password).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Create a temp directory and make it the root of the file system. The previous root and the
+     * configuration of the caches, deduplication and checksums are restored by deleteRoot.
+     *
+     * @param prefix The prefix of the directory name
+     * @return The directory
+     */
+    public static File createRoot(String prefix) throws IOException {
+        previousRoot = FileSystem.getInstance().getRoot();
+        contentCacheStats = ContentCache.getInstance().getStats();
+        metadataCacheStats = MetadataCache.getInstance().getStats();
+        dedupEnabled = BlobStore.getInstance().isEnabled();
+        checksumChunkSize = Checksums.getInstance().getChunkSize();
+        File root = Files.createTempDirectory(prefix).toFile();
+        FileSystem.getInstance().setPath(root.getPath());
+        return root;
+    }
+
+    /**
+     * Delete a directory created with createRoot and restore the singletons.
+     *
+     * @param root The directory
+     */
+    public static void deleteRoot(File root) throws IOException {
+        ContentCache.getInstance().configure((Boolean) contentCacheStats.get("enabled"),
+                (Long) contentCacheStats.get("maxFileSize"), (Long) contentCacheStats.get("maxBytes"));
+        MetadataCache.getInstance().setLimits((Boolean) metadataCacheStats.get("enabled"),
+                (Integer) metadataCacheStats.get("maxEntries"), (Long) metadataCacheStats.get("maxBytes"));
+        BlobStore.getInstance().configure(dedupEnabled, 0);
+        if (Checksums.getInstance().getChunkSize() != checksumChunkSize)
+            Checksums.getInstance().configure(checksumChunkSize, 0);
+        if (previousRoot != null)
+            FileSystem.getInstance().setPath(previousRoot.getPath());
+        try (Stream<Path> stream = Files.walk(root.toPath())) {
+            stream.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /**
+     * Write a file under the root of the file system.
+     *
+     * @param path  The path of the file
+     * @param bytes The contents
+     * @return The file
+     */
+    public static File write(String path, byte[] bytes) throws IOException {
+        return FileSystem.getInstance().write(path, new ByteArrayInputStream(bytes), 0);
+    }
+
 
     public static void createLocalFile(File file, String contents) throws Exception {
         FileOutputStream stream = new FileOutputStream(file);
@@ -151,6 +263,69 @@ public class WebFSTestHelper {
         return obj;
     }
 
+    public static JSONObject uploadFileStream(String localPath, String remotePath, long position) throws IOException, JSONException {
+        remotePath = remotePath.replaceAll("\\\\", "/");
+        String cmd = "curl -X PUT "
+                + " -T \"" + localPath + "\" "
+                + "\"" + HOST
+                + "/api/upload"
+                + "?path=" + remotePath
+                + "&position=" + position + "\""
+                + " -u " + user + ":" + password
+                + " -k ";
+        byte[] data = send(cmd);
+        String response = new String(data);
+        System.out.println(response);
+        JSONObject obj = new JSONObject(response);
+        return obj;
+    }
+
+    public static JSONObject createUploadSession(String remotePath, long length) throws IOException, JSONException {
+        remotePath = remotePath.replaceAll("\\\\", "/");
+        String cmd = "curl -X POST " +
+                "\"" + HOST
+                + "/api/session/create"
+                + "?path=" + remotePath
+                + "&length=" + length + "\""
+                + " -u " + user + ":" + password
+                + " -k ";
+        byte[] data = send(cmd);
+        String response = new String(data);
+        System.out.println(response);
+        JSONObject obj = new JSONObject(response);
+        return obj;
+    }
+
+    public static JSONObject uploadSessionChunk(String localPath, String id, long position) throws IOException, JSONException {
+        String cmd = "curl -X PUT "
+                + " -T \"" + localPath + "\" "
+                + "\"" + HOST
+                + "/api/session/upload"
+                + "?id=" + id
+                + "&position=" + position + "\""
+                + " -u " + user + ":" + password
+                + " -k ";
+        byte[] data = send(cmd);
+        String response = new String(data);
+        System.out.println(response);
+        JSONObject obj = new JSONObject(response);
+        return obj;
+    }
+
+    public static JSONObject commitUploadSession(String id) throws IOException, JSONException {
+        String cmd = "curl -X POST " +
+                "\"" + HOST
+                + "/api/session/commit"
+                + "?id=" + id + "\""
+                + " -u " + user + ":" + password
+                + " -k ";
+        byte[] data = send(cmd);
+        String response = new String(data);
+        System.out.println(response);
+        JSONObject obj = new JSONObject(response);
+        return obj;
+    }
+
     public static byte[] getChecksumStream(InputStream stream) throws NoSuchAlgorithmException, IOException {
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-256");
@@ -180,6 +355,19 @@ public class WebFSTestHelper {
         send(cmd);
     }
 
+    public static void downloadFileRange(String localPath, String remotePath, String range) throws IOException {
+        remotePath = remotePath.replaceAll("\\\\", "/");
+        String cmd = "curl -X GET "
+                + "\"" + HOST
+                + "/api/get"
+                + "?path=" + remotePath + "\""
+                + " -H \"Range: bytes=" + range + "\""
+                + " --output " + localPath
+                + " -u " + user + ":" + password
+                + " -k ";
+        send(cmd);
+    }
+
     public static JSONArray listFiles(String remotePath) throws IOException, JSONException {
         remotePath = remotePath.replaceAll("\\\\", "/");
         String cmd = "curl -X GET " +
@@ -195,6 +383,23 @@ public class WebFSTestHelper {
         return obj;
     }
 
+    public static JSONArray listFilesPage(String remotePath, int limit, String cursor) throws IOException, JSONException {
+        remotePath = remotePath.replaceAll("\\\\", "/");
+        String cmd = "curl -X GET " +
+                "\"" + HOST
+                + "/api/list"
+                + "?path=" + remotePath
+                + "&limit=" + limit
+                + (cursor != null ? "&cursor=" + cursor : "") + "\""
+                + " -u " + user + ":" + password
+                + " -k ";
+        byte[] data = send(cmd);
+        String response = new String(data);
+        System.out.println(response);
+        JSONArray obj = new JSONArray(response);
+        return obj;
+    }
+
     public static JSONObject getInfo(String remotePath) throws IOException, JSONException {
         remotePath = remotePath.replaceAll("\\\\", "/");
         String cmd = "curl -X GET " +
@@ -210,6 +415,22 @@ public class WebFSTestHelper {
         return obj;
     }
 
+    public static JSONArray batch(String localPath, boolean parallel) throws IOException, JSONException {
+        String cmd = "curl -X POST " +
+                "\"" + HOST
+                + "/api/batch"
+                + "?parallel=" + parallel + "\""
+                + " -H \"Content-Type: application/json\""
+                + " -d @" + localPath
+                + " -u " + user + ":" + password
+                + " -k ";
+        byte[] data = send(cmd);
+        String response = new String(data);
+        System.out.println(response);
+        JSONArray obj = new JSONArray(response);
+        return obj;
+    }
+
     public static JSONObject rename(String remotePath, String newFilename) throws IOException, JSONException {
         remotePath = remotePath.replaceAll("\\\\", "/");
         String cmd = "curl -X PUT " +
@@ -226,12 +447,55 @@ public class WebFSTestHelper {
         return obj;
     }
 
+    public static JSONObject copy(String remotePath, String destDir, String filename, boolean recursive) throws IOException, JSONException {
+        remotePath = remotePath.replaceAll("\\\\", "/");
+        destDir = destDir.replaceAll("\\\\", "/");
+        String cmd = "curl -X POST " +
+                "\"" + HOST
+                + "/api/copy"
+                + "?path=" + remotePath
+                + "&destDir=" + destDir
+                + "&filename=" + filename
+                + "&recursive=" + recursive + "\""
+                + " -u " + user + ":" + password
+                + " -k ";
+        byte[] data = send(cmd);
+        String response = new String(data);
+        System.out.println(response);
+        JSONObject obj = new JSONObject(response);
+        return obj;
+    }
+
+    public static JSONObject move(String remotePath, String destDir, String filename, boolean recursive) throws IOException, JSONException {
+        remotePath = remotePath.replaceAll("\\\\", "/");
+        destDir = destDir.replaceAll("\\\\", "/");
+        String cmd = "curl -X PUT " +
+                "\"" + HOST
+                + "/api/move"
+                + "?path=" + remotePath
+                + "&destDir=" + destDir
+                + "&filename=" + filename
+                + "&recursive=" + recursive + "\""
+                + " -u " + user + ":" + password
+                + " -k ";
+        byte[] data = send(cmd);
+        String response = new String(data);
+        System.out.println(response);
+        JSONObject obj = new JSONObject(response);
+        return obj;
+    }
+
     public static JSONObject delete(String remotePath) throws IOException, JSONException {
+        return delete(remotePath, false);
+    }
+
+    public static JSONObject delete(String remotePath, boolean recursive) throws IOException, JSONException {
         remotePath = remotePath.replaceAll("\\\\", "/");
         String cmd = "curl -X DELETE " +
                 "\"" + HOST
                 + "/api/delete"
-                + "?path=" + remotePath + "\""
+                + "?path=" + remotePath
+                + "&recursive=" + recursive + "\""
                 + " -u " + user + ":" + password
                 + " -k ";
         byte[] data = send(cmd);
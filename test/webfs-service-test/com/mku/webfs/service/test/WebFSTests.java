@@ -31,7 +31,10 @@ import org.junit.jupiter.api.Test;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -162,6 +165,59 @@ public class WebFSTests {
         }
     }
 
+    @Test
+    public void testListFilesPage() throws Exception {
+        String dirPath = "/dir" + "_" + System.currentTimeMillis();
+        File dir = new File(WebFSTestHelper.TEST_OUTPUT_DIR, dirPath);
+        dir.mkdir();
+        int filesNum = 25;
+        for (int i = 0; i < filesNum; i++)
+            WebFSTestHelper.createLocalFile(new File(dir, String.format("%02d_test.dat", i)), new byte[i]);
+
+        // first page is sorted by name
+        JSONArray jsonFiles = WebFSTestHelper.listFilesPage(dirPath, 10, null);
+        assertEquals(10, jsonFiles.length());
+        for (int i = 0; i < jsonFiles.length(); i++) {
+            JSONObject file = jsonFiles.getJSONObject(i);
+            assertEquals(file.getString("name"), String.format("%02d_test.dat", i));
+            assertEquals(file.getString("path"), dirPath + "/" + String.format("%02d_test.dat", i));
+            assertEquals(file.getLong("length"), i);
+            assertTrue(file.getBoolean("file"));
+        }
+
+        // page after a cursor
+        String cursor = Base64.getUrlEncoder().withoutPadding().encodeToString("19_test.dat".getBytes());
+        jsonFiles = WebFSTestHelper.listFilesPage(dirPath, 10, cursor);
+        assertEquals(5, jsonFiles.length());
+        assertEquals(jsonFiles.getJSONObject(0).getString("name"), "20_test.dat");
+    }
+
+    @Test
+    public void testListFilesCached() throws Exception {
+        String dirPath = "/dir" + "_" + System.currentTimeMillis();
+        File dir = new File(WebFSTestHelper.TEST_OUTPUT_DIR, dirPath);
+        dir.mkdir();
+        WebFSTestHelper.createLocalFile(new File(dir, "test1.dat"), new byte[10]);
+        assertEquals(1, WebFSTestHelper.listFiles(dirPath).length());
+        assertEquals(1, WebFSTestHelper.listFiles(dirPath).length());
+
+        // changes through the service are visible right away
+        WebFSTestHelper.createFile(dirPath + "/test2.dat");
+        assertEquals(2, WebFSTestHelper.listFiles(dirPath).length());
+        WebFSTestHelper.delete(dirPath + "/test2.dat");
+        assertEquals(1, WebFSTestHelper.listFiles(dirPath).length());
+
+        // changes outside of the service are picked up by the watcher
+        assertEquals(10, WebFSTestHelper.getInfo(dirPath + "/test1.dat").getLong("length"));
+        WebFSTestHelper.createLocalFile(new File(dir, "test1.dat"), new byte[20]);
+        WebFSTestHelper.createLocalFile(new File(dir, "test3.dat"), new byte[30]);
+        long start = System.currentTimeMillis();
+        while (WebFSTestHelper.listFiles(dirPath).length() != 2 && System.currentTimeMillis() - start < 15000)
+            Thread.sleep(100);
+        assertEquals(2, WebFSTestHelper.listFiles(dirPath).length());
+        assertEquals(20, WebFSTestHelper.getInfo(dirPath + "/test1.dat").getLong("length"));
+    }
+
     @Test
     public void testUploadAndDownloadFile() throws Exception {
         // local dir
@@ -218,6 +274,126 @@ public class WebFSTests {
     }
 
 
+    @Test
+    public void testResumeUploadFile() throws Exception {
+        // local dir
+        String localDirPath = "/dir" + "_" + System.currentTimeMillis();
+        File localDir = new File(WebFSTestHelper.TEST_OUTPUT_DIR, localDirPath);
+        localDir.mkdir();
+        byte[] data = WebFSTestHelper.getRandArray(1 * 1024 * 1024);
+        int half = data.length / 2;
+        File chunk = new File(localDir, "chunk.dat");
+        WebFSTestHelper.createLocalFile(chunk, Arrays.copyOfRange(data, half, data.length));
+
+        // remote file that has only the first half
+        String rDirPath = "/dir" + "_" + System.currentTimeMillis();
+        WebFSTestHelper.createDir(rDirPath);
+        File remoteDir = new File(WebFSTestHelper.TEST_OUTPUT_DIR, rDirPath);
+        File remoteFile = new File(remoteDir, "test.dat");
+        WebFSTestHelper.createLocalFile(remoteFile, Arrays.copyOfRange(data, 0, half));
+
+        // resume, the existing data must be kept
+        String remoteFilePath = rDirPath + "/" + remoteFile.getName();
+        JSONObject res = WebFSTestHelper.uploadFile(chunk.getPath(), remoteFilePath, half);
+        assertEquals(res.getLong("length"), data.length);
+        assertArrayEquals(data, Files.readAllBytes(remoteFile.toPath()));
+    }
+
+    @Test
+    public void testUploadFileStreamInChunks() throws Exception {
+        // local dir
+        String localDirPath = "/dir" + "_" + System.currentTimeMillis();
+        File localDir = new File(WebFSTestHelper.TEST_OUTPUT_DIR, localDirPath);
+        localDir.mkdir();
+        byte[] data = WebFSTestHelper.getRandArray(1 * 1024 * 1024);
+        int half = data.length / 2;
+        File chunk1 = new File(localDir, "chunk1.dat");
+        WebFSTestHelper.createLocalFile(chunk1, Arrays.copyOfRange(data, 0, half));
+        File chunk2 = new File(localDir, "chunk2.dat");
+        WebFSTestHelper.createLocalFile(chunk2, Arrays.copyOfRange(data, half, data.length));
+
+        // remote dir
+        String rDirPath = "/dir" + "_" + System.currentTimeMillis();
+        WebFSTestHelper.createDir(rDirPath);
+        File remoteDir = new File(WebFSTestHelper.TEST_OUTPUT_DIR, rDirPath);
+
+        // upload the chunks as raw bodies
+        String remoteFilePath = rDirPath + "/" + "test.dat";
+        WebFSTestHelper.uploadFileStream(chunk1.getPath(), remoteFilePath, 0);
+        JSONObject res = WebFSTestHelper.uploadFileStream(chunk2.getPath(), remoteFilePath, half);
+        assertTrue(res.getBoolean("present"));
+        assertTrue(res.getBoolean("file"));
+        assertEquals(res.getString("path"), remoteFilePath);
+        assertEquals(res.getLong("length"), data.length);
+
+        File remoteFile = new File(remoteDir, "test.dat");
+        assertArrayEquals(data, Files.readAllBytes(remoteFile.toPath()));
+    }
+
+    @Test
+    public void testUploadSession() throws Exception {
+        // local dir
+        String localDirPath = "/dir" + "_" + System.currentTimeMillis();
+        File localDir = new File(WebFSTestHelper.TEST_OUTPUT_DIR, localDirPath);
+        localDir.mkdir();
+        byte[] data = WebFSTestHelper.getRandArray(1 * 1024 * 1024);
+        int half = data.length / 2;
+        File chunk1 = new File(localDir, "chunk1.dat");
+        WebFSTestHelper.createLocalFile(chunk1, Arrays.copyOfRange(data, 0, half));
+        File chunk2 = new File(localDir, "chunk2.dat");
+        WebFSTestHelper.createLocalFile(chunk2, Arrays.copyOfRange(data, half, data.length));
+
+        // remote dir
+        String rDirPath = "/dir" + "_" + System.currentTimeMillis();
+        WebFSTestHelper.createDir(rDirPath);
+        File remoteDir = new File(WebFSTestHelper.TEST_OUTPUT_DIR, rDirPath);
+        String remoteFilePath = rDirPath + "/" + "test.dat";
+
+        // upload the chunks out of order
+        JSONObject res = WebFSTestHelper.createUploadSession(remoteFilePath, data.length);
+        String id = res.getString("id");
+        res = WebFSTestHelper.uploadSessionChunk(chunk2.getPath(), id, half);
+        assertFalse(res.getBoolean("complete"));
+        assertEquals(res.getLong("received"), data.length - half);
+        res = WebFSTestHelper.uploadSessionChunk(chunk1.getPath(), id, 0);
+        assertTrue(res.getBoolean("complete"));
+        assertFalse(new File(remoteDir, "test.dat").exists());
+
+        // commit
+        res = WebFSTestHelper.commitUploadSession(id);
+        assertTrue(res.getBoolean("present"));
+        assertEquals(res.getString("path"), remoteFilePath);
+        assertEquals(res.getLong("length"), data.length);
+        assertArrayEquals(data, Files.readAllBytes(new File(remoteDir, "test.dat").toPath()));
+    }
+
+    @Test
+    public void testDownloadFileRange() throws Exception {
+        // remote dir
+        String rDirPath = "/dir" + "_" + System.currentTimeMillis();
+        WebFSTestHelper.createDir(rDirPath);
+        File remoteDir = new File(WebFSTestHelper.TEST_OUTPUT_DIR, rDirPath);
+        File remoteFile = new File(remoteDir, "test.dat");
+        byte[] data = WebFSTestHelper.getRandArray(1 * 1024 * 1024);
+        WebFSTestHelper.createLocalFile(remoteFile, data);
+        String remoteFilePath = rDirPath + "/" + remoteFile.getName();
+
+        // local download dir
+        String localDownloadDirPath = "/dir" + "_" + System.currentTimeMillis();
+        File localDownloadDir = new File(WebFSTestHelper.TEST_OUTPUT_DIR, localDownloadDirPath);
+        localDownloadDir.mkdir();
+
+        // bounded range
+        File downloadFile = new File(localDownloadDir, "range.dat");
+        WebFSTestHelper.downloadFileRange(downloadFile.getPath(), remoteFilePath, "1024-66559");
+        assertArrayEquals(Arrays.copyOfRange(data, 1024, 66560), Files.readAllBytes(downloadFile.toPath()));
+
+        // suffix range
+        File suffixFile = new File(localDownloadDir, "suffix.dat");
+        WebFSTestHelper.downloadFileRange(suffixFile.getPath(), remoteFilePath, "-4096");
+        assertArrayEquals(Arrays.copyOfRange(data, data.length - 4096, data.length), Files.readAllBytes(suffixFile.toPath()));
+    }
+
     @Test
     public void testRenameFile() throws Exception {
         // local dir
@@ -412,4 +588,72 @@ public class WebFSTests {
         assertEquals(res.getLong("length"), 0);
         assertEquals(res.getLong("lastModified"), 0);
     }
+
+    @Test
+    public void testCopyMoveDeleteTree() throws Exception {
+        // remote tree
+        String rDirPath = "/dir" + "_" + System.currentTimeMillis();
+        File remoteDir = new File(WebFSTestHelper.TEST_OUTPUT_DIR, rDirPath);
+        File subDir = new File(remoteDir, "sub");
+        subDir.mkdirs();
+        int filesNum = 10;
+        for (int i = 0; i < filesNum; i++) {
+            WebFSTestHelper.createLocalFile(new File(remoteDir, i + "_test.dat"), WebFSTestHelper.getRandArray(1024));
+            WebFSTestHelper.createLocalFile(new File(subDir, i + "_test.dat"), WebFSTestHelper.getRandArray(1024));
+        }
+
+        // copy
+        String copyName = "copy" + "_" + System.currentTimeMillis();
+        JSONObject res = WebFSTestHelper.copy(rDirPath, "/", copyName, true);
+        assertTrue(res.getBoolean("directory"));
+        assertEquals(res.getString("path"), "/" + copyName);
+        assertEquals(res.getLong("files"), filesNum * 2);
+        assertEquals(res.getLong("directories"), 2);
+        assertEquals(res.getLong("bytes"), filesNum * 2 * 1024);
+        assertEquals(res.getJSONArray("errors").length(), 0);
+        File copyDir = new File(WebFSTestHelper.TEST_OUTPUT_DIR, copyName);
+        for (int i = 0; i < filesNum; i++) {
+            assertArrayEquals(Files.readAllBytes(new File(subDir, i + "_test.dat").toPath()),
+                    Files.readAllBytes(new File(copyDir, "sub/" + i + "_test.dat").toPath()));
+        }
+
+        // move
+        String moveName = "move" + "_" + System.currentTimeMillis();
+        res = WebFSTestHelper.move("/" + copyName, rDirPath, moveName, true);
+        assertEquals(res.getString("path"), rDirPath + "/" + moveName);
+        assertFalse(copyDir.exists());
+        assertTrue(new File(remoteDir, moveName + "/sub/0_test.dat").exists());
+
+        // delete
+        res = WebFSTestHelper.delete(rDirPath, true);
+        assertFalse(res.getBoolean("present"));
+        assertEquals(res.getLong("files"), filesNum * 4);
+        assertEquals(res.getLong("directories"), 4);
+        assertFalse(remoteDir.exists());
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        String dirPath = "/dir" + "_" + System.currentTimeMillis();
+        int filesNum = 10;
+        JSONArray operations = new JSONArray();
+        operations.put(new JSONObject().put("op", "mkdir").put("path", dirPath));
+        for (int i = 0; i < filesNum; i++)
+            operations.put(new JSONObject().put("op", "create").put("path", dirPath + "/" + i + "_test.dat"));
+        operations.put(new JSONObject().put("op", "rename").put("path", dirPath + "/0_test.dat").put("filename", "renamed.dat"));
+        operations.put(new JSONObject().put("op", "list").put("path", dirPath));
+        operations.put(new JSONObject().put("op", "info").put("path", dirPath + "/missing/test.dat"));
+        File batchFile = File.createTempFile("batch", ".json");
+        WebFSTestHelper.createLocalFile(batchFile, operations.toString());
+
+        JSONArray res = WebFSTestHelper.batch(batchFile.getPath(), true);
+        assertEquals(operations.length(), res.length());
+        for (int i = 0; i < filesNum + 2; i++)
+            assertTrue(res.getJSONObject(i).isNull("error"));
+        assertEquals(res.getJSONObject(filesNum + 1).getJSONObject("result").getString("name"), "renamed.dat");
+        JSONArray list = res.getJSONObject(filesNum + 2).getJSONArray("result");
+        assertEquals(filesNum, list.length());
+        assertFalse(res.getJSONObject(filesNum + 3).getJSONObject("result").getBoolean("present"));
+        assertTrue(new File(WebFSTestHelper.TEST_OUTPUT_DIR, dirPath + "/renamed.dat").exists());
+    }
 }
@@ -0,0 +1,232 @@
+package com.mku.webfs.webflux.test;
+/*
+MIT License
+
+Copyright (c) 2021 Max Kas
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import com.mku.webfs.service.controller.BlobStore;
+import com.mku.webfs.service.security.AuthUsers;
+import com.mku.webfs.webflux.WebFSFluxApplication;
+import io.micrometer.core.instrument.Metrics;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The endpoints of the WebFlux service on a temp root
+ */
+public class FluxFileControllerTests {
+    private static File root;
+    private static WebTestClient client;
+    private static int port;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        root = Files.createTempDirectory("webfs_flux").toFile();
+        AuthUsers.addUser("reader", "password", "READ");
+        AuthUsers.addUser("limited", "password", "READ_WRITE");
+        WebFSFluxApplication.start(new String[]{
+                "--server.port=0",
+                "--server.ssl.enabled=false",
+                "--app.path=" + root.getPath(),
+                "--app.username=user",
+                "--app.password=password",
+                "--app.role=READ_WRITE",
+                "--app.cors.allowed-origins=https://localhost"
+        });
+        port = WebFSFluxApplication.getPort();
+        client = createClient("user");
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        WebFSFluxApplication.stop();
+        AuthUsers.removeAllUsers();
+        try (Stream<Path> stream = Files.walk(root.toPath())) {
+            stream.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testUploadLinked() throws Exception {
+        File source = new File(root, "linked.dat");
+        Files.write(source.toPath(), "0123456789".getBytes());
+        File replaced = new File(root, "replaced.dat");
+        File patched = new File(root, "patched.dat");
+        BlobStore.getInstance().copy(source, replaced);
+        BlobStore.getInstance().copy(source, patched);
+        assertTrue(BlobStore.getInstance().isLinked(replaced));
+
+        upload("/replaced.dat", 0, "abc");
+        upload("/patched.dat", 4, "xy");
+
+        // the files that shared the blob are not modified
+        assertEquals("0123456789", new String(Files.readAllBytes(source.toPath())));
+        assertEquals("abc", new String(Files.readAllBytes(replaced.toPath())));
+        assertEquals("0123xy6789", new String(Files.readAllBytes(patched.toPath())));
+        assertFalse(BlobStore.getInstance().isLinked(replaced));
+        assertFalse(BlobStore.getInstance().isLinked(patched));
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        byte[] data = write("get.dat", 100_000);
+        byte[] body = client.get().uri("/get?path={path}", "/get.dat")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .expectBody().returnResult().getResponseBody();
+        assertArrayEquals(data, body);
+    }
+
+    @Test
+    public void testGetRange() throws Exception {
+        byte[] data = write("range.dat", 1000);
+        byte[] body = client.get().uri("/get?path={path}", "/range.dat")
+                .header(HttpHeaders.RANGE, "bytes=100-199")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PARTIAL_CONTENT)
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "bytes 100-199/1000")
+                .expectBody().returnResult().getResponseBody();
+        assertArrayEquals(Arrays.copyOfRange(data, 100, 200), body);
+
+        client.get().uri("/get?path={path}", "/range.dat")
+                .header(HttpHeaders.RANGE, "bytes=2000-")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "bytes */1000");
+    }
+
+    @Test
+    public void testUpload() throws Exception {
+        upload("/upload.dat", 0, "0123456789");
+        upload("/upload.dat", 10, "abc");
+        assertEquals("0123456789abc", new String(Files.readAllBytes(new File(root, "upload.dat").toPath())));
+    }
+
+    @Test
+    public void testReadOnlyUser() throws Exception {
+        write("readonly.dat", 10);
+        WebTestClient reader = createClient("reader");
+        reader.get().uri("/get?path={path}", "/readonly.dat")
+                .exchange()
+                .expectStatus().isOk();
+        reader.put().uri("/upload?path={path}&position=0", "/readonly_upload.dat")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .bodyValue("abc".getBytes())
+                .exchange()
+                .expectStatus().is5xxServerError();
+        assertFalse(new File(root, "readonly_upload.dat").exists());
+
+        createClient("nobody").get().uri("/get?path={path}", "/readonly.dat")
+                .exchange()
+                .expectStatus().isUnauthorized();
+    }
+
+    @Test
+    public void testRequestRate() throws Exception {
+        AuthUsers.setLimits("limited", 0, 0.1);
+        try {
+            WebTestClient limited = createClient("limited");
+            limited.get().uri("/info?path={path}", "/")
+                    .exchange()
+                    .expectStatus().isOk();
+            limited.get().uri("/info?path={path}", "/")
+                    .exchange()
+                    .expectStatus().isEqualTo(HttpStatus.TOO_MANY_REQUESTS)
+                    .expectHeader().exists(HttpHeaders.RETRY_AFTER);
+        } finally {
+            AuthUsers.setLimits("limited", -1, -1);
+        }
+    }
+
+    @Test
+    public void testThrottledTransfers() throws Exception {
+        // throttled downloads are read into buffers instead of sendfile, the contents must be the same
+        AuthUsers.setLimits("limited", 1024 * 1024, 0);
+        try {
+            WebTestClient limited = createClient("limited");
+            byte[] data = write("throttled.dat", 1024 * 1024);
+            long downloads = getThrottled("download");
+            long uploads = getThrottled("upload");
+            byte[] body = limited.get().uri("/get?path={path}", "/throttled.dat")
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBody().returnResult().getResponseBody();
+            assertArrayEquals(data, body);
+
+            limited.put().uri("/upload?path={path}&position=0", "/throttled_upload.dat")
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .bodyValue(data)
+                    .exchange()
+                    .expectStatus().isOk();
+            assertArrayEquals(data, Files.readAllBytes(new File(root, "throttled_upload.dat").toPath()));
+
+            // more than the burst was transferred so both directions waited
+            assertTrue(getThrottled("download") > downloads);
+            assertTrue(getThrottled("upload") > uploads);
+        } finally {
+            AuthUsers.setLimits("limited", -1, -1);
+        }
+    }
+
+    private static long getThrottled(String direction) {
+        return Metrics.globalRegistry.get("webfs.qos.throttled").tag("direction", direction).timer().count();
+    }
+
+    private static WebTestClient createClient(String user) {
+        return WebTestClient.bindToServer()
+                .baseUrl("http://localhost:" + port + "/api")
+                .defaultHeaders(headers -> headers.setBasicAuth(user, "password"))
+                .codecs(configurer -> configurer.defaultCodecs().maxInMemorySize(4 * 1024 * 1024))
+                .build();
+    }
+
+    private static byte[] write(String name, int length) throws Exception {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        Files.write(new File(root, name).toPath(), data);
+        return data;
+    }
+
+    private static void upload(String path, long position, String data) {
+        client.put().uri("/upload?path={path}&position={position}", path, position)
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .bodyValue(data.getBytes())
+                .exchange()
+                .expectStatus().is2xxSuccessful();
+    }
+}